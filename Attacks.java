@@ -0,0 +1,266 @@
+package org.cis1200.chess;
+
+import java.util.Random;
+
+/**
+ * Precomputed attack bitboards, built once when the class is loaded.
+ * Knight, king and pawn attacks are looked up per square. Rook and bishop
+ * attacks depend on the blockers along their rays and use magic bitboards:
+ * the blockers on the relevant squares are multiplied by a per-square magic
+ * number, and the top bits of the product index a table of attack sets, so a
+ * slider lookup is a few array reads instead of a walk along each ray.
+ *
+ * The magic numbers were found by the search in main, which prints a new set.
+ */
+public final class Attacks {
+    private static final int[] KNIGHT_ROWS = {-2, -2, -1, -1, 1, 1, 2, 2};
+    private static final int[] KNIGHT_COLS = {-1, 1, -2, 2, -2, 2, -1, 1};
+    private static final int[] KING_ROWS = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] KING_COLS = {-1, 0, 1, -1, 1, -1, 0, 1};
+    private static final int[] ROOK_ROWS = {-1, 1, 0, 0};
+    private static final int[] ROOK_COLS = {0, 0, -1, 1};
+    private static final int[] BISHOP_ROWS = {-1, -1, 1, 1};
+    private static final int[] BISHOP_COLS = {-1, 1, -1, 1};
+
+    private static final long[] KNIGHT_ATTACKS = new long[64];
+    private static final long[] KING_ATTACKS = new long[64];
+    //squares attacked by a pawn of each color, indexed by color then square
+    private static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    //the squares whose blockers matter for a slider, excluding the board edge
+    private static final long[] ROOK_MASKS = new long[64];
+    private static final long[] BISHOP_MASKS = new long[64];
+    private static final long[] ROOK_MAGICS = {
+        0x0080088020104000L, 0x0240002000100448L, 0x21000A4300102000L, 0x0500200490010008L,
+        0x0280020400800800L, 0x2300010004001208L, 0x22000A0032852814L, 0x8080054900102080L,
+        0x0020802040008000L, 0x00CA400044201006L, 0x1882001082002040L, 0x2102800800801000L,
+        0x0010800802800400L, 0x3002001004080201L, 0xE001000100020004L, 0x0020800040800100L,
+        0x0140008020408000L, 0x0000414000201000L, 0x0030808020041000L, 0x00A0210009001000L,
+        0x2008010010050008L, 0x8201010004000208L, 0x010A440011821008L, 0x4A00020010840051L,
+        0x0300209080004002L, 0x0A30200040005000L, 0x4200102200408202L, 0x0002001200082040L,
+        0x0000080100041100L, 0x8314008080040200L, 0x0284100400880102L, 0x0800F08200340041L,
+        0x0880002004400048L, 0x0000208101004001L, 0x0020100080802000L, 0xA204102202000842L,
+        0x0213000433000800L, 0x0882008012801400L, 0x1049100204000801L, 0x2040008042000104L,
+        0x0044802840008000L, 0x0000402010054002L, 0x0402002040820019L, 0x80DA610010030009L,
+        0x1A00040008008080L, 0x1081100420080140L, 0x0010080210040081L, 0x24B8204881020004L,
+        0x0000402080011100L, 0x5440208201004200L, 0x0000801000200080L, 0x0000080010008080L,
+        0x0008000880040080L, 0x0250020080040080L, 0x0016000401083200L, 0x8008008401004200L,
+        0x8002004226810016L, 0x0001C81203006082L, 0x002010408D200101L, 0x4004900100204449L,
+        0x1002009108600402L, 0x8419000204000801L, 0x1001004C16001281L, 0x0000410400402892L,
+    };
+    private static final long[] BISHOP_MAGICS = {
+        0x0003020818008080L, 0x0014040C422A1000L, 0x3008020400280050L, 0x00280855002A0000L,
+        0x00140422010441C0L, 0x12020844C4020010L, 0x4040480424228180L, 0x8250104210042000L,
+        0x40AC0A6088020040L, 0x0000204202021020L, 0x5001041802204210L, 0x110112408300A140L,
+        0x0480042420021070L, 0x9030008290400061L, 0x0020040088090801L, 0x1014009208010421L,
+        0x0048414002044408L, 0x01042C083004A600L, 0x0241001001020010L, 0x0008080404101040L,
+        0x0261008490400114L, 0x8082010101208220L, 0x0119000080901002L, 0x2002044100809C00L,
+        0x0008210004045000L, 0x0041210008020403L, 0x0820900008004010L, 0x0024040122410200L,
+        0x0804082204002000L, 0xA00040800300A001L, 0x1061004002080431L, 0x8010404401040200L,
+        0x3002024000214908L, 0x8022082009024220L, 0x0210180202840400L, 0x9010200800050811L,
+        0x00400820A0020180L, 0x0111100682210800L, 0x00C1041100009800L, 0x4088020040008455L,
+        0x8044010412124006L, 0x0C00881828808204L, 0x1082050401000200L, 0x9250014010410200L,
+        0x6201041008830402L, 0x0441020082000100L, 0x1020045400800040L, 0x000400888101060AL,
+        0x0101091110400098L, 0x0420288E08205200L, 0x00640101014100A1L, 0x000289A205040100L,
+        0x4814086821090300L, 0x800010A011044008L, 0xA0400801014E0140L, 0x0009900092810008L,
+        0x0011002090086820L, 0x000000C404052820L, 0x0004008024A41004L, 0x00949000420A0200L,
+        0x0A40002228030400L, 0x0004004004088083L, 0x2000600202284100L, 0x6030011040848102L,
+    };
+    private static final int[] ROOK_SHIFTS = new int[64];
+    private static final int[] BISHOP_SHIFTS = new int[64];
+    private static final long[][] ROOK_ATTACKS = new long[64][];
+    private static final long[][] BISHOP_ATTACKS = new long[64][];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            KNIGHT_ATTACKS[square] = stepAttacks(square, KNIGHT_ROWS, KNIGHT_COLS);
+            KING_ATTACKS[square] = stepAttacks(square, KING_ROWS, KING_COLS);
+            //white pawns move up the board (towards row 0), black pawns down
+            PAWN_ATTACKS[0][square] = stepAttacks(square, new int[] {-1, -1}, new int[] {-1, 1});
+            PAWN_ATTACKS[1][square] = stepAttacks(square, new int[] {1, 1}, new int[] {-1, 1});
+        }
+        for (int square = 0; square < 64; square++) {
+            ROOK_MASKS[square] = relevantMask(square, ROOK_ROWS, ROOK_COLS);
+            ROOK_SHIFTS[square] = 64 - Long.bitCount(ROOK_MASKS[square]);
+            ROOK_ATTACKS[square] = new long[1 << Long.bitCount(ROOK_MASKS[square])];
+            if (!fillTable(square, ROOK_MASKS[square], ROOK_MAGICS[square], ROOK_SHIFTS[square],
+                    ROOK_ROWS, ROOK_COLS, ROOK_ATTACKS[square])) {
+                throw new IllegalStateException("Invalid rook magic for square " + square);
+            }
+
+            BISHOP_MASKS[square] = relevantMask(square, BISHOP_ROWS, BISHOP_COLS);
+            BISHOP_SHIFTS[square] = 64 - Long.bitCount(BISHOP_MASKS[square]);
+            BISHOP_ATTACKS[square] = new long[1 << Long.bitCount(BISHOP_MASKS[square])];
+            if (!fillTable(square, BISHOP_MASKS[square], BISHOP_MAGICS[square],
+                    BISHOP_SHIFTS[square], BISHOP_ROWS, BISHOP_COLS, BISHOP_ATTACKS[square])) {
+                throw new IllegalStateException("Invalid bishop magic for square " + square);
+            }
+        }
+    }
+
+    private Attacks() {
+    }
+
+    public static long knight(int square) {
+        return KNIGHT_ATTACKS[square];
+    }
+
+    public static long king(int square) {
+        return KING_ATTACKS[square];
+    }
+
+    /**
+     * Gets the squares a pawn attacks diagonally, whether or not they are occupied.
+     * @param color The color of the pawn.
+     * @param square The square of the pawn.
+     * @return The attacked squares.
+     */
+    public static long pawn(int color, int square) {
+        return PAWN_ATTACKS[color][square];
+    }
+
+    /**
+     * Gets the squares a rook attacks, up to and including the first blocker on each ray.
+     * @param square The square of the rook.
+     * @param occupied The occupied squares of the position.
+     * @return The attacked squares.
+     */
+    public static long rook(int square, long occupied) {
+        int index = (int) (((occupied & ROOK_MASKS[square]) * ROOK_MAGICS[square])
+                >>> ROOK_SHIFTS[square]);
+        return ROOK_ATTACKS[square][index];
+    }
+
+    /**
+     * Gets the squares a bishop attacks, up to and including the first blocker on each ray.
+     * @param square The square of the bishop.
+     * @param occupied The occupied squares of the position.
+     * @return The attacked squares.
+     */
+    public static long bishop(int square, long occupied) {
+        int index = (int) (((occupied & BISHOP_MASKS[square]) * BISHOP_MAGICS[square])
+                >>> BISHOP_SHIFTS[square]);
+        return BISHOP_ATTACKS[square][index];
+    }
+
+    public static long queen(int square, long occupied) {
+        return rook(square, occupied) | bishop(square, occupied);
+    }
+
+    //the squares one step away in each of the given directions
+    private static long stepAttacks(int square, int[] rowSteps, int[] colSteps) {
+        long attacks = 0;
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = Bitboard.row(square) + rowSteps[i];
+            int col = Bitboard.col(square) + colSteps[i];
+            if (row >= 0 && row < 8 && col >= 0 && col < 8) {
+                attacks |= Bitboard.bit(Bitboard.square(row, col));
+            }
+        }
+        return attacks;
+    }
+
+    //walks each ray up to and including the first blocker; only used to build the tables
+    private static long slidingAttacks(int square, long occupied, int[] rowSteps,
+                                       int[] colSteps) {
+        long attacks = 0;
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = Bitboard.row(square) + rowSteps[i];
+            int col = Bitboard.col(square) + colSteps[i];
+            while (row >= 0 && row < 8 && col >= 0 && col < 8) {
+                long bit = Bitboard.bit(Bitboard.square(row, col));
+                attacks |= bit;
+                if ((occupied & bit) != 0) {
+                    break;
+                }
+                row += rowSteps[i];
+                col += colSteps[i];
+            }
+        }
+        return attacks;
+    }
+
+    //the ray squares before the edge, since a blocker on the last square changes nothing
+    private static long relevantMask(int square, int[] rowSteps, int[] colSteps) {
+        long mask = 0;
+        for (int i = 0; i < rowSteps.length; i++) {
+            int row = Bitboard.row(square) + rowSteps[i];
+            int col = Bitboard.col(square) + colSteps[i];
+            while (row + rowSteps[i] >= 0 && row + rowSteps[i] < 8
+                    && col + colSteps[i] >= 0 && col + colSteps[i] < 8) {
+                mask |= Bitboard.bit(Bitboard.square(row, col));
+                row += rowSteps[i];
+                col += colSteps[i];
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Fills a square's attack table using a magic number.
+     * @return false if two blocker sets with different attacks share a table index,
+     * meaning the number is not magic for this square.
+     */
+    private static boolean fillTable(int square, long mask, long magic, int shift,
+                                     int[] rowSteps, int[] colSteps, long[] table) {
+        boolean[] isUsed = new boolean[table.length];
+        //enumerates every subset of the mask (the carry-rippler trick)
+        long blockers = 0;
+        do {
+            long attacks = slidingAttacks(square, blockers, rowSteps, colSteps);
+            int index = (int) ((blockers * magic) >>> shift);
+            if (isUsed[index] && table[index] != attacks) {
+                return false;
+            }
+            isUsed[index] = true;
+            table[index] = attacks;
+            blockers = (blockers - mask) & mask;
+        } while (blockers != 0);
+        return true;
+    }
+
+    //tries random numbers with few bits set until one is magic for the square
+    private static long findMagic(int square, long mask, int shift, int[] rowSteps,
+                                  int[] colSteps, Random random) {
+        long[] table = new long[1 << (64 - shift)];
+        while (true) {
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            if (Long.bitCount((mask * magic) >>> 56) >= 6
+                    && fillTable(square, mask, magic, shift, rowSteps, colSteps, table)) {
+                return magic;
+            }
+        }
+    }
+
+    /**
+     * Searches for a new set of rook and bishop magic numbers and prints them in
+     * the form of the tables above.
+     * Usage: Attacks [seed]
+     */
+    public static void main(String[] args) {
+        long seed = 0x6D616769L;
+        if (args.length > 0) {
+            seed = Long.parseLong(args[0]);
+        }
+        Random random = new Random(seed);
+        long[] rookMagics = new long[64];
+        long[] bishopMagics = new long[64];
+        for (int square = 0; square < 64; square++) {
+            rookMagics[square] = findMagic(square, ROOK_MASKS[square], ROOK_SHIFTS[square],
+                    ROOK_ROWS, ROOK_COLS, random);
+            bishopMagics[square] = findMagic(square, BISHOP_MASKS[square],
+                    BISHOP_SHIFTS[square], BISHOP_ROWS, BISHOP_COLS, random);
+        }
+        printMagics("ROOK_MAGICS", rookMagics);
+        printMagics("BISHOP_MAGICS", bishopMagics);
+    }
+
+    private static void printMagics(String name, long[] magics) {
+        System.out.println("    private static final long[] " + name + " = {");
+        for (int i = 0; i < magics.length; i += 4) {
+            System.out.printf("        0x%016XL, 0x%016XL, 0x%016XL, 0x%016XL,%n",
+                    magics[i], magics[i + 1], magics[i + 2], magics[i + 3]);
+        }
+        System.out.println("    };");
+    }
+}
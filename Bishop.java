@@ -3,6 +3,7 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public class Bishop extends Piece implements Serializable {
+    private static final long serialVersionUID = 3154050240008085971L;
 
     //creates Bishop object using Piece's (superclass)'s constructor
     public Bishop(int color, Position position) {
@@ -11,30 +12,23 @@ public class Bishop extends Piece implements Serializable {
 
     /**
      * Function to check if a move is valid for the bishop.
-     * @param to Position to move the piece to.
+     * @param to Square to move the piece to, 0 to 63.
      * @param game The state of the Chess game.
      * @return true if move is valid, false otherwise.
      */
 
     @Override
-    public boolean isValidMove(Position to, Chess game) {
-        //checks if the target position is invalid
-        if (!game.isValidPosition(to)) {
+    public boolean isValidMove(int to, Chess game) {
+        //checks if the target square is invalid
+        if (to < 0 || to >= 64) {
             return false;
         }
 
-        //calculates the # difference in row & columns between the target and original positions
-        Position from = this.getPosition();
-        int rowDifference = Math.abs(to.getRow() - from.getRow());
-        int colDifference = Math.abs(to.getCol() - from.getCol());
+        //looks up the squares the piece attacks from its current square
+        int from = this.getPosition().getSquare();
 
-        //checks if the move is Diagonal
-        if (rowDifference != colDifference) {
-            return false;
-        }
-
-        //checks if there are friendly pieces in path
-        if (!isPathClear(from, to, game)) {
+        //checks if the move is diagonal with no pieces in the path
+        if ((Attacks.bishop(from, game.getOccupied()) & Bitboard.bit(to)) == 0) {
             return false;
         }
 
@@ -42,28 +36,9 @@ public class Bishop extends Piece implements Serializable {
         return p == null || p.getColor() != this.getColor();
     }
 
-    /**
-     * Helper function to check if the path between two positions is clear.
-     * @param from  The starting position.
-     * @param to    The end position.
-     * @param game  The state of the Chess game.
-     * @return true if the path is clear, false otherwise.
-     */
-
-    private boolean isPathClear(Position from, Position to, Chess game) {
-        int rowDirection = Integer.compare(to.getRow(), from.getRow());
-        int colDirection = Integer.compare(to.getCol(), from.getCol());
-        int currentRow = from.getRow() + rowDirection;
-        int currentCol = from.getCol() + colDirection;
-
-        while (currentRow != to.getRow()) {
-            if (game.getPiece(new Position(currentRow, currentCol)) != null) {
-                return false;
-            }
-            currentRow += rowDirection;
-            currentCol += colDirection;
-        }
-        return true;
+    @Override
+    public int getType() {
+        return BISHOP;
     }
 
     @Override
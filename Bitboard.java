@@ -0,0 +1,38 @@
+package org.cis1200.chess;
+
+/**
+ * Helpers for the 64-bit bitboards that back the Chess position.
+ * Squares are numbered 0 to 63 with square = row * 8 + col, so bit 0 is
+ * the top left corner (row 0, col 0) and bit 63 is the bottom right corner.
+ */
+public final class Bitboard {
+    //squares where (row + col) is even, drawn as the light squares by ChessBoard
+    public static final long LIGHT_SQUARES = 0xAA55AA55AA55AA55L;
+    public static final long DARK_SQUARES = ~LIGHT_SQUARES;
+
+    private Bitboard() {
+    }
+
+    /**
+     * Converts a row and column into a square index.
+     * @param row The row, 0 to 7.
+     * @param col The column, 0 to 7.
+     * @return The square index, 0 to 63.
+     */
+    public static int square(int row, int col) {
+        return row * 8 + col;
+    }
+
+    public static int row(int square) {
+        return square >> 3;
+    }
+
+    public static int col(int square) {
+        return square & 7;
+    }
+
+    //returns the bitboard with only the given square set
+    public static long bit(int square) {
+        return 1L << square;
+    }
+}
@@ -0,0 +1,391 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.Move;
+import org.cis1200.chess.PgnGame;
+import org.cis1200.chess.PgnImporter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds an OpeningBook from the games of a PGN file. Every position in the first plies
+ * of each game is recorded with the move played and a weight from the game's result:
+ * 2 when the player who moved won, 1 for a draw (or an unknown result) and 0 for a loss.
+ *
+ * The entries are collected with an external sort, so the corpus may be much larger than
+ * memory. Each PgnImporter worker fills its own run buffer; a full buffer is sorted,
+ * equal entries are added together, and it is written to a temporary run file, all on
+ * the worker's thread. The runs are then merged into the book, adding up the weights of
+ * each position and move and scaling them to fit in the book's 16 bits. The book is keyed
+ * by Chess.getZobristKey, so only OpeningBook reads it; see there.
+ */
+public class BookBuilder {
+    //by default only the first dozen plies are kept, after which the engine searches
+    public static final int DEFAULT_BOOK_PLIES = 12;
+    //entries per run buffer, 16 bytes each
+    private static final int RUN_ENTRIES = 1 << 20;
+    private static final int MAX_WEIGHT = 0xFFFF;
+    //Polyglot moves are 16 bits, so a position has at most this many different ones
+    private static final int MOVE_CODES = 1 << 16;
+
+    private final int maxPlies;
+    private final PgnImporter importer;
+    private final List<RunBuffer> buffers = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    //the first run that could not be written; workers cannot throw it themselves
+    private volatile IOException spillFailure;
+    private final ThreadLocal<RunBuffer> threadBuffer = new ThreadLocal<RunBuffer>() {
+        @Override
+        protected RunBuffer initialValue() {
+            RunBuffer buffer = new RunBuffer();
+            synchronized (buffers) {
+                buffers.add(buffer);
+            }
+            return buffer;
+        }
+    };
+
+    /**
+     * Creates a book builder.
+     * @param maxPlies The number of plies of each game to put in the book.
+     * @param threadCount The number of threads that parse games and sort runs.
+     */
+    public BookBuilder(int maxPlies, int threadCount) {
+        this.maxPlies = maxPlies;
+        importer = new PgnImporter(threadCount);
+    }
+
+    public PgnImporter getImporter() {
+        return importer;
+    }
+
+    /**
+     * Builds a book from a PGN file.
+     * @param pgnPath The games.
+     * @param bookPath The book file to write, replacing any existing file.
+     * @return The number of entries in the book.
+     * @throws IOException When a file cannot be read or written.
+     */
+    public long build(Path pgnPath, Path bookPath) throws IOException {
+        try {
+            importer.importFile(pgnPath, new PgnImporter.GameHandler() {
+                public void handle(PgnGame game) {
+                    addGame(game);
+                }
+            });
+            //the workers have finished, so their part-filled buffers can be written here
+            for (RunBuffer buffer : buffers) {
+                buffer.spill();
+            }
+            if (spillFailure != null) {
+                throw spillFailure;
+            }
+            return merge(bookPath);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+            buffers.clear();
+            spillFailure = null;
+        }
+    }
+
+    //adds the opening positions of a game to the calling worker's run buffer
+    private void addGame(PgnGame pgnGame) {
+        Chess game = pgnGame.getGame();
+        int whiteWeight = 1;
+        int blackWeight = 1;
+        if ("1-0".equals(pgnGame.getResult())) {
+            whiteWeight = 2;
+            blackWeight = 0;
+        } else if ("0-1".equals(pgnGame.getResult())) {
+            whiteWeight = 0;
+            blackWeight = 2;
+        }
+
+        RunBuffer buffer = threadBuffer.get();
+        List<Move> moves = game.getMoveHistory();
+        Chess replay = game.getStartPosition();
+        for (int ply = 0; ply < moves.size() && ply < maxPlies; ply++) {
+            int move = moves.get(ply).getCode();
+            int weight;
+            if (replay.isWhiteTurn()) {
+                weight = whiteWeight;
+            } else {
+                weight = blackWeight;
+            }
+            buffer.add(replay.getZobristKey(), OpeningBook.toPolyglotMove(move), weight);
+            replay.playMove(move);
+        }
+    }
+
+    /**
+     * Merges the sorted runs into the book, adding up the weights of equal entries.
+     * @return The number of entries written.
+     */
+    private long merge(Path bookPath) throws IOException {
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+                new Comparator<RunReader>() {
+                    public int compare(RunReader a, RunReader b) {
+                        return compareEntries(a.key, a.move, b.key, b.move);
+                    }
+                });
+        long entryCount = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(bookPath), 1 << 16))) {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            //the moves of the current position and their total weights
+            int[] moves = new int[MOVE_CODES];
+            long[] weights = new long[moves.length];
+            int moveCount = 0;
+            long key = 0;
+            while (!queue.isEmpty()) {
+                RunReader reader = queue.poll();
+                if (moveCount > 0 && reader.key != key) {
+                    entryCount += writePosition(out, key, moves, weights, moveCount);
+                    moveCount = 0;
+                }
+                key = reader.key;
+                if (moveCount > 0 && moves[moveCount - 1] == reader.move) {
+                    weights[moveCount - 1] += reader.weight;
+                } else {
+                    moves[moveCount] = reader.move;
+                    weights[moveCount] = reader.weight;
+                    moveCount++;
+                }
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+            if (moveCount > 0) {
+                entryCount += writePosition(out, key, moves, weights, moveCount);
+            }
+        } finally {
+            for (RunReader reader : queue) {
+                reader.close();
+            }
+        }
+        return entryCount;
+    }
+
+    /**
+     * Writes the book entries of one position, scaling the weights so the largest fits
+     * in 16 bits and leaving out moves whose weight is 0.
+     * @return The number of entries written.
+     */
+    private static int writePosition(DataOutputStream out, long key, int[] moves,
+            long[] weights, int moveCount) throws IOException {
+        long maxWeight = 0;
+        for (int i = 0; i < moveCount; i++) {
+            maxWeight = Math.max(maxWeight, weights[i]);
+        }
+        int written = 0;
+        for (int i = 0; i < moveCount; i++) {
+            long weight = weights[i];
+            if (maxWeight > MAX_WEIGHT) {
+                weight = weight * MAX_WEIGHT / maxWeight;
+            }
+            if (weight > 0) {
+                out.writeLong(key);
+                out.writeShort(moves[i]);
+                out.writeShort((int) weight);
+                //Polyglot's learning field, unused
+                out.writeInt(0);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    //orders entries by key, compared as unsigned like Polyglot, and then by move
+    private static int compareEntries(long key1, int move1, long key2, int move2) {
+        int order = Long.compareUnsigned(key1, key2);
+        if (order != 0) {
+            return order;
+        }
+        return Integer.compare(move1, move2);
+    }
+
+    /**
+     * The entries collected by one worker thread: a position key and a move with its
+     * weight, packed as move << 32 | weight, in two parallel arrays.
+     */
+    private class RunBuffer {
+        private final long[] keys = new long[RUN_ENTRIES];
+        private final long[] values = new long[RUN_ENTRIES];
+        private int size;
+
+        void add(long key, int move, int weight) {
+            if (size == RUN_ENTRIES) {
+                spill();
+            }
+            keys[size] = key;
+            values[size] = (long) move << 32 | weight;
+            size++;
+        }
+
+        //sorts the entries, adds up equal ones and writes them to a new run file
+        void spill() {
+            if (size == 0) {
+                return;
+            }
+            sort(0, size - 1);
+            try {
+                Path run = Files.createTempFile("book", ".run");
+                synchronized (runs) {
+                    runs.add(run);
+                }
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(run), 1 << 16))) {
+                    int i = 0;
+                    while (i < size) {
+                        long key = keys[i];
+                        int move = (int) (values[i] >>> 32);
+                        long weight = 0;
+                        while (i < size && keys[i] == key
+                                && (int) (values[i] >>> 32) == move) {
+                            weight += values[i] & 0xFFFFFFFFL;
+                            i++;
+                        }
+                        out.writeLong(key);
+                        out.writeShort(move);
+                        out.writeLong(weight);
+                    }
+                }
+            } catch (IOException e) {
+                if (spillFailure == null) {
+                    spillFailure = e;
+                }
+            }
+            size = 0;
+        }
+
+        //quicksort of both arrays by key and then move, insertion sort for short ranges
+        private void sort(int low, int high) {
+            while (high - low > 16) {
+                int middle = (low + high) >>> 1;
+                long pivotKey = keys[middle];
+                int pivotMove = (int) (values[middle] >>> 32);
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compareEntries(keys[i], (int) (values[i] >>> 32),
+                            pivotKey, pivotMove) < 0) {
+                        i++;
+                    }
+                    while (compareEntries(keys[j], (int) (values[j] >>> 32),
+                            pivotKey, pivotMove) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(i, j);
+                        i++;
+                        j--;
+                    }
+                }
+                //recurses into the smaller part so the stack stays shallow
+                if (j - low < high - i) {
+                    sort(low, j);
+                    low = i;
+                } else {
+                    sort(i, high);
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                for (int j = i; j > low && compareEntries(keys[j - 1],
+                        (int) (values[j - 1] >>> 32), keys[j], (int) (values[j] >>> 32)) > 0;
+                        j--) {
+                    swap(j - 1, j);
+                }
+            }
+        }
+
+        private void swap(int i, int j) {
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            long value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    //reads a run file one entry at a time during the merge
+    private static class RunReader {
+        private final DataInputStream in;
+        private long key;
+        private int move;
+        private long weight;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run),
+                    1 << 16));
+        }
+
+        //reads the next entry, returning false at the end of the run
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            move = in.readUnsignedShort();
+            weight = in.readLong();
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Builds an opening book from a PGN file.
+     * Usage: BookBuilder games.pgn book.bin [plies] [threads]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BookBuilder games.pgn book.bin [plies] [threads]");
+            return;
+        }
+        int plies = DEFAULT_BOOK_PLIES;
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 2) {
+            plies = Integer.parseInt(args[2]);
+        }
+        if (args.length > 3) {
+            threads = Integer.parseInt(args[3]);
+        }
+        long start = System.nanoTime();
+        BookBuilder builder = new BookBuilder(plies, threads);
+        long entries = builder.build(Paths.get(args[0]), Paths.get(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games (%d failed), %d book entries in %.2f s%n",
+                builder.getImporter().getGameCount(), builder.getImporter().getFailureCount(),
+                entries, seconds);
+    }
+}
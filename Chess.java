@@ -1,15 +1,90 @@
 package org.cis1200.chess;
 
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class Chess implements Serializable {
+    private static final long serialVersionUID = 39461682392336500L;
+
+    //castling rights bits, see getCastlingRights
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    //rows 0 and 7, where no pawn can stand
+    private static final long BACK_ROWS = 0xFFL | (0xFFL << 56);
+
+    //undo entries for a typical game; the stack grows if a game runs longer
+    private static final int INITIAL_UNDO_CAPACITY = 128;
+
+    //save files start with "CHES" and the format version, see writeGame
+    private static final int SAVE_MAGIC = 0x43484553;
+    private static final int SAVE_VERSION = 2;
+    //set in the save flags when the game did not start from the standard position
+    private static final int CUSTOM_START_FLAG = 1;
+    //64 four-bit squares, the side to move, castling rights, en passant square and the
+    //move counters; version 1 saves had no move counters
+    static final int PACKED_POSITION_BYTES = 38;
+    private static final int VERSION_1_PACKED_POSITION_BYTES = 35;
+    //saves in the old format are Java serialization streams, which start with these bytes
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    //FEN letters indexed by color * 6 + type
+    static final String FEN_PIECES = "PNBRQKpnbrqk";
+    //color * 6 + type of each FEN piece letter, or -1 for other characters
+    private static final byte[] FEN_PIECE_INDEX = new byte[128];
+
+    static {
+        Arrays.fill(FEN_PIECE_INDEX, (byte) -1);
+        for (int i = 0; i < FEN_PIECES.length(); i++) {
+            FEN_PIECE_INDEX[FEN_PIECES.charAt(i)] = (byte) i;
+        }
+    }
+
     private Piece[][] board;
+    //one bitboard per piece type and color, indexed by color * 6 + type
+    private long[] pieceBoards;
+    //one occupancy bitboard per color, and the union of both
+    private long[] colorBoards;
+    private long occupied;
+    //the number of pieces of each piece index, kept up to date by setPiece
+    private int[] pieceCounts;
+    //square a pawn can capture onto en passant, or -1 if there is none
+    private int enPassantSquare;
+    //Zobrist hash of the position, updated incrementally (see Zobrist)
+    private long zobristKey;
+    //the castling rights currently included in zobristKey
+    private int hashedCastlingRights;
+    //scratch buffer for move generation inside Chess
+    private int[] moveBuffer;
     private List<Move> moveHistory;
+    //the position the game started from (see packPosition), or null for the standard start
+    private byte[] startPosition;
+    //what makeMove changed for each move not yet unmade, so unmakeMove can restore it
+    private UndoEntry[] undoStack;
+    private int undoCount;
+    //the hash of the position before each move made and not yet unmade, for repetitions
+    private long[] positionKeys;
+    private int positionKeyCount;
+    //what checkForGameOver found for the position hashed resultKey, while isResultKnown
+    private String gameOverResult;
+    private long resultKey;
+    private boolean isResultKnown;
     private Move lastMove;
     private boolean isWhiteTurn;
+    //plies since the last capture or pawn move, for the fifty-move rule
+    private int halfmoveClock;
+    //starts at 1 and goes up after each of black's moves
+    private int fullmoveNumber;
     private boolean isGameOver;
+    //endgame tables consulted by checkForGameOver, or null
+    private Tablebase tablebase;
     private Position whiteKingPosition;
     private Position blackKingPosition;
 
@@ -17,46 +92,477 @@ public class Chess implements Serializable {
         reset();
     }
 
+    /**
+     * Creates a copy of another game. The copy has its own pieces, so either game
+     * can be changed without affecting the other.
+     * @param other The game to copy.
+     */
+    public Chess(Chess other) {
+        clearBoard();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                Piece piece = other.board[row][col];
+                if (piece != null) {
+                    Piece copy = Piece.create(piece.getType(), piece.getColor(),
+                            piece.getPosition());
+                    if (piece.hasMoved()) {
+                        copy.markAsMoved();
+                    }
+                    setPiece(Position.of(row, col), copy);
+                }
+            }
+        }
+        moveHistory.addAll(other.moveHistory);
+        startPosition = other.startPosition;
+        lastMove = other.lastMove;
+        enPassantSquare = other.enPassantSquare;
+        isWhiteTurn = other.isWhiteTurn;
+        halfmoveClock = other.halfmoveClock;
+        fullmoveNumber = other.fullmoveNumber;
+        isGameOver = other.isGameOver;
+        tablebase = other.tablebase;
+        zobristKey = other.zobristKey;
+        hashedCastlingRights = other.hashedCastlingRights;
+        positionKeys = Arrays.copyOf(other.positionKeys, other.positionKeys.length);
+        positionKeyCount = other.positionKeyCount;
+        gameOverResult = other.gameOverResult;
+        resultKey = other.resultKey;
+        isResultKnown = other.isResultKnown;
+    }
+
     //resets the game state and initializes board
     public void reset() {
-        board = new Piece[8][8];
-        moveHistory = new ArrayList<>();
+        clearBoard();
+        initializeBoard();
+    }
+
+    //removes every piece from the board and resets the game state, reusing the arrays
+    //of an earlier game so that loading many positions into one Chess is cheap
+    private void clearBoard() {
+        if (board == null) {
+            board = new Piece[8][8];
+            pieceBoards = new long[12];
+            pieceCounts = new int[12];
+            colorBoards = new long[2];
+            moveBuffer = new int[MoveGenerator.MAX_MOVES];
+            moveHistory = new ArrayList<>();
+            undoStack = new UndoEntry[INITIAL_UNDO_CAPACITY];
+            positionKeys = new long[INITIAL_UNDO_CAPACITY];
+        } else {
+            for (Piece[] row : board) {
+                Arrays.fill(row, null);
+            }
+            Arrays.fill(pieceBoards, 0L);
+            Arrays.fill(pieceCounts, 0);
+            Arrays.fill(colorBoards, 0L);
+            moveHistory.clear();
+            for (int i = 0; i < undoCount; i++) {
+                undoStack[i].movedPiece = null;
+                undoStack[i].capturedPiece = null;
+            }
+        }
+        occupied = 0L;
+        enPassantSquare = -1;
+        zobristKey = 0L;
+        hashedCastlingRights = 0;
+        startPosition = null;
+        undoCount = 0;
+        positionKeyCount = 0;
+        isResultKnown = false;
+        lastMove = null;
         isWhiteTurn = true;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
         isGameOver = false;
-
-        initializeBoard();
+        whiteKingPosition = null;
+        blackKingPosition = null;
     }
 
     //initializes chessboard with pieces in their starting positions
     public void initializeBoard() {
         //set the pawns
         for (int col = 0; col < 8; col++) {
-            setPiece(new Position(1, col), new Pawn(1, new Position(1, col)));
-            setPiece(new Position(6, col), new Pawn(0, new Position(6, col)));
+            setPiece(Position.of(1, col), new Pawn(1, Position.of(1, col)));
+            setPiece(Position.of(6, col), new Pawn(0, Position.of(6, col)));
         }
         //set black pieces
-        setPiece(new Position(0,0), new Rook(1, new Position(0, 0)));
-        setPiece(new Position(0,1), new Knight(1, new Position(0, 1)));
-        setPiece(new Position(0,2), new Bishop(1, new Position(0, 2)));
-        setPiece(new Position(0,3), new Queen(1, new Position(0, 3)));
-        setPiece(new Position(0,4), new King(1, new Position(0, 4)));
-        setPiece(new Position(0,5), new Bishop(1, new Position(0, 5)));
-        setPiece(new Position(0,6), new Knight(1, new Position(0, 6)));
-        setPiece(new Position(0,7), new Rook(1, new Position(0, 7)));
+        setPiece(Position.of(0,0), new Rook(1, Position.of(0, 0)));
+        setPiece(Position.of(0,1), new Knight(1, Position.of(0, 1)));
+        setPiece(Position.of(0,2), new Bishop(1, Position.of(0, 2)));
+        setPiece(Position.of(0,3), new Queen(1, Position.of(0, 3)));
+        setPiece(Position.of(0,4), new King(1, Position.of(0, 4)));
+        setPiece(Position.of(0,5), new Bishop(1, Position.of(0, 5)));
+        setPiece(Position.of(0,6), new Knight(1, Position.of(0, 6)));
+        setPiece(Position.of(0,7), new Rook(1, Position.of(0, 7)));
 
         //set white pieces
-        setPiece(new Position(7,0), new Rook(0, new Position(7,0)));
-        setPiece(new Position(7,1), new Knight(0, new Position(7,1)));
-        setPiece(new Position(7,2), new Bishop(0, new Position(7,2)));
-        setPiece(new Position(7,3), new Queen(0, new Position(7,3)));
-        setPiece(new Position(7,4), new King(0, new Position(7,4)));
-        setPiece(new Position(7,5), new Bishop(0, new Position(7,5)));
-        setPiece(new Position(7,6), new Knight(0, new Position(7,6)));
-        setPiece(new Position(7,7), new Rook(0, new Position(7,7)));
+        setPiece(Position.of(7,0), new Rook(0, Position.of(7,0)));
+        setPiece(Position.of(7,1), new Knight(0, Position.of(7,1)));
+        setPiece(Position.of(7,2), new Bishop(0, Position.of(7,2)));
+        setPiece(Position.of(7,3), new Queen(0, Position.of(7,3)));
+        setPiece(Position.of(7,4), new King(0, Position.of(7,4)));
+        setPiece(Position.of(7,5), new Bishop(0, Position.of(7,5)));
+        setPiece(Position.of(7,6), new Knight(0, Position.of(7,6)));
+        setPiece(Position.of(7,7), new Rook(0, Position.of(7,7)));
 
         //set king positions
-        whiteKingPosition = new Position(7,4);
-        blackKingPosition = new Position(0,4);
+        whiteKingPosition = Position.of(7,4);
+        blackKingPosition = Position.of(0,4);
+
+        hashedCastlingRights = getCastlingRights();
+        zobristKey = computeZobristKey();
+    }
+
+    /**
+     * Sets up the board from a position in Forsyth-Edwards Notation (FEN).
+     * Castling rights are kept by leaving the king and the matching rook unmoved,
+     * and every other king, rook and pawn off its starting row is marked as moved.
+     * The FEN is scanned in place instead of being split, so apart from the pieces
+     * themselves loading a position does not allocate. Missing trailing fields
+     * default to "- - 0 1".
+     * @param fen The position, e.g. "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1".
+     * @throws IllegalArgumentException When the FEN is malformed, has a pawn on the first
+     * or last row, or gives an en passant square no pawn can just have skipped.
+     */
+    public void loadFen(String fen) {
+        clearBoard();
+
+        //piece placement, from row 0 (black's back row) down to row 7
+        int start = skipSpaces(fen, 0);
+        int end = fieldEnd(fen, start);
+        int row = 0;
+        int col = 0;
+        for (int i = start; i < end; i++) {
+            char c = fen.charAt(i);
+            if (c == '/') {
+                if (col != 8) {
+                    throw invalidFen(fen);
+                }
+                row++;
+                col = 0;
+            } else if (c >= '1' && c <= '8') {
+                col += c - '0';
+            } else {
+                int index = -1;
+                if (c < FEN_PIECE_INDEX.length) {
+                    index = FEN_PIECE_INDEX[c];
+                }
+                if (index < 0 || row > 7 || col > 7) {
+                    throw invalidFen(fen);
+                }
+                setPiece(Bitboard.square(row, col),
+                        Piece.create(index % 6, index / 6, Position.of(row, col)));
+                col++;
+            }
+            if (col > 8) {
+                throw invalidFen(fen);
+            }
+        }
+        if (row != 7 || col != 8 || whiteKingPosition == null || blackKingPosition == null
+                || hasPawnOnBackRow()) {
+            throw invalidFen(fen);
+        }
+
+        //side to move
+        start = skipSpaces(fen, end);
+        end = fieldEnd(fen, start);
+        if (end - start != 1) {
+            throw invalidFen(fen);
+        }
+        if (fen.charAt(start) == 'w') {
+            isWhiteTurn = true;
+        } else if (fen.charAt(start) == 'b') {
+            isWhiteTurn = false;
+        } else {
+            throw invalidFen(fen);
+        }
+
+        //castling rights
+        start = skipSpaces(fen, end);
+        end = fieldEnd(fen, start);
+        int castlingRights = 0;
+        if (!isDash(fen, start, end)) {
+            for (int i = start; i < end; i++) {
+                char c = fen.charAt(i);
+                if (c == 'K') {
+                    castlingRights |= WHITE_KINGSIDE;
+                } else if (c == 'Q') {
+                    castlingRights |= WHITE_QUEENSIDE;
+                } else if (c == 'k') {
+                    castlingRights |= BLACK_KINGSIDE;
+                } else if (c == 'q') {
+                    castlingRights |= BLACK_QUEENSIDE;
+                } else {
+                    throw invalidFen(fen);
+                }
+            }
+        }
+        markMovedPieces(castlingRights);
+
+        //en passant target square, e.g. "e3"
+        start = skipSpaces(fen, end);
+        end = fieldEnd(fen, start);
+        if (end > start && !isDash(fen, start, end)) {
+            if (end - start != 2) {
+                throw invalidFen(fen);
+            }
+            int epCol = fen.charAt(start) - 'a';
+            int epRow = '8' - fen.charAt(start + 1);
+            if (epCol < 0 || epCol > 7 || epRow < 0 || epRow > 7
+                    || !isValidEnPassantSquare(Bitboard.square(epRow, epCol))) {
+                throw invalidFen(fen);
+            }
+            enPassantSquare = Bitboard.square(epRow, epCol);
+        }
+
+        //halfmove clock and fullmove number
+        start = skipSpaces(fen, end);
+        end = fieldEnd(fen, start);
+        if (end > start) {
+            halfmoveClock = parseCounter(fen, start, end);
+        }
+        start = skipSpaces(fen, end);
+        end = fieldEnd(fen, start);
+        if (end > start) {
+            fullmoveNumber = Math.max(parseCounter(fen, start, end), 1);
+        }
+        if (skipSpaces(fen, end) != fen.length()) {
+            throw invalidFen(fen);
+        }
+
+        hashedCastlingRights = getCastlingRights();
+        zobristKey = computeZobristKey();
+        startPosition = packPosition();
+    }
+
+    /**
+     * Gets the position in Forsyth-Edwards Notation. The castling rights come from
+     * which kings and rooks have moved, and the en passant square is given after
+     * every double pawn push.
+     * @return The FEN, which loadFen reads back into the same position.
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        appendFen(fen);
+        return fen.toString();
+    }
+
+    /**
+     * Appends the position in Forsyth-Edwards Notation, so that many positions can be
+     * written into one buffer without creating a String for each.
+     * @param fen The buffer to append to.
+     */
+    public void appendFen(StringBuilder fen) {
+        for (int row = 0; row < 8; row++) {
+            if (row > 0) {
+                fen.append('/');
+            }
+            int emptySquares = 0;
+            for (int col = 0; col < 8; col++) {
+                Piece piece = board[row][col];
+                if (piece == null) {
+                    emptySquares++;
+                } else {
+                    if (emptySquares > 0) {
+                        fen.append((char) ('0' + emptySquares));
+                        emptySquares = 0;
+                    }
+                    fen.append(FEN_PIECES.charAt(piece.getColor() * 6 + piece.getType()));
+                }
+            }
+            if (emptySquares > 0) {
+                fen.append((char) ('0' + emptySquares));
+            }
+        }
+
+        appendFenState(fen, isWhiteTurn, getCastlingRights(), enPassantSquare, halfmoveClock,
+                fullmoveNumber);
+    }
+
+    //appends the FEN fields after the board: side to move, castling, en passant and clocks
+    static void appendFenState(StringBuilder fen, boolean isWhiteTurn, int castlingRights,
+            int enPassantSquare, int halfmoveClock, int fullmoveNumber) {
+        if (isWhiteTurn) {
+            fen.append(" w ");
+        } else {
+            fen.append(" b ");
+        }
+
+        if (castlingRights == 0) {
+            fen.append('-');
+        }
+        if ((castlingRights & WHITE_KINGSIDE) != 0) {
+            fen.append('K');
+        }
+        if ((castlingRights & WHITE_QUEENSIDE) != 0) {
+            fen.append('Q');
+        }
+        if ((castlingRights & BLACK_KINGSIDE) != 0) {
+            fen.append('k');
+        }
+        if ((castlingRights & BLACK_QUEENSIDE) != 0) {
+            fen.append('q');
+        }
+
+        if (enPassantSquare < 0) {
+            fen.append(" - ");
+        } else {
+            fen.append(' ')
+                    .append((char) ('a' + Bitboard.col(enPassantSquare)))
+                    .append((char) ('8' - Bitboard.row(enPassantSquare)))
+                    .append(' ');
+        }
+        fen.append(halfmoveClock).append(' ').append(fullmoveNumber);
+    }
+
+    /**
+     * Takes an immutable copy of the position that other threads may keep and read while
+     * this game goes on. It copies the piece bitboards and the state words only, so it is
+     * cheap enough to take after every move.
+     * @return The snapshot.
+     */
+    public GameSnapshot snapshot() {
+        int lastMoveCode = Move.NONE;
+        if (lastMove != null) {
+            lastMoveCode = lastMove.getCode();
+        }
+        //hashedCastlingRights is brought up to date after every move, unlike the
+        //hasMoved flags it saves walking the four corners
+        return new GameSnapshot(pieceBoards.clone(), isWhiteTurn, hashedCastlingRights,
+                enPassantSquare, halfmoveClock, fullmoveNumber, zobristKey, moveHistory.size(),
+                lastMoveCode, isGameOver);
+    }
+
+    /**
+     * Takes an immutable copy of the whole game, which other threads may write out, e.g.
+     * as a MoveJournal checkpoint. It copies the move codes and the position hashes, two
+     * arrays as long as the game, and packs the current position.
+     * @return The checkpoint; see restore.
+     * @throws IllegalStateException When the game is too long for the checkpoint format,
+     * or a move made with makeMove has not been unmade.
+     */
+    public GameCheckpoint checkpoint() {
+        int count = moveHistory.size();
+        if (count > 0xFFFF) {
+            throw new IllegalStateException("Game too long to checkpoint");
+        }
+        if (positionKeyCount != count) {
+            throw new IllegalStateException("A move made with makeMove is not recorded");
+        }
+        int[] moves = new int[count];
+        for (int i = 0; i < count; i++) {
+            moves[i] = moveHistory.get(i).getCode();
+        }
+        //startPosition is never changed once packed, so it can be shared
+        return new GameCheckpoint(startPosition, packPosition(), moves,
+                Arrays.copyOf(positionKeys, count));
+    }
+
+    /**
+     * Sets up the game a checkpoint was taken of, replacing the current game. The moves
+     * are not replayed, so this takes no longer for a long game than copying its moves:
+     * the position is unpacked and the moves and position hashes are copied back, which
+     * keeps repetitions of earlier positions in view. The first takeBack replays the game
+     * from its start once to be able to take moves back.
+     * @param checkpoint The checkpoint, e.g. read by GameCheckpoint.read.
+     * @throws IOException When the checkpoint does not hold a valid position.
+     */
+    public void restore(GameCheckpoint checkpoint) throws IOException {
+        unpackPosition(checkpoint.getPosition());
+        startPosition = checkpoint.getStartPosition();
+        int[] moves = checkpoint.getMoves();
+        for (int move : moves) {
+            moveHistory.add(new Move(Position.of(Move.fromSquare(move)),
+                    Position.of(Move.toSquare(move)), null, null, move));
+        }
+        if (!moveHistory.isEmpty()) {
+            lastMove = moveHistory.get(moveHistory.size() - 1);
+        }
+        long[] keys = checkpoint.getPositionKeys();
+        if (positionKeys.length < keys.length) {
+            positionKeys = new long[keys.length];
+        }
+        System.arraycopy(keys, 0, positionKeys, 0, keys.length);
+        positionKeyCount = keys.length;
+        if (checkForGameOver() != null) {
+            isGameOver = true;
+        }
+    }
+
+    //helpers for scanning a FEN in place: fields are separated by one or more spaces
+
+    private static int skipSpaces(String fen, int index) {
+        while (index < fen.length() && fen.charAt(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int fieldEnd(String fen, int index) {
+        while (index < fen.length() && fen.charAt(index) != ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isDash(String fen, int start, int end) {
+        return end - start == 1 && fen.charAt(start) == '-';
+    }
+
+    //parses a move counter without creating a substring
+    private static int parseCounter(String fen, int start, int end) {
+        if (end - start > 6) {
+            throw invalidFen(fen);
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = fen.charAt(i);
+            if (c < '0' || c > '9') {
+                throw invalidFen(fen);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException invalidFen(String fen) {
+        return new IllegalArgumentException("Invalid FEN: " + fen);
+    }
+
+    /**
+     * Marks the pieces that can no longer castle or double push as moved. Only kings,
+     * rooks and pawns are looked at, through their bitboards.
+     * @param castlingRights The castling rights bits, e.g. WHITE_KINGSIDE | BLACK_KINGSIDE.
+     */
+    private void markMovedPieces(int castlingRights) {
+        for (int color = 0; color < 2; color++) {
+            //white's rights are the low two bits, black's the two above them
+            int rights = (castlingRights >> (color * 2)) & 3;
+            int backRow = 7 - 7 * color;
+            long unmovedKing = 0L;
+            long unmovedRooks = 0L;
+            if (rights != 0) {
+                unmovedKing = Bitboard.bit(Bitboard.square(backRow, 4));
+            }
+            if ((rights & WHITE_KINGSIDE) != 0) {
+                unmovedRooks |= Bitboard.bit(Bitboard.square(backRow, 7));
+            }
+            if ((rights & WHITE_QUEENSIDE) != 0) {
+                unmovedRooks |= Bitboard.bit(Bitboard.square(backRow, 0));
+            }
+            long pawnRow = 0xFFL << Bitboard.square(6 - 5 * color, 0);
+            markMoved(pieceBoards[color * 6 + Piece.KING] & ~unmovedKing);
+            markMoved(pieceBoards[color * 6 + Piece.ROOK] & ~unmovedRooks);
+            markMoved(pieceBoards[color * 6 + Piece.PAWN] & ~pawnRow);
+        }
+    }
+
+    //marks the piece on every square of a bitboard as moved
+    private void markMoved(long squares) {
+        while (squares != 0) {
+            getPiece(Long.numberOfTrailingZeros(squares)).markAsMoved();
+            squares &= squares - 1;
+        }
     }
 
     /**
@@ -82,12 +588,58 @@ public class Chess implements Serializable {
         if (!isValidPosition(position)) {
             throw new IllegalArgumentException("Invalid position");
         }
-        board[position.getRow()][position.getCol()] = piece;
+        setPiece(position.getSquare(), piece);
+    }
+
+    /**
+     * Sets the piece on the given square.
+     * @param square The square, 0 to 63 (see Bitboard.square).
+     * @param piece The piece to place, or null to empty the square.
+     * @throws IllegalArgumentException When the square is out of bounds.
+     */
+    public void setPiece(int square, Piece piece) {
+        if (square < 0 || square >= 64) {
+            throw new IllegalArgumentException("Invalid square");
+        }
+        int row = Bitboard.row(square);
+        int col = Bitboard.col(square);
+        long squareBit = Bitboard.bit(square);
+
+        //clears the square's bit and hash key for the piece being replaced
+        Piece oldPiece = board[row][col];
+        boolean isCastlingPiece = false;
+        if (oldPiece != null) {
+            int oldType = oldPiece.getType();
+            int oldIndex = oldPiece.getColor() * 6 + oldType;
+            pieceBoards[oldIndex] &= ~squareBit;
+            pieceCounts[oldIndex]--;
+            colorBoards[oldPiece.getColor()] &= ~squareBit;
+            occupied &= ~squareBit;
+            zobristKey ^= Zobrist.pieceKey(oldIndex, square);
+            isCastlingPiece = oldType == Piece.KING || oldType == Piece.ROOK;
+        }
+
+        board[row][col] = piece;
+        if (piece != null) {
+            int type = piece.getType();
+            int index = piece.getColor() * 6 + type;
+            pieceBoards[index] |= squareBit;
+            pieceCounts[index]++;
+            colorBoards[piece.getColor()] |= squareBit;
+            occupied |= squareBit;
+            zobristKey ^= Zobrist.pieceKey(index, square);
+            isCastlingPiece |= type == Piece.KING || type == Piece.ROOK;
+        }
+
+        //placing or removing a king or rook on its starting square can change castling rights
+        if (isCastlingPiece && (row == 0 || row == 7) && (col == 0 || col == 4 || col == 7)) {
+            updateCastlingKey();
+        }
         if (piece instanceof King) {
             if (piece.getColor() == 0) {
-                whiteKingPosition = position;
+                whiteKingPosition = Position.of(square);
             } else {
-                blackKingPosition = position;
+                blackKingPosition = Position.of(square);
             }
         }
 
@@ -107,503 +659,1151 @@ public class Chess implements Serializable {
     /**
      * Moves a piece from one position to another.
      * Validates the move and checks for special moves like castling and en passant.
+     * A pawn reaching the last row is promoted to a queen.
      * @param from The starting position.
      * @param to The target position.
      * @return true if the move was successful, false otherwise.
      */
     public boolean movePiece(Position from, Position to) {
+        return movePiece(from, to, Piece.QUEEN);
+    }
+
+    /**
+     * Moves a piece from one position to another.
+     * Validates the move and checks for special moves like castling and en passant.
+     * @param from The starting position.
+     * @param to The target position.
+     * @param promotionType The piece type a pawn reaching the last row is promoted to.
+     * @return true if the move was successful, false otherwise.
+     */
+    public boolean movePiece(Position from, Position to, int promotionType) {
         if (isGameOver) {
             return false; //movement not allowed if game is over
         }
         if (!isValidPosition(from) || !isValidPosition(to)) {
             throw new IllegalArgumentException("Invalid position");
         }
-        Piece movingPiece = getPiece(from);
-        if (movingPiece == null) {
+
+        //the move must be one of the legal moves of the player whose turn it is
+        int move = findLegalMove(Bitboard.square(from.getRow(), from.getCol()),
+                Bitboard.square(to.getRow(), to.getCol()), promotionType);
+        if (move == Move.NONE) {
             return false;
         }
 
-        //checks for en passant
-        if (attemptEnPassant(from, to)) {
-            isWhiteTurn = !isWhiteTurn;
-            return true;
+        Piece movingPiece = getPiece(from);
+        Piece capturedPiece = makeMove(move);
+        lastMove = new Move(from, to, movingPiece, capturedPiece, move);
+        moveHistory.add(lastMove);
+
+        //check for checkmate; callers that show the game report the result themselves
+        if (checkForGameOver() != null) {
+            isGameOver = true;
         }
 
-        //checks for castling
-        if (movingPiece instanceof King && Math.abs(from.getCol() - to.getCol()) == 2) {
-            return attemptCastle(from, to);
+        return true;
+    }
+
+    /**
+     * Finds the legal move of the current player between two squares.
+     * @param from The starting square.
+     * @param to The target square.
+     * @param promotionType The piece type to promote to, if the move is a promotion.
+     * @return The move code, or Move.NONE if there is no such legal move.
+     */
+    private int findLegalMove(int from, int to, int promotionType) {
+        int count = generateLegalMoves(moveBuffer);
+        for (int i = 0; i < count; i++) {
+            int move = moveBuffer[i];
+            if (Move.fromSquare(move) == from && Move.toSquare(move) == to
+                    && (!Move.isPromotion(move) || Move.promotionType(move) == promotionType)) {
+                return move;
+            }
         }
+        return Move.NONE;
+    }
 
-        //if move is not valid then returns false
-        if (!movingPiece.isValidMove(to, this)) {
+    /**
+     * Plays and records a move given as a move code, e.g. one read from a PGN file.
+     * Unlike movePiece the move is not validated and the game is not checked for
+     * game over, so replaying long games stays fast.
+     * @param move The move code of a legal move, e.g. from generateLegalMoves.
+     */
+    public void playMove(int move) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        Piece movingPiece = getPiece(from);
+        Piece capturedPiece = makeMove(move);
+        lastMove = new Move(Position.of(from), Position.of(to), movingPiece, capturedPiece, move);
+        moveHistory.add(lastMove);
+    }
+
+    /**
+     * Checks if moving from one position to another is a legal pawn promotion.
+     * @param from The starting position.
+     * @param to The target position.
+     * @return true if the move is a legal promotion, false otherwise.
+     */
+    public boolean isPromotionMove(Position from, Position to) {
+        if (!isValidPosition(from) || !isValidPosition(to)) {
             return false;
         }
+        int move = findLegalMove(Bitboard.square(from.getRow(), from.getCol()),
+                Bitboard.square(to.getRow(), to.getCol()), Piece.QUEEN);
+        return move != Move.NONE && Move.isPromotion(move);
+    }
 
-        //if not the right color piece by turn, returns false
-        if ((isWhiteTurn && movingPiece.getColor() != 0) ||
-                (!isWhiteTurn && movingPiece.getColor() == 0)) {
+    /**
+     * Takes back the last move played with movePiece.
+     * @return true if a move was taken back, false if there is none to take back,
+     * e.g. right after loading a saved game.
+     */
+    public boolean takeBack() {
+        if (undoCount == 0 && !moveHistory.isEmpty()) {
+            //the moves came without the undo entries to take them back, e.g. from restore
+            //or the copy constructor, so the game is replayed to make them
+            replayHistory();
+        }
+        if (undoCount == 0 || moveHistory.isEmpty()) {
             return false;
         }
+        unmakeMove();
+        moveHistory.remove(moveHistory.size() - 1);
+        if (moveHistory.isEmpty()) {
+            lastMove = null;
+        } else {
+            lastMove = moveHistory.get(moveHistory.size() - 1);
+        }
+        return true;
+    }
+
+    //plays the game again from its start position, which makes an undo entry for each move
+    private void replayHistory() {
+        int[] moves = new int[moveHistory.size()];
+        for (int i = 0; i < moves.length; i++) {
+            moves[i] = moveHistory.get(i).getCode();
+        }
+        boolean wasGameOver = isGameOver;
+        try {
+            setUpSavedStart(startPosition);
+        } catch (IOException e) {
+            //startPosition was packed by this class, so it always unpacks
+            throw new IllegalStateException(e);
+        }
+        for (int move : moves) {
+            playMove(move);
+        }
+        isGameOver = wasGameOver;
+    }
 
-        //checks if there is an opponent's piece at the target position
+    /**
+     * Plays a move on the board, including the rook of a castling move, the pawn
+     * captured en passant and the promoted piece, and switches the turn.
+     * Unlike movePiece, the move is not validated, recorded or checked for game over,
+     * which makes this the fast path for searching. The move can be taken back
+     * with unmakeMove.
+     * @param move The move code of a legal move, e.g. from generateLegalMoves.
+     * @return The captured piece, or null if nothing was captured.
+     */
+    public Piece makeMove(int move) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        int flag = Move.flag(move);
+        Position toPosition = Position.of(to);
+        Piece movingPiece = getPiece(from);
         Piece capturedPiece = getPiece(to);
+        int oldEnPassantSquare = enPassantSquare;
+
+        //records everything needed to take the move back
+        UndoEntry entry = pushUndoEntry();
+        entry.move = move;
+        entry.movedPiece = movingPiece;
+        entry.hadMoved = movingPiece.hasMoved();
+        entry.enPassantSquare = enPassantSquare;
+        entry.castlingRights = hashedCastlingRights;
+        entry.zobristKey = zobristKey;
+        entry.whiteKingPosition = whiteKingPosition;
+        entry.blackKingPosition = blackKingPosition;
+        entry.halfmoveClock = halfmoveClock;
+        entry.isGameOver = isGameOver;
+        if (positionKeyCount == positionKeys.length) {
+            positionKeys = Arrays.copyOf(positionKeys, positionKeyCount * 2);
+        }
+        positionKeys[positionKeyCount++] = zobristKey;
+        isResultKnown = false;
+
+        //removes the pawn captured en passant, which is beside the moving pawn
+        if (flag == Move.EN_PASSANT) {
+            Position capturedPosition = Position.of(Bitboard.row(from), Bitboard.col(to));
+            capturedPiece = getPiece(capturedPosition);
+            setPiece(capturedPosition, null);
+        }
+        if (capturedPiece != null) {
+            capturedPiece.setPosition(null);
+        }
+        entry.capturedPiece = capturedPiece;
 
-        //checks for check by simulating a move
         setPiece(to, movingPiece);
         setPiece(from, null);
-        movingPiece.setPosition(to);
+        movingPiece.setPosition(toPosition);
+        movingPiece.markAsMoved();
+
+        //moves the rook to the square the king passed over
+        if (flag == Move.CASTLE) {
+            int rookCol;
+            if (to > from) {
+                rookCol = 7;
+            } else {
+                rookCol = 0;
+            }
+            Position rookFrom = Position.of(Bitboard.row(from), rookCol);
+            Position rookTo = Position.of(Bitboard.row(from),
+                    (Bitboard.col(from) + Bitboard.col(to)) / 2);
+            Piece rook = getPiece(rookFrom);
+            setPiece(rookTo, rook);
+            setPiece(rookFrom, null);
+            rook.setPosition(rookTo);
+            rook.markAsMoved();
+        }
+
+        //replaces the pawn with the promoted piece
+        if (Move.isPromotion(move)) {
+            Piece promotedPiece = Piece.create(Move.promotionType(move),
+                    movingPiece.getColor(), toPosition);
+            promotedPiece.markAsMoved();
+            setPiece(to, promotedPiece);
+            movingPiece.setPosition(null);
+        }
+
+        //a double push lets the opponent capture en passant on the skipped square
+        if (flag == Move.DOUBLE_PUSH) {
+            enPassantSquare = (from + to) / 2;
+        } else {
+            enPassantSquare = -1;
+        }
+
+        //captures and pawn moves restart the fifty-move count
+        if (capturedPiece != null || movingPiece instanceof Pawn) {
+            halfmoveClock = 0;
+        } else {
+            halfmoveClock++;
+        }
+        if (!isWhiteTurn) {
+            fullmoveNumber++;
+        }
+
+        //pieces are hashed by setPiece, moved kings and rooks and en passant are hashed here
+        updateCastlingKey();
+        zobristKey ^= Zobrist.enPassantKey(oldEnPassantSquare)
+                ^ Zobrist.enPassantKey(enPassantSquare);
+
+        switchTurn();
+        return capturedPiece;
+    }
+
+    /**
+     * Takes back the last move played with makeMove, restoring the pieces, the
+     * castling rights, the en passant square, the turn and the hash exactly.
+     * @throws IllegalStateException When there is no move to take back.
+     */
+    public void unmakeMove() {
+        if (undoCount == 0) {
+            throw new IllegalStateException("No move to unmake");
+        }
+        UndoEntry entry = undoStack[--undoCount];
+        int from = Move.fromSquare(entry.move);
+        int to = Move.toSquare(entry.move);
+        int flag = Move.flag(entry.move);
+        Position fromPosition = Position.of(from);
+        Position toPosition = Position.of(to);
+
+        //moves the rook back to its corner; it had not moved before castling
+        if (flag == Move.CASTLE) {
+            int rookCol;
+            if (to > from) {
+                rookCol = 7;
+            } else {
+                rookCol = 0;
+            }
+            Position rookFrom = Position.of(Bitboard.row(from), rookCol);
+            Position rookTo = Position.of(Bitboard.row(from),
+                    (Bitboard.col(from) + Bitboard.col(to)) / 2);
+            Piece rook = getPiece(rookTo);
+            setPiece(rookFrom, rook);
+            setPiece(rookTo, null);
+            rook.setPosition(rookFrom);
+            rook.setMoved(false);
+        }
+
+        //also removes a promoted piece, since the pawn itself is put back
+        Piece movingPiece = entry.movedPiece;
+        setPiece(to, null);
+        setPiece(from, movingPiece);
+        movingPiece.setPosition(fromPosition);
+        movingPiece.setMoved(entry.hadMoved);
+
+        Piece capturedPiece = entry.capturedPiece;
+        if (capturedPiece != null) {
+            Position capturedPosition = toPosition;
+            if (flag == Move.EN_PASSANT) {
+                capturedPosition = Position.of(Bitboard.row(from), Bitboard.col(to));
+            }
+            setPiece(capturedPosition, capturedPiece);
+            capturedPiece.setPosition(capturedPosition);
+        }
+
+        //setPiece rehashed the pieces above, so the saved key is simply put back
+        isWhiteTurn = !isWhiteTurn;
+        if (!isWhiteTurn) {
+            fullmoveNumber--;
+        }
+        halfmoveClock = entry.halfmoveClock;
+        enPassantSquare = entry.enPassantSquare;
+        hashedCastlingRights = entry.castlingRights;
+        zobristKey = entry.zobristKey;
+        whiteKingPosition = entry.whiteKingPosition;
+        blackKingPosition = entry.blackKingPosition;
+        isGameOver = entry.isGameOver;
+        positionKeyCount--;
+        isResultKnown = false;
+        //drops the references so taken back pieces can be garbage collected
+        entry.movedPiece = null;
+        entry.capturedPiece = null;
+    }
+
+    //returns the next free undo entry, growing the stack when it is full
+    private UndoEntry pushUndoEntry() {
+        if (undoCount == undoStack.length) {
+            UndoEntry[] larger = new UndoEntry[undoStack.length * 2];
+            System.arraycopy(undoStack, 0, larger, 0, undoCount);
+            undoStack = larger;
+        }
+        //entries are created once and reused, so making a move does not allocate one
+        UndoEntry entry = undoStack[undoCount];
+        if (entry == null) {
+            entry = new UndoEntry();
+            undoStack[undoCount] = entry;
+        }
+        undoCount++;
+        return entry;
+    }
+
+    /**
+     * Writes every legal move of the player whose turn it is into the buffer.
+     * Pseudo-legal moves are generated per piece type and any move that leaves
+     * the player's own king in check is filtered out.
+     * @param moves The buffer to fill, at least MoveGenerator.MAX_MOVES long.
+     * @return The number of legal moves written.
+     */
+    public int generateLegalMoves(int[] moves) {
+        int count = MoveGenerator.generatePseudoLegalMoves(this, moves);
+        int legalCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLegalMove(moves[i])) {
+                moves[legalCount++] = moves[i];
+            }
+        }
+        return legalCount;
+    }
+
+    /**
+     * Checks that a pseudo-legal move does not leave the mover's king in check.
+     * @param move The move code, e.g. from MoveGenerator.generatePseudoLegalMoves.
+     * @return true if the move is legal, false otherwise.
+     */
+    boolean isLegalMove(int move) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        int currentPlayerColor;
+        if (isWhiteTurn) {
+            currentPlayerColor = 0;
+        } else {
+            currentPlayerColor = 1;
+        }
 
-        //checks for if the mover's king is in check after the move (an invalid move)
+        //checks that king does not castle out of, through or into check
+        if (Move.flag(move) == Move.CASTLE) {
+            int direction;
+            if (to > from) {
+                direction = 1;
+            } else {
+                direction = -1;
+            }
+            for (int square = from; square != to + direction; square += direction) {
+                if (isSquareAttacked(square, 1 - currentPlayerColor)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        //plays the move, looks for an attack on the mover's king and takes it back;
+        //a promotion is tried as a plain pawn move, which is just as legal and
+        //does not create the promoted piece
+        if (Move.isPromotion(move)) {
+            move = Move.encode(from, to, Move.NORMAL);
+        }
+        makeMove(move);
+        Position kingPosition;
+        if (currentPlayerColor == 0) {
+            kingPosition = whiteKingPosition;
+        } else {
+            kingPosition = blackKingPosition;
+        }
+        boolean isInCheck = isSquareAttacked(
+                kingPosition.getSquare(),
+                1 - currentPlayerColor);
+        unmakeMove();
+
+        return !isInCheck;
+    }
+
+    /**
+     * Checks if king is in check at a certain king position.
+     * @param kP The position in question
+     * @return true if King at kP is in check, false if not
+     */
+    public boolean isKingInCheck(Position kP) {
+        int currentPlayerColor;
+        if (isWhiteTurn) {
+            currentPlayerColor = 0;
+        } else {
+            currentPlayerColor = 1;
+        }
+        return isSquareAttacked(Bitboard.square(kP.getRow(), kP.getCol()), 1 - currentPlayerColor);
+    }
+
+    /**
+     * Checks if any piece of the given color attacks a square.
+     * @param square The square in question.
+     * @param attackerColor The color of the attacking pieces.
+     * @return true if the square is attacked, false if not
+     */
+    private boolean isSquareAttacked(int square, int attackerColor) {
+        //a piece attacks the square if the same piece standing on the square would attack
+        //it; pawns are the exception, so the square looks back with the defender's pawns
+        int enemy = attackerColor * 6;
+        long queens = pieceBoards[enemy + Piece.QUEEN];
+        return (Attacks.pawn(1 - attackerColor, square) & pieceBoards[enemy + Piece.PAWN]) != 0
+                || (Attacks.knight(square) & pieceBoards[enemy + Piece.KNIGHT]) != 0
+                || (Attacks.king(square) & pieceBoards[enemy + Piece.KING]) != 0
+                || (Attacks.bishop(square, occupied)
+                        & (pieceBoards[enemy + Piece.BISHOP] | queens)) != 0
+                || (Attacks.rook(square, occupied)
+                        & (pieceBoards[enemy + Piece.ROOK] | queens)) != 0;
+    }
+
+    /**
+     * Checks for all game over scenarios. The answer is kept until the position changes,
+     * so movePiece and the window asking again right after it cost one check between them,
+     * and that check generates the legal moves once.
+     * @return "Checkmate" for checkmate scenario, "Stalemate" for stalemate scenario,
+     * "Draw by fifty-move rule" after fifty moves by each side without a capture or pawn
+     * move, "Draw by repetition" for the third time the same position comes up,
+     * "Draw by insufficient material" for Draw by insufficient material scenario,
+     * "Draw by tablebase" for an ending the tablebase shows neither side can win,
+     * or null if the game goes on
+     */
+    public String checkForGameOver() {
+        //setPiece and switchTurn change the hash too, so a changed key means a stale result
+        if (!isResultKnown || resultKey != zobristKey) {
+            gameOverResult = findGameOverResult();
+            resultKey = zobristKey;
+            isResultKnown = true;
+        }
+        return gameOverResult;
+    }
+
+    //works out the result checkForGameOver returns
+    private String findGameOverResult() {
+        //only the player whose turn it is can be checkmated or stalemated
         Position kingPosition;
         if (isWhiteTurn) {
             kingPosition = whiteKingPosition;
         } else {
             kingPosition = blackKingPosition;
         }
-        boolean isInCheck = isKingInCheck(kingPosition);
+        if (!hasValidMoves()) {
+            if (isKingInCheck(kingPosition)) {
+                return "Checkmate";
+            }
+            return "Stalemate";
+        }
 
-        //undos the simulated move
-        setPiece(from, movingPiece);
-        setPiece(to, capturedPiece);
-        movingPiece.setPosition(from);
-        if (isInCheck) {
-            return false;
+        //the clock counts plies, so fifty moves each is a hundred
+        if (halfmoveClock >= 100) {
+            return "Draw by fifty-move rule";
+        }
+        if (isThreefoldRepetition()) {
+            return "Draw by repetition";
         }
 
-        //makes the actual move only after the check verification is done
-        setPiece(to, movingPiece);
-        setPiece(from, null);
-        movingPiece.setPosition(to);
+        //check for insufficient material
+        if (hasInsufficientMaterial()) {
+            return "Draw by insufficient material";
+        }
 
-        if (capturedPiece != null) {
-            capturedPiece.setPosition(null);
+        //an ending the tables know to be drawn is over, as no one can force mate
+        if (tablebase != null && tablebase.probe(this) == Tablebase.DRAW) {
+            return "Draw by tablebase";
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the current position has come up twice before with the same player to
+     * move. The hash includes the castling rights and en passant square, so positions
+     * that differ in those do not count as the same.
+     * @return true if this is at least the third time, false otherwise
+     */
+    private boolean isThreefoldRepetition() {
+        return countEarlierOccurrences(2) == 2;
+    }
+
+    /**
+     * Checks if the current position came up before, in the game or in moves made since,
+     * e.g. by a search, which can score a single repetition as a draw: whoever could do
+     * better would not have repeated.
+     * @return true if the position is a repetition
+     */
+    public boolean isRepetition() {
+        return countEarlierOccurrences(1) == 1;
+    }
+
+    //counts earlier occurrences of the current position, stopping at the given number
+    private int countEarlierOccurrences(int limit) {
+        //positions before the last capture or pawn move cannot come back
+        int oldest = Math.max(0, positionKeyCount - halfmoveClock);
+        int occurrences = 0;
+        for (int i = positionKeyCount - 2; i >= oldest; i -= 2) {
+            if (positionKeys[i] == zobristKey) {
+                occurrences++;
+                if (occurrences == limit) {
+                    break;
+                }
+            }
+        }
+        return occurrences;
+    }
+
+    /**
+     * Checks if the pieces left on the board leave insufficient material for a win: only
+     * the kings and one knight or bishop, or only bishops that all stand on squares of
+     * the same color, so that neither side could ever be checkmated
+     * @return true if yes, false otherwise
+     */
+    private boolean hasInsufficientMaterial() {
+        //a pawn, rook or queen can always still mate
+        for (int type = Piece.PAWN; type <= Piece.QUEEN; type++) {
+            if (type != Piece.KNIGHT && type != Piece.BISHOP
+                    && pieceCounts[type] + pieceCounts[6 + type] > 0) {
+                return false;
+            }
         }
-
-        if (isPawnPromotion(to)) {
+        int knights = pieceCounts[Piece.KNIGHT] + pieceCounts[6 + Piece.KNIGHT];
+        int bishops = pieceCounts[Piece.BISHOP] + pieceCounts[6 + Piece.BISHOP];
+        if (knights + bishops <= 1) {
             return true;
         }
-
-        movingPiece.markAsMoved();
-        lastMove = new Move(from, to, movingPiece, capturedPiece);
-        moveHistory.add(lastMove);
-        switchTurn();
-
-        //check for checkmate
-        String gameOverResult = checkForGameOver();
-        if (gameOverResult != null) {
-            System.out.println(gameOverResult + "! Game over.");
-            isGameOver = true;
+        if (knights > 0) {
+            return false;
         }
 
-        return true;
+        //bishops on one color of square can never attack the other color
+        long allBishops = pieceBoards[Piece.BISHOP] | pieceBoards[6 + Piece.BISHOP];
+        return (allBishops & Bitboard.LIGHT_SQUARES) == 0
+                || (allBishops & ~Bitboard.LIGHT_SQUARES) == 0;
     }
 
     /**
-     * Checks if king is in check at a certain king position.
-     * @param kP The position in question
-     * @return true if King at kP is in check, false if not
+     * Gets the number of pieces of one type and color on the board, which is kept as
+     * pieces are placed and removed rather than counted.
+     * @param color 0 for white, 1 for black.
+     * @param type The piece type, e.g. Piece.KNIGHT.
+     * @return The number of such pieces.
      */
-    public boolean isKingInCheck(Position kP) {
-        int currentPlayerColor;
-        if (isWhiteTurn) {
-            currentPlayerColor = 0;
-        } else {
-            currentPlayerColor = 1;
-        }
+    public int getPieceCount(int color, int type) {
+        return pieceCounts[color * 6 + type];
+    }
 
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece != null) {
-                    if (piece.getColor() != currentPlayerColor) {
-                        if (piece.isValidMove(kP, this)) {
-                            return true;
-                        }
-                    }
-                }
-            }
-        }
-        return false;
+    /**
+     * Checks if the player whose turn it is has any valid moves.
+     * @return true if there are valid moves, false otherwise
+     */
+    private boolean hasValidMoves() {
+        return generateLegalMoves(moveBuffer) > 0;
     }
 
     /**
-     * Attempts to perform the castling move.
-     * @param from The starting position.
-     * @param to The ending position.
-     * @return true if castling is successful, false otherwise
+     * Checks if a pawn promotion happens
+     * @param to Target Position
+     * @return true if there is a pawn promotion, false otherwise.
      */
-    private boolean attemptCastle(Position from, Position to) {
-        Piece king = getPiece(from);
+    public boolean isPawnPromotion(Position to) {
+        Piece piece = getPiece(to);
+        return piece instanceof Pawn && (to.getRow() == 0 || to.getRow() == 7);
+    }
 
-        //checks if King already moved (can't castle) or if piece is not a king
-        if (king.hasMoved() || !(king instanceof King)) {
-            System.out.println("Castling failed: King has moved or is not a king.");
-            return false;
-        }
+    public Position getWhiteKingPosition() {
+        return whiteKingPosition;
+    }
 
-        int row = from.getRow();
-        int direction;
+    public Position getBlackKingPosition() {
+        return blackKingPosition;
+    }
 
-        //checks direction of castle
-        if (to.getCol() > from.getCol()) {
-            direction = 1; //right
-        } else {
-            direction = -1; //left
-        }
+    public boolean isWhiteTurn() {
+        return isWhiteTurn;
+    }
 
-        //sets rook position
-        Position rookPosition;
-        if (direction == 1) {
-            rookPosition = new Position(row, 7);
-        } else {
-            rookPosition = new Position(row, 0);
-        }
+    //plies since the last capture or pawn move
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
 
-        Piece rook = getPiece(rookPosition);
-        //checks if rook has moved (can't castle) or if piece is not a rook
-        if (rook.hasMoved() || !(rook instanceof Rook)) {
-            System.out.println("Castling failed: Rook has moved or is not a rook.");
-            return false;
-        }
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
 
-        //check for empty squares between the king and rook
-        int start = Math.min(from.getCol(), rookPosition.getCol()) + 1;
-        int end = Math.max(from.getCol(), rookPosition.getCol());
-        for (int col = start; col < end; col++) {
-            if (getPiece(new Position(row, col)) != null) {
-                System.out.println("Castling failed: Path between king and rook is not clear.");
-                return false;
-            }
-        }
+    //the moves played with movePiece or playMove, oldest first
+    public List<Move> getMoveHistory() {
+        return Collections.unmodifiableList(moveHistory);
+    }
 
-        //checks that king does not move through check
-        for (int col = from.getCol(); col != to.getCol() + direction; col += direction) {
-            Position potentialPiecePosition = new Position(row, col);
-            if (isKingInCheck(potentialPiecePosition)) {
-                System.out.println("Castling failed: King passes through or into check.");
-                return false;
+    /**
+     * Gets the position the game started from, before any move in getMoveHistory.
+     * @return A new game at the start position: the standard one, or the one loaded
+     * with loadFen or from a saved game.
+     */
+    public Chess getStartPosition() {
+        Chess start = new Chess();
+        if (startPosition != null) {
+            try {
+                start.unpackPosition(startPosition);
+            } catch (IOException e) {
+                //startPosition was packed by this class, so it always unpacks
+                throw new IllegalStateException(e);
             }
         }
+        return start;
+    }
 
-        //actual movement of the pieces
-        Position rookTo = new Position(row, from.getCol() + direction);
-        setPiece(to, king);
-        setPiece(from, null);
-        king.setPosition(to);
-        setPiece(rookTo, rook);
-        setPiece(rookPosition, null);
-        rook.setPosition(rookTo);
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    /**
+     * Sets the endgame tables used to end drawn endings, see checkForGameOver. Copies of
+     * the game share them.
+     * @param tablebase The tables, or null to use only the rules.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+        isResultKnown = false;
+    }
+
+    public Tablebase getTablebase() {
+        return tablebase;
+    }
 
-        //marks both pieces as moved
-        king.markAsMoved();
-        rook.markAsMoved();
+    //accessors for the bitboards (see Bitboard), used by move generation and evaluation
 
-        //update game state
-        moveHistory.add(new Move(from, to, king, null));
-        switchTurn();
+    public long getPieceBoard(int color, int type) {
+        return pieceBoards[color * 6 + type];
+    }
 
-        return true;
+    public long getColorBoard(int color) {
+        return colorBoards[color];
+    }
+
+    public long getOccupied() {
+        return occupied;
+    }
+
+    int getEnPassantSquare() {
+        return enPassantSquare;
     }
 
     /**
-     * Attempts to perform the en passant move.
-     * @param from The starting position.
-     * @param to The ending position.
-     * @return true if en passant is successful, false otherwise
+     * Gets the piece on the given square without allocating a Position.
+     * @param square The square, 0 to 63 (see Bitboard.square).
+     * @return The piece on the square, or null if it is empty.
      */
-    private boolean attemptEnPassant(Position from, Position to) {
-        Piece movingPiece = getPiece(from);
+    public Piece getPiece(int square) {
+        return board[Bitboard.row(square)][Bitboard.col(square)];
+    }
 
-        //checks if the moving piece is a pawn
-        if (!(movingPiece instanceof Pawn)) {
+    /**
+     * Saves the current game state to a file, see writeGame for the format.
+     * @param fileName The file to write.
+     * @return Whether the game was saved; false if writing the file failed.
+     */
+    public boolean saveGameState(String fileName) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            writeGame(out);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error saving game state: " + e.getMessage());
             return false;
         }
+    }
 
-        //determines the direction
-        int direction;
-        if (movingPiece.getColor() == 0) {
-            direction = -1; //white moves up
-        } else {
-            direction = 1;  //black moves down
-        }
-
-        //finds square that the opponent's pawn occupies
-        Position capturedPosition = new Position(from.getRow(), to.getCol());
-
-        //checks last move for en passant eligibility
-        if (lastMove != null && lastMove.getMovedPiece() instanceof Pawn) {
-            //checks that the last move was a pawn push forward by 2 squares
-            if (Math.abs(lastMove.getFrom().getRow() - lastMove.getTo().getRow()) == 2 &&
-                    lastMove.getTo().equals(capturedPosition)) {
-                //performs en passant capture
-                setPiece(to, movingPiece); //move capturing pawn
-                setPiece(from, null); //remove capturing pawn from original square
-                movingPiece.setPosition(to);
-
-                //remove captured pawn
-                setPiece(lastMove.getTo(), null);
-
-                return true;
+    //loads game state from a file in either the current or the old serialized format
+    public void loadGameState(String fileName) {
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(fileName))) {
+            in.mark(2);
+            int header = (in.read() << 8) | in.read();
+            in.reset();
+            if (header == SERIALIZATION_MAGIC) {
+                loadLegacyGameState(new ObjectInputStream(in));
+            } else {
+                readGame(new DataInputStream(in));
             }
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Error loading game state: " + e.getMessage());
+            throw new RuntimeException("Failed to load game state", e);
         }
-        return false;
     }
 
     /**
-     * Checks for all game over scenarios
-     * @return "Checkmate" for checkmate scenario, "Stalemate" for stalemate scenario,
-     * "Draw by insufficient material" for Draw by insufficient material scenario
+     * Writes the game in the compact binary save format:
+     *   int     "CHES" magic number
+     *   byte    format version, currently 2
+     *   byte    flags; bit 0 is set if a start position follows
+     *   38 B    start position, only for games not started from the standard position
+     *           (see packPosition; version 1 saves left out the move counters)
+     *   short   number of moves, followed by each move as a 16-bit move code
+     * A game of 80 plies from the standard start takes 168 bytes.
+     * @param out The output to write to.
+     * @throws IOException When writing fails or the game is too long for the format.
      */
-
-    public String checkForGameOver() {
-        //check for checkmate
-        if (isKingInCheck(whiteKingPosition) && !hasValidMoves(0)) {
-            return "Checkmate";
+    public void writeGame(DataOutput out) throws IOException {
+        if (moveHistory.size() > 0xFFFF) {
+            throw new IOException("Game too long to save");
         }
-        if (isKingInCheck(blackKingPosition) && !hasValidMoves(1)) {
-            return "Checkmate";
+        ByteBuffer buffer = ByteBuffer.allocate(getSavedGameBytes());
+        writeGame(buffer);
+        out.write(buffer.array());
+    }
+
+    /**
+     * Writes the game in the save format described at writeGame(DataOutput), e.g. into
+     * a memory-mapped file.
+     * @param out The buffer to write to, with at least getSavedGameBytes bytes remaining.
+     * @throws IllegalStateException When the game is too long for the format.
+     */
+    public void writeGame(ByteBuffer out) {
+        if (moveHistory.size() > 0xFFFF) {
+            throw new IllegalStateException("Game too long to save");
         }
-        //check for stalemate
-        if (!isKingInCheck(whiteKingPosition) && !hasValidMoves(0)) {
-            return "Stalemate";
+        out.putInt(SAVE_MAGIC);
+        out.put((byte) SAVE_VERSION);
+        if (startPosition == null) {
+            out.put((byte) 0);
+        } else {
+            out.put((byte) CUSTOM_START_FLAG);
+            out.put(startPosition);
         }
-        if (!isKingInCheck(blackKingPosition) && !hasValidMoves(1)) {
-            return "Stalemate";
+        out.putShort((short) moveHistory.size());
+        for (Move move : moveHistory) {
+            out.putShort((short) move.getCode());
         }
+    }
 
-        //check for insufficient material
-        if (hasInsufficientMaterial()) {
-            return "Draw by insufficient material";
+    //the number of bytes writeGame writes for this game
+    public int getSavedGameBytes() {
+        int bytes = 8 + 2 * moveHistory.size();
+        if (startPosition != null) {
+            bytes += startPosition.length;
         }
-        return null;
+        return bytes;
     }
 
     /**
-     * Checks if the pieces left on the board leave insufficient material for a win
-     * @return true if yes, false otherwise
+     * Reads a game written by writeGame, replacing the current game. The moves are
+     * replayed from the start position, so they can be taken back afterwards.
+     * @param in The input to read from.
+     * @throws IOException When reading fails or the data is not a valid saved game.
      */
-    private boolean hasInsufficientMaterial() {
-        int whitePieces = countPieces(0);
-        int blackPieces = countPieces(1);
-
-        //just the two kings left
-        if (whitePieces == 1 && blackPieces == 1) {
-            return true;
+    public void readGame(DataInput in) throws IOException {
+        int packedBytes = packedPositionBytes(in.readInt(), in.readUnsignedByte());
+        byte[] packed = null;
+        if ((in.readUnsignedByte() & CUSTOM_START_FLAG) != 0) {
+            packed = new byte[packedBytes];
+            in.readFully(packed);
         }
-
-        //king and bishop/knight vs king
-        if ((whitePieces == 2 && blackPieces == 1) || (whitePieces == 1 && blackPieces == 2)) {
-            return hasOnlyKingAndMinorPiece(0) || hasOnlyKingAndMinorPiece(1);
+        setUpSavedStart(packed);
+        int moveCount = in.readUnsignedShort();
+        for (int i = 0; i < moveCount; i++) {
+            replayMove(in.readUnsignedShort());
         }
-
-        //king and bishop vs king and bishop (opp color bishops)
-        if (whitePieces == 2 && blackPieces == 2) {
-            return hasOnlyKingAndMinorPiece(0) && hasOnlyKingAndMinorPiece(1)
-                    && hasOppositeColoredBishops();
+        if (checkForGameOver() != null) {
+            isGameOver = true;
         }
-
-        return false;
-
     }
 
     /**
-     * Checks if the pieces left on the board for a side are only the king and a minor piece
-     * @param color color of player making the move
-     * @return true if only king and minor piece are remaining, false otherwise
+     * Reads a game written by writeGame straight from a buffer, e.g. a memory-mapped
+     * file, replacing the current game. Nothing but the pieces and the move history is
+     * created while replaying.
+     * @param in The buffer, positioned at the start of the saved game; it is left
+     * positioned after it.
+     * @throws IOException When the data is not a valid saved game.
      */
-    private boolean hasOnlyKingAndMinorPiece(int color) {
-        int pieceCount = 0;
-        boolean hasKing = false;
-        boolean hasMinorPiece = false;
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece != null && piece.getColor() == color) {
-                    pieceCount++;
-                    if (piece instanceof King) {
-                        hasKing = true;
-                    } else if (piece instanceof Bishop || piece instanceof Knight) {
-                        hasMinorPiece = true;
-                    } else {
-                        return false;
-                    }
-                }
+    public void readGame(ByteBuffer in) throws IOException {
+        try {
+            int packedBytes = packedPositionBytes(in.getInt(), in.get() & 0xFF);
+            byte[] packed = null;
+            if ((in.get() & CUSTOM_START_FLAG) != 0) {
+                packed = new byte[packedBytes];
+                in.get(packed);
             }
+            setUpSavedStart(packed);
+            int moveCount = in.getShort() & 0xFFFF;
+            for (int i = 0; i < moveCount; i++) {
+                replayMove(in.getShort() & 0xFFFF);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Saved game is cut short", e);
+        }
+        if (checkForGameOver() != null) {
+            isGameOver = true;
         }
-        return hasKing && hasMinorPiece && pieceCount == 2;
     }
 
     /**
-     * Checks if the two sides have same color square bishops
-     * @return true if yes, false otherwise
+     * Checks the header of a saved game.
+     * @return The size of a packed start position in this version of the format.
+     * @throws IOException When the magic number or version is not one this class reads.
      */
-    private boolean hasOppositeColoredBishops() {
-        Bishop whiteBishop = null;
-        Bishop blackBishop = null;
+    private static int packedPositionBytes(int magic, int version) throws IOException {
+        if (magic != SAVE_MAGIC) {
+            throw new IOException("Not a saved game");
+        }
+        if (version == 1) {
+            return VERSION_1_PACKED_POSITION_BYTES;
+        }
+        if (version != SAVE_VERSION) {
+            throw new IOException("Unsupported save format version " + version);
+        }
+        return PACKED_POSITION_BYTES;
+    }
 
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece instanceof Bishop) {
-                    if (piece.getColor() == 0 && whiteBishop == null) {
-                        whiteBishop = (Bishop) piece;
-                    } else if (piece.getColor() == 1 && blackBishop == null) {
-                        blackBishop = (Bishop) piece;
-                    } else {
-                        return false;
-                    }
-                }
-            }
+    //sets up a saved game's start position, or the standard start if packed is null
+    private void setUpSavedStart(byte[] packed) throws IOException {
+        if (packed == null) {
+            reset();
+        } else {
+            unpackPosition(packed);
         }
+    }
 
-        if (whiteBishop == null || blackBishop == null) {
-            return false;
+    /**
+     * Reads a game saved with Java serialization by earlier versions. Those saves hold
+     * Move objects instead of move codes, so the game is replayed from the standard
+     * start by matching each move's squares against the legal moves. The old history
+     * left out en passant captures and promotions, so a game that had one does not
+     * replay; its saved board is set up as the start of the game instead, which keeps
+     * the position but not the moves to take back.
+     */
+    @SuppressWarnings("unchecked")
+    private void loadLegacyGameState(ObjectInputStream ois)
+            throws IOException, ClassNotFoundException {
+        Piece[][] legacyBoard = (Piece[][]) ois.readObject();
+        List<Move> legacyHistory = (List<Move>) ois.readObject();
+        boolean isLegacyWhiteTurn = ois.readBoolean();
+        if (legacyBoard.length != 8) {
+            throw new IOException("Invalid board in saved game");
+        }
+        if (!replayLegacyHistory(legacyHistory, legacyBoard, isLegacyWhiteTurn)) {
+            setUpLegacyBoard(legacyBoard, isLegacyWhiteTurn, legacyHistory);
+        }
+        if (checkForGameOver() != null) {
+            isGameOver = true;
         }
-        //checks if bishops are on opposite colored squares
-        return (whiteBishop.getPosition().getRow() + whiteBishop.getPosition().getCol()) % 2 !=
-                (blackBishop.getPosition().getRow() + blackBishop.getPosition().getCol()) % 2;
     }
 
     /**
-     * Counts the number of pieces on the board with the given color.
-     * @param color color of player making the move
-     * @return the number of pieces on the board with color color
+     * Replays an old save's history from the standard start.
+     * @return Whether every move was legal and the game ended on the saved board.
      */
-    private int countPieces(int color) {
-        int count = 0;
+    private boolean replayLegacyHistory(List<Move> legacyHistory, Piece[][] legacyBoard,
+            boolean isLegacyWhiteTurn) {
+        reset();
+        for (Move legacyMove : legacyHistory) {
+            int move = findLegalMove(legacyMove.getFrom().getSquare(),
+                    legacyMove.getTo().getSquare(), Piece.QUEEN);
+            if (move == Move.NONE) {
+                return false;
+            }
+            //findLegalMove already checked it
+            playMove(move);
+        }
+        if (isWhiteTurn != isLegacyWhiteTurn) {
+            return false;
+        }
         for (int row = 0; row < 8; row++) {
             for (int col = 0; col < 8; col++) {
                 Piece piece = board[row][col];
-                if (piece != null && piece.getColor() == color) {
-                    count++;
+                Piece legacyPiece = legacyBoard[row][col];
+                if (piece == null || legacyPiece == null) {
+                    if (piece != legacyPiece) {
+                        return false;
+                    }
+                } else if (piece.getType() != legacyPiece.getType()
+                        || piece.getColor() != legacyPiece.getColor()) {
+                    return false;
                 }
             }
         }
-        return count;
+        return true;
     }
 
     /**
-     * Checks if a player has any valid moves.
-     * @param currentPlayerColor color of player making the move
-     * @return true if there are valid moves, false otherwise
+     * Sets up an old save's board as a custom start position. Castling rights are kept
+     * for the kings and rooks the save marks as unmoved, and the en passant square
+     * follows from the last move.
+     * @throws IOException When the board is not a valid position.
      */
-    private boolean hasValidMoves(int currentPlayerColor) {
-        //iterates through the board to find pieces of the current player
+    private void setUpLegacyBoard(Piece[][] legacyBoard, boolean isLegacyWhiteTurn,
+            List<Move> legacyHistory) throws IOException {
+        clearBoard();
         for (int row = 0; row < 8; row++) {
+            if (legacyBoard[row] == null || legacyBoard[row].length != 8) {
+                throw new IOException("Invalid board in saved game");
+            }
             for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece != null && piece.getColor() == currentPlayerColor) {
-                    //tries all possible moves for this piece
-                    for (int targetRow = 0; targetRow < 8; targetRow++) {
-                        for (int targetCol = 0; targetCol < 8; targetCol++) {
-                            Position target = new Position(targetRow, targetCol);
-                            //checks if the move is valid for the piece
-                            if (piece.isValidMove(target, this)) {
-                                //simulate the move
-                                if (canMoveWithoutPuttingKingInCheck(piece,
-                                        new Position(row, col), target)) {
-                                    return true;
-                                }
-                            }
-                        }
-                    }
+                Piece piece = legacyBoard[row][col];
+                if (piece != null) {
+                    setPiece(Bitboard.square(row, col),
+                            Piece.create(piece.getType(), piece.getColor(), Position.of(row, col)));
+                }
+            }
+        }
+        if (whiteKingPosition == null || blackKingPosition == null) {
+            throw new IOException("Saved position is missing a king");
+        }
+        if (hasPawnOnBackRow()) {
+            throw new IOException("Saved position has a pawn on its first or last row");
+        }
+        isWhiteTurn = isLegacyWhiteTurn;
+        int castlingRights = 0;
+        for (int color = 0; color < 2; color++) {
+            int backRow = 7 - 7 * color;
+            if (isUnmovedLegacyPiece(legacyBoard[backRow][4], Piece.KING, color)) {
+                if (isUnmovedLegacyPiece(legacyBoard[backRow][7], Piece.ROOK, color)) {
+                    castlingRights |= WHITE_KINGSIDE << (color * 2);
                 }
+                if (isUnmovedLegacyPiece(legacyBoard[backRow][0], Piece.ROOK, color)) {
+                    castlingRights |= WHITE_QUEENSIDE << (color * 2);
+                }
+            }
+        }
+        markMovedPieces(castlingRights);
+        if (!legacyHistory.isEmpty()) {
+            Move last = legacyHistory.get(legacyHistory.size() - 1);
+            int fromRow = last.getFrom().getRow();
+            int toRow = last.getTo().getRow();
+            int square = Bitboard.square((fromRow + toRow) / 2, last.getTo().getCol());
+            if (last.getMovedPiece() instanceof Pawn && Math.abs(fromRow - toRow) == 2
+                    && isValidEnPassantSquare(square)) {
+                enPassantSquare = square;
             }
         }
-        return false;
+        fullmoveNumber = legacyHistory.size() / 2 + 1;
+        hashedCastlingRights = getCastlingRights();
+        zobristKey = computeZobristKey();
+        startPosition = packPosition();
+    }
+
+    //whether a pawn stands on row 0 or 7, which no position reached by play has
+    private boolean hasPawnOnBackRow() {
+        return ((pieceBoards[Piece.PAWN] | pieceBoards[6 + Piece.PAWN]) & BACK_ROWS) != 0;
     }
 
     /**
-     * Checks if a player can move without putting their king in check.
-     * @param piece piece to move
-     * @param from Starting position
-     * @param to Target Position
-     * @return true if there is a valid move that doesn't put the
-     * player's king in check, false otherwise
+     * Checks an en passant square being set up against the side to move: the pawn that
+     * just moved two squares skipped row 2 (black) or row 5 (white), so the square is
+     * empty and that pawn stands just beyond it. makeMove removes the pawn there when the
+     * capture is played, so a square that fails this would corrupt the board.
+     * @param square The square, 0 to 63.
+     * @return Whether the square can be the en passant square.
      */
-    private boolean canMoveWithoutPuttingKingInCheck(Piece piece,
-                                                     Position from, Position to) {
-        //simulate move
-        Piece capturedPiece = getPiece(to);
-        setPiece(to, piece);
-        setPiece(from, null);
-        piece.setPosition(to);
-
-        //finds king position after the move
-        Position kingPosition;
-        if (piece.getColor() == 0) {
-            kingPosition = whiteKingPosition;
-        } else {
-            kingPosition = blackKingPosition;
+    private boolean isValidEnPassantSquare(int square) {
+        int enPassantRow = 5;
+        int pawnSquare = square - 8;
+        int pawnIndex = Piece.PAWN;
+        if (isWhiteTurn) {
+            enPassantRow = 2;
+            pawnSquare = square + 8;
+            pawnIndex = 6 + Piece.PAWN;
         }
+        return Bitboard.row(square) == enPassantRow && (occupied & Bitboard.bit(square)) == 0
+                && (pieceBoards[pawnIndex] & Bitboard.bit(pawnSquare)) != 0;
+    }
 
-        boolean stillInCheck = isKingInCheck(kingPosition);
-
-        //undos the move
-        setPiece(from, piece);
-        setPiece(to, capturedPiece);
-        piece.setPosition(from);
+    private static boolean isUnmovedLegacyPiece(Piece piece, int type, int color) {
+        return piece != null && piece.getType() == type && piece.getColor() == color
+                && !piece.hasMoved();
+    }
 
-        //return true if the move doesn't put the king in check
-        return !stillInCheck;
+    /**
+     * Plays and records a move read from a saved game. The code must be one of the legal
+     * moves, flag included, since makeMove trusts its flags: a castling move without a
+     * rook or an en passant capture without a pawn would corrupt the board.
+     * @throws IOException When the move is not legal in the current position.
+     */
+    private void replayMove(int move) throws IOException {
+        int count = generateLegalMoves(moveBuffer);
+        for (int i = 0; i < count; i++) {
+            if (moveBuffer[i] == move) {
+                playMove(move);
+                return;
+            }
+        }
+        throw new IOException("Invalid move in saved game: " + Move.toCoordinateString(move));
     }
 
     /**
-     * Checks if a pawn promotion happens
-     * @param to Target Position
-     * @return true if there is a pawn promotion, false otherwise.
+     * Packs the current position: a four-bit code per square (0 for empty, otherwise
+     * 1 + color * 6 + type), two squares per byte, then the side to move, the castling
+     * rights, the en passant square (-1 for none), the halfmove clock (at most 255) and
+     * the fullmove number as an unsigned short.
+     * @return The packed position, PACKED_POSITION_BYTES long.
      */
-    public boolean isPawnPromotion(Position to) {
-        Piece piece = getPiece(to);
-        return piece instanceof Pawn && (to.getRow() == 0 || to.getRow() == 7);
+    private byte[] packPosition() {
+        byte[] packed = new byte[PACKED_POSITION_BYTES];
+        for (int index = 0; index < 12; index++) {
+            long pieces = pieceBoards[index];
+            while (pieces != 0) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                packed[square / 2] |= (byte) ((index + 1) << ((square % 2) * 4));
+            }
+        }
+        if (!isWhiteTurn) {
+            packed[32] = 1;
+        }
+        packed[33] = (byte) getCastlingRights();
+        packed[34] = (byte) enPassantSquare;
+        packed[35] = (byte) Math.min(halfmoveClock, 255);
+        packed[36] = (byte) (fullmoveNumber >> 8);
+        packed[37] = (byte) fullmoveNumber;
+        return packed;
     }
 
-    public Position getWhiteKingPosition() {
-        return whiteKingPosition;
+    //sets up the board from a position packed by packPosition
+    private void unpackPosition(byte[] packed) throws IOException {
+        clearBoard();
+        for (int square = 0; square < 64; square++) {
+            int code = (packed[square / 2] >> ((square % 2) * 4)) & 0xF;
+            if (code > 12) {
+                throw new IOException("Invalid piece in saved position");
+            }
+            if (code != 0) {
+                setPiece(square, Piece.create((code - 1) % 6, (code - 1) / 6, Position.of(square)));
+            }
+        }
+        if (whiteKingPosition == null || blackKingPosition == null) {
+            throw new IOException("Saved position is missing a king");
+        }
+        if (hasPawnOnBackRow()) {
+            throw new IOException("Saved position has a pawn on its first or last row");
+        }
+        isWhiteTurn = packed[32] == 0;
+        markMovedPieces(packed[33]);
+        if (packed[34] != -1 && (packed[34] < 0 || !isValidEnPassantSquare(packed[34]))) {
+            throw new IOException("Invalid en passant square in saved position");
+        }
+        enPassantSquare = packed[34];
+        if (packed.length >= PACKED_POSITION_BYTES) {
+            halfmoveClock = packed[35] & 0xFF;
+            fullmoveNumber = Math.max(((packed[36] & 0xFF) << 8) | (packed[37] & 0xFF), 1);
+        }
+        hashedCastlingRights = getCastlingRights();
+        zobristKey = computeZobristKey();
+        //repacked so that positions from version 1 saves gain the move counters
+        startPosition = packPosition();
     }
 
-    public Position getBlackKingPosition() {
-        return blackKingPosition;
+    //switches the player's turn
+    public void switchTurn() {
+        isWhiteTurn = !isWhiteTurn;
+        zobristKey ^= Zobrist.blackToMoveKey();
     }
 
-    public boolean isWhiteTurn() {
-        return isWhiteTurn;
+    /**
+     * Gets the Zobrist hash of the position: the pieces, the player to move,
+     * the castling rights and the en passant square.
+     * @return The 64-bit hash, updated incrementally as the game is played.
+     */
+    public long getZobristKey() {
+        return zobristKey;
     }
 
-    public boolean isGameOver() {
-        return isGameOver;
+    /**
+     * Computes the Zobrist hash of the position from scratch.
+     * @return The same value getZobristKey returns.
+     */
+    long computeZobristKey() {
+        long key = 0L;
+        for (int index = 0; index < 12; index++) {
+            long pieces = pieceBoards[index];
+            while (pieces != 0) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                key ^= Zobrist.pieceKey(index, square);
+            }
+        }
+        if (!isWhiteTurn) {
+            key ^= Zobrist.blackToMoveKey();
+        }
+        key ^= Zobrist.castlingKey(getCastlingRights());
+        key ^= Zobrist.enPassantKey(enPassantSquare);
+        return key;
     }
 
-    //saves current game state to a file
-    public void saveGameState(String fileName) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(fileName))) {
-            oos.writeObject(board);
-            oos.writeObject(moveHistory);
-            oos.writeBoolean(isWhiteTurn);
-            oos.writeObject(whiteKingPosition);
-            oos.writeObject(blackKingPosition);
-        } catch (IOException e) {
-            System.err.println("Error saving game state: " + e.getMessage());
+    //brings the castling rights part of the hash up to date
+    private void updateCastlingKey() {
+        int rights = getCastlingRights();
+        if (rights != hashedCastlingRights) {
+            zobristKey ^= Zobrist.castlingKey(hashedCastlingRights) ^ Zobrist.castlingKey(rights);
+            hashedCastlingRights = rights;
         }
     }
 
-    //loads game state from a file
-    public void loadGameState(String fileName) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(fileName))) {
-            board = (Piece[][]) ois.readObject();
-            moveHistory = (List<Move>) ois.readObject();
-            isWhiteTurn = ois.readBoolean();
-            whiteKingPosition = (Position) ois.readObject();
-            blackKingPosition = (Position) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading game state: " + e.getMessage());
-            throw new RuntimeException("Failed to load game state", e);
+    /**
+     * Gets the castling rights, which a king keeps with a rook as long as neither has moved.
+     * @return A combination of WHITE_KINGSIDE, WHITE_QUEENSIDE, BLACK_KINGSIDE and
+     * BLACK_QUEENSIDE.
+     */
+    public int getCastlingRights() {
+        int rights = 0;
+        if (isUnmoved(7, 4, Piece.KING, 0)) {
+            if (isUnmoved(7, 7, Piece.ROOK, 0)) {
+                rights |= WHITE_KINGSIDE;
+            }
+            if (isUnmoved(7, 0, Piece.ROOK, 0)) {
+                rights |= WHITE_QUEENSIDE;
+            }
+        }
+        if (isUnmoved(0, 4, Piece.KING, 1)) {
+            if (isUnmoved(0, 7, Piece.ROOK, 1)) {
+                rights |= BLACK_KINGSIDE;
+            }
+            if (isUnmoved(0, 0, Piece.ROOK, 1)) {
+                rights |= BLACK_QUEENSIDE;
+            }
         }
+        return rights;
     }
 
-    //switches the player's turn
-    public void switchTurn() {
-        isWhiteTurn = !isWhiteTurn;
+    //checks for an unmoved piece of the given type and color on a square
+    private boolean isUnmoved(int row, int col, int type, int color) {
+        //the bitboard test avoids a virtual getType call on the piece
+        return (pieceBoards[color * 6 + type] & Bitboard.bit(Bitboard.square(row, col))) != 0
+                && !board[row][col].hasMoved();
     }
 
     public void printBoard() {
@@ -619,9 +1819,21 @@ public class Chess implements Serializable {
             System.out.println();
         }
     }
-}
-
-
-
-
 
+    /**
+     * The state makeMove changes that cannot be recomputed from the move itself.
+     */
+    private static class UndoEntry {
+        private int move;
+        private Piece movedPiece;
+        private boolean hadMoved;
+        private Piece capturedPiece;
+        private int enPassantSquare;
+        private int castlingRights;
+        private long zobristKey;
+        private Position whiteKingPosition;
+        private Position blackKingPosition;
+        private int halfmoveClock;
+        private boolean isGameOver;
+    }
+}
@@ -1,72 +1,293 @@
 package org.cis1200.chess;
 
+import org.cis1200.chess.engine.OpeningBook;
+import org.cis1200.chess.engine.Search;
+import org.cis1200.chess.engine.SearchResult;
+
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class ChessBoard extends JPanel {
+    private static final int SQUARE_SIZE = 80;
+    private static final Color DARK_SQUARE = new Color(150, 77, 34);
+    private static final Color LIGHT_SQUARE = new Color(238, 220, 151);
+    private static final Color SELECTED_HIGHLIGHT = new Color(255, 255, 0, 100);
+    private static final Color TARGET_HIGHLIGHT = new Color(0, 160, 0, 90);
+    //how many frames the paint time is averaged over before it is printed
+    private static final int PAINT_REPORT_FRAMES = 100;
+    //paint times are only measured when run with -Dchess.paintTiming=true
+    private static final boolean IS_TIMING_PAINTS = Boolean.getBoolean("chess.paintTiming");
+
     private Chess gameModel;
     private Position selectedPosition;
+    //legal moves of the current player, generated when a piece is selected
+    private final int[] legalMoves = new int[MoveGenerator.MAX_MOVES];
+    private int legalMoveCount;
+    //the squares the selected piece can move to
+    private long targetSquares;
+
+    //the empty squares, drawn once and then copied for every frame
+    private BufferedImage background;
+    //the pieces pre-scaled for the screen's scale, which can change with the monitor
+    private PieceImages.Atlas atlas;
+    private double atlasScale;
+    //what the board showed when it was last repainted, to find the squares that changed
+    private final Piece[] shownPieces = new Piece[64];
+    private long shownSelection;
+    private long shownTargets;
+    //paint times of the frames since the last report
+    private int paintCount;
+    private long paintNanos;
+    private long maxPaintNanos;
+    //the computer opponent plays black when enabled
+    private static final long COMPUTER_MOVE_MILLIS = 50;
+    //the computer plays its openings from this book when the file exists, see BookBuilder
+    private static final String BOOK_FILE = "book.bin";
+    //endgame tables written by TablebaseGenerator, used when the directory exists
+    private static final String TABLEBASE_DIRECTORY = "tablebases";
+    //every move is journaled here as it is played, see MoveJournal
+    private static final String JOURNAL_FILE = "moveHistory.journal";
+    //the journal is written on a thread of its own so the window never waits for the disk;
+    //journal is only used on that thread
+    private final ScheduledExecutorService journalWriter =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "move-journal");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private MoveJournal journal;
+    //moves handed to the journal since its last checkpoint
+    private int journaledMoves;
+    private final Search search = new Search();
+    private boolean isComputerOpponent;
+    private boolean isComputerThinking;
+    //shows what the computer played and similar notes above the board, or null
+    private JLabel statusLabel;
 
     public ChessBoard() {
         gameModel = new Chess();
-        setPreferredSize(new Dimension(640, 640));
+        setPreferredSize(new Dimension(8 * SQUARE_SIZE, 8 * SQUARE_SIZE));
         addMouseListener(new MouseAdapter() {
             @Override
             public void mouseClicked(MouseEvent e) {
                 System.out.println("Mouse clicked at: (" + e.getX() + ", " + e.getY() + ")");
-                int x = e.getX() / 80;
-                int y = e.getY() / 80;
+                int x = e.getX() / SQUARE_SIZE;
+                int y = e.getY() / SQUARE_SIZE;
                 handleClick(x, y);
             }
         });
+        //a journal left behind means the program did not close normally last time
+        Chess recovered = null;
         try {
-            loadGame();
-        } catch (Exception e) {
+            recovered = MoveJournal.recover(Paths.get(JOURNAL_FILE));
+        } catch (IOException e) {
             e.printStackTrace();
         }
+        if (recovered != null) {
+            gameModel = recovered;
+            JOptionPane.showMessageDialog(this, "Game recovered from the move journal!",
+                    "Load Game", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            try {
+                loadGame();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        journalCheckpoint();
+        //forces the last moves onto the disk when the game pauses before the journal's
+        //batch of moves is full
+        journalWriter.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.sync();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, MoveJournal.SYNC_MILLIS, MoveJournal.SYNC_MILLIS, TimeUnit.MILLISECONDS);
+        Path bookPath = Paths.get(BOOK_FILE);
+        if (Files.exists(bookPath)) {
+            try {
+                search.setOpeningBook(new OpeningBook(bookPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        Path tablebasePath = Paths.get(TABLEBASE_DIRECTORY);
+        if (Files.isDirectory(tablebasePath)) {
+            try {
+                Tablebase tablebase = new Tablebase(tablebasePath);
+                gameModel.setTablebase(tablebase);
+                search.setTablebase(tablebase);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         repaint();
     }
 
+    /**
+     * Paints the squares inside the clip: the cached background first, then the
+     * highlights and pieces of just those squares, so repainting the squares a move
+     * changed costs little more than drawing those squares.
+     */
     @Override
     protected void paintComponent(Graphics g) {
+        long start = System.nanoTime();
         super.paintComponent(g);
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                if ((i + j) % 2 == 1) {
-                    g.setColor(new Color(150, 77, 34));
-                } else {
-                    g.setColor(new Color(238, 220, 151));
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, 8 * SQUARE_SIZE, 8 * SQUARE_SIZE);
+        }
+        //on a HiDPI screen the images are made with the screen's pixels, so they are
+        //copied without scaling
+        double scale = ((Graphics2D) g).getTransform().getScaleX();
+        if (atlas == null || scale != atlasScale) {
+            atlas = PieceImages.getAtlas(SQUARE_SIZE, scale);
+            atlasScale = scale;
+            background = null;
+        }
+        g.drawImage(getBackgroundImage(scale), clip.x, clip.y, clip.x + clip.width,
+                clip.y + clip.height, (int) (clip.x * scale), (int) (clip.y * scale),
+                (int) ((clip.x + clip.width) * scale), (int) ((clip.y + clip.height) * scale),
+                null);
+
+        int firstRow = Math.max(0, clip.y / SQUARE_SIZE);
+        int lastRow = Math.min(7, (clip.y + clip.height - 1) / SQUARE_SIZE);
+        int firstCol = Math.max(0, clip.x / SQUARE_SIZE);
+        int lastCol = Math.min(7, (clip.x + clip.width - 1) / SQUARE_SIZE);
+        for (int i = firstRow; i <= lastRow; i++) {
+            for (int j = firstCol; j <= lastCol; j++) {
+                int square = Bitboard.square(i, j);
+                if (selectedPosition != null && selectedPosition.getSquare() == square) {
+                    g.setColor(SELECTED_HIGHLIGHT);
+                    g.fillRect(j * SQUARE_SIZE, i * SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
                 }
-                g.fillRect(j * 80, i * 80, 80, 80);
 
-                if (selectedPosition != null && selectedPosition.getRow() == i
-                        && selectedPosition.getCol() == j) {
-                    g.setColor(new Color(255, 255, 0, 100));
-                    g.fillRect(j * 80, i * 80, 80, 80);
+                if ((targetSquares & Bitboard.bit(square)) != 0) {
+                    g.setColor(TARGET_HIGHLIGHT);
+                    g.fillRect(j * SQUARE_SIZE, i * SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
                 }
 
-                Piece piece = gameModel.getPiece(new Position(i, j));
+                Piece piece = gameModel.getPiece(square);
                 if (piece != null) {
-                    drawPiece(g, piece, i, j);
+                    atlas.drawPiece(g, piece, j * SQUARE_SIZE, i * SQUARE_SIZE);
+                }
+            }
+        }
+        if (IS_TIMING_PAINTS) {
+            recordPaintTime(System.nanoTime() - start);
+        }
+    }
+
+    //draws the 64 empty squares into an image the first time they are needed at a scale
+    private BufferedImage getBackgroundImage(double scale) {
+        if (background == null) {
+            int size = (int) Math.round(8 * SQUARE_SIZE * scale);
+            //an image in the screen's own format is copied without conversion
+            GraphicsConfiguration configuration = getGraphicsConfiguration();
+            if (configuration != null) {
+                background = configuration.createCompatibleImage(size, size);
+            } else {
+                background = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            }
+            Graphics2D g = background.createGraphics();
+            g.scale(scale, scale);
+            for (int i = 0; i < 8; i++) {
+                for (int j = 0; j < 8; j++) {
+                    if ((i + j) % 2 == 1) {
+                        g.setColor(DARK_SQUARE);
+                    } else {
+                        g.setColor(LIGHT_SQUARE);
+                    }
+                    g.fillRect(j * SQUARE_SIZE, i * SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
                 }
             }
+            g.dispose();
         }
+        return background;
+    }
 
+    //adds a frame's paint time, printing the average and slowest every few frames
+    private void recordPaintTime(long nanos) {
+        paintCount++;
+        paintNanos += nanos;
+        maxPaintNanos = Math.max(maxPaintNanos, nanos);
+        if (paintCount == PAINT_REPORT_FRAMES) {
+            System.out.printf("Painted %d frames: average %.1f us, slowest %.1f us%n",
+                    paintCount, paintNanos / 1e3 / paintCount, maxPaintNanos / 1e3);
+            paintCount = 0;
+            paintNanos = 0;
+            maxPaintNanos = 0;
+        }
     }
 
-    private void drawPiece(Graphics g, Piece piece, int row, int col) {
-        Image pieceImage = PieceImages.getImage(piece);
-        if (pieceImage != null) {
-            g.drawImage(pieceImage, col * 80, row * 80, 80, 80, null);
+    /**
+     * Repaints only the squares whose piece or highlight changed since the last call,
+     * e.g. the two squares of a move, instead of the whole board. Swing merges the
+     * squares into one region for the next frame.
+     */
+    private void repaintChangedSquares() {
+        long selection = 0;
+        if (selectedPosition != null) {
+            selection = Bitboard.bit(selectedPosition.getSquare());
+        }
+        long changed = (selection ^ shownSelection) | (targetSquares ^ shownTargets);
+        shownSelection = selection;
+        shownTargets = targetSquares;
+        for (int square = 0; square < 64; square++) {
+            Piece piece = gameModel.getPiece(square);
+            if (piece != shownPieces[square]) {
+                shownPieces[square] = piece;
+                changed |= Bitboard.bit(square);
+            }
+        }
+        while (changed != 0) {
+            int square = Long.numberOfTrailingZeros(changed);
+            changed &= changed - 1;
+            repaint(Bitboard.col(square) * SQUARE_SIZE, Bitboard.row(square) * SQUARE_SIZE,
+                    SQUARE_SIZE, SQUARE_SIZE);
         }
     }
 
+    //finds the squares the selected piece can move to
+    private long findTargetSquares() {
+        int from = selectedPosition.getSquare();
+        long targets = 0;
+        for (int k = 0; k < legalMoveCount; k++) {
+            if (Move.fromSquare(legalMoves[k]) == from) {
+                targets |= Bitboard.bit(Move.toSquare(legalMoves[k]));
+            }
+        }
+        return targets;
+    }
+
     private void handleClick(int x, int y) {
-        Position clicked = new Position(y, x);
+        //the board is locked while the computer is choosing its move
+        if (isComputerThinking) {
+            return;
+        }
+        Position clicked = Position.of(y, x);
 
         if (selectedPosition == null) {
             Piece piece = gameModel.getPiece(clicked);
@@ -81,68 +302,164 @@ public class ChessBoard extends JPanel {
 
             if (piece != null && piece.getColor() == currentPlayerColor) {
                 selectedPosition = clicked;
-                repaint();
+                legalMoveCount = gameModel.generateLegalMoves(legalMoves);
+                targetSquares = findTargetSquares();
+                repaintChangedSquares();
             } else {
                 System.out.println("Invalid selection. No piece or wrong player's turn.");
             }
         } else {
-            boolean hasMoved = gameModel.movePiece(selectedPosition, clicked);
+            boolean hasMoved;
+            if (gameModel.isPromotionMove(selectedPosition, clicked)) {
+                hasMoved = gameModel.movePiece(selectedPosition, clicked,
+                        choosePromotionType());
+            } else {
+                hasMoved = gameModel.movePiece(selectedPosition, clicked);
+            }
             System.out.println("Move successful: " + hasMoved);
 
             selectedPosition = null;
-            repaint();
+            legalMoveCount = 0;
+            targetSquares = 0;
+            repaintChangedSquares();
 
             if (hasMoved) {
-                if (gameModel.isPawnPromotion(clicked)) {
-                    handlePawnPromotion(clicked);
-                }
+                showStatus(" ");
+                journalMove();
+                showGameStatus();
+                playComputerMove();
+            }
+        }
+    }
 
-                String result = gameModel.checkForGameOver();
-                System.out.println("Game over result: " + result);
-                if (result != null) {
-                    String message;
-                    if (result.equals("Checkmate")) {
-                        if (gameModel.isWhiteTurn()) {
-                            message = "Black wins by Checkmate!";
-                        } else {
-                            message = "White wins by Checkmate!";
-                        }
-                    } else if (result.equals("Stalemate")) {
-                        message = "The game is a draw due to Stalemate.";
-                    } else if (result.equals("Draw by insufficient material")) {
-                        message = "The game is a draw due to insufficient material.";
-                    } else {
-                        message = "Game over.";
-                    }
-                    JOptionPane.showMessageDialog(this, message,
-                            "Game Over", JOptionPane.INFORMATION_MESSAGE);
+    //shows a dialog if the game is over or the player to move is in check
+    private void showGameStatus() {
+        String result = gameModel.checkForGameOver();
+        System.out.println("Game over result: " + result);
+        if (result != null) {
+            String message;
+            if (result.equals("Checkmate")) {
+                if (gameModel.isWhiteTurn()) {
+                    message = "Black wins by Checkmate!";
                 } else {
-                    Position kingPosition;
-                    if (gameModel.isWhiteTurn()) {
-                        kingPosition = gameModel.getWhiteKingPosition();
-                    } else {
-                        kingPosition = gameModel.getBlackKingPosition();
-                    }
+                    message = "White wins by Checkmate!";
+                }
+            } else if (result.equals("Stalemate")) {
+                message = "The game is a draw due to Stalemate.";
+            } else if (result.equals("Draw by fifty-move rule")) {
+                message = "The game is a draw: fifty moves without a capture or pawn move.";
+            } else if (result.equals("Draw by repetition")) {
+                message = "The game is a draw: the same position came up three times.";
+            } else if (result.equals("Draw by insufficient material")) {
+                message = "The game is a draw due to insufficient material.";
+            } else if (result.equals("Draw by tablebase")) {
+                message = "The game is a draw: neither side can force checkmate.";
+            } else {
+                message = "Game over.";
+            }
+            JOptionPane.showMessageDialog(this, message,
+                    "Game Over", JOptionPane.INFORMATION_MESSAGE);
+        } else {
+            showTablebaseResult();
+            Position kingPosition;
+            if (gameModel.isWhiteTurn()) {
+                kingPosition = gameModel.getWhiteKingPosition();
+            } else {
+                kingPosition = gameModel.getBlackKingPosition();
+            }
 
-                    if (gameModel.isKingInCheck(kingPosition)) {
-                        String message;
-                        if (gameModel.isWhiteTurn()) {
-                            message = "White is in Check!";
-                        } else {
-                            message = "Black is in Check!";
-                        }
-                        JOptionPane.showMessageDialog(this,
-                                message,
-                                "Check",
-                                JOptionPane.WARNING_MESSAGE);
-                    }
+            if (gameModel.isKingInCheck(kingPosition)) {
+                String message;
+                if (gameModel.isWhiteTurn()) {
+                    message = "White is in Check!";
+                } else {
+                    message = "Black is in Check!";
                 }
+                JOptionPane.showMessageDialog(this,
+                        message,
+                        "Check",
+                        JOptionPane.WARNING_MESSAGE);
             }
+        }
+    }
+
+    /**
+     * Sets the label the board writes notes about the game into, such as the computer's
+     * move.
+     * @param label The label, or null for none.
+     */
+    public void setStatusLabel(JLabel label) {
+        statusLabel = label;
+    }
 
+    private void showStatus(String text) {
+        if (statusLabel != null) {
+            statusLabel.setText(text);
         }
     }
 
-    private void handlePawnPromotion(Position position) {
+    /**
+     * Turns the computer opponent, which plays black, on or off.
+     * @param enabled true to play against the computer, false for two players.
+     */
+    public void setComputerOpponent(boolean enabled) {
+        isComputerOpponent = enabled;
+        playComputerMove();
+    }
+
+    /**
+     * Lets the computer choose and play black's move, if it is black's turn.
+     * The search runs on a copy of the game in the background so the window
+     * stays responsive, and the move is played back on the event thread.
+     */
+    private void playComputerMove() {
+        if (!isComputerOpponent || isComputerThinking || gameModel.isGameOver()
+                || gameModel.isWhiteTurn()) {
+            return;
+        }
+        isComputerThinking = true;
+        Chess position = new Chess(gameModel);
+        long positionKey = gameModel.getZobristKey();
+        new SwingWorker<SearchResult, Void>() {
+            @Override
+            protected SearchResult doInBackground() {
+                return search.search(position, Search.MAX_PLY, Long.MAX_VALUE,
+                        COMPUTER_MOVE_MILLIS);
+            }
+
+            @Override
+            protected void done() {
+                isComputerThinking = false;
+                SearchResult result;
+                try {
+                    result = get();
+                } catch (InterruptedException | ExecutionException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                //skips the move if the game was reset or loaded in the meantime
+                int move = result.getBestMove();
+                if (move == Move.NONE || gameModel.getZobristKey() != positionKey) {
+                    return;
+                }
+                showStatus("Computer played " + Move.toCoordinateString(move) + " (depth "
+                        + result.getDepth() + ", score " + result.getScore() + ")");
+                int promotionType = Piece.QUEEN;
+                if (Move.isPromotion(move)) {
+                    promotionType = Move.promotionType(move);
+                }
+                int from = Move.fromSquare(move);
+                int to = Move.toSquare(move);
+                if (gameModel.movePiece(Position.of(from), Position.of(to), promotionType)) {
+                    journalMove();
+                }
+                repaintChangedSquares();
+                showGameStatus();
+            }
+        }.execute();
+    }
+
+    private int choosePromotionType() {
         String[] options = {"Queen", "Rook", "Bishop", "Knight"};
         int choice = JOptionPane.showOptionDialog(
                 this,
@@ -155,33 +472,54 @@ public class ChessBoard extends JPanel {
                 options[0]
         );
 
-        Piece promotedPiece;
-        int color = gameModel.getPiece(position).getColor();
         switch (choice) {
-            case 0:
-                promotedPiece = new Queen(color, position);
-                break;
             case 1:
-                promotedPiece = new Rook(color, position);
-                break;
+                return Piece.ROOK;
             case 2:
-                promotedPiece = new Bishop(color, position);
-                break;
+                return Piece.BISHOP;
             case 3:
-                promotedPiece = new Knight(color, position);
-                break;
+                return Piece.KNIGHT;
             default:
-                promotedPiece = new Queen(color, position);
+                return Piece.QUEEN;
         }
-        gameModel.setPiece(position, promotedPiece);
-        gameModel.switchTurn();
-        repaint();
     }
 
-    private void saveGame() {
-        gameModel.saveGameState("moveHistory");
+    //saves the game and tells the player whether it worked, returning whether it did
+    private boolean saveGame() {
+        if (!gameModel.saveGameState("moveHistory")) {
+            JOptionPane.showMessageDialog(this, "Error saving game! It will be recovered from "
+                    + "the move journal next time.", "Save Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
         JOptionPane.showMessageDialog(this, "Game saved successfully!",
                 "Save Game", JOptionPane.INFORMATION_MESSAGE);
+        return true;
+    }
+
+    //adds how many moves a won ending in the tablebase takes to mate to the status
+    private void showTablebaseResult() {
+        Tablebase tablebase = gameModel.getTablebase();
+        if (tablebase == null) {
+            return;
+        }
+        int distance = tablebase.probe(gameModel);
+        if (distance < 0) {
+            return;
+        }
+        //the player to move wins with an odd distance in plies
+        String winner;
+        if (gameModel.isWhiteTurn() == Tablebase.isWin(distance)) {
+            winner = "White";
+        } else {
+            winner = "Black";
+        }
+        String result = winner + " mates in " + (distance + 1) / 2 + " moves";
+        if (statusLabel == null || statusLabel.getText().trim().isEmpty()) {
+            showStatus(result);
+        } else {
+            //keeps the computer's move, which is shown first
+            showStatus(statusLabel.getText() + "; " + result);
+        }
     }
 
     private void loadGame() {
@@ -197,20 +535,116 @@ public class ChessBoard extends JPanel {
         }
     }
 
+    //appends the move just played to the journal, or takes a checkpoint when one is due
+    private void journalMove() {
+        if (journaledMoves == MoveJournal.CHECKPOINT_MOVES) {
+            journalCheckpoint();
+            return;
+        }
+        journaledMoves++;
+        List<Move> history = gameModel.getMoveHistory();
+        final int move = history.get(history.size() - 1).getCode();
+        journalWriter.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.append(move);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    //starts the journal again from the whole game, e.g. after a take back, which the
+    //journal has no record for
+    private void journalCheckpoint() {
+        //only this thread may read the game, so the checkpoint copies it here and the
+        //journal's thread writes the copy out
+        final GameCheckpoint checkpoint = gameModel.checkpoint();
+        journaledMoves = 0;
+        journalWriter.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (journal == null) {
+                        journal = new MoveJournal(Paths.get(JOURNAL_FILE), checkpoint);
+                    } else {
+                        journal.checkpoint(checkpoint);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the journal and stops its thread, waiting a few seconds for it to finish.
+     * @param isSaved Whether the game was just saved in full, so the journal is no longer
+     * needed and is deleted. Otherwise it is kept, to recover the game from next time.
+     */
+    private void closeJournal(final boolean isSaved) {
+        journalWriter.execute(new Runnable() {
+            public void run() {
+                try {
+                    if (journal != null) {
+                        journal.close();
+                        journal = null;
+                    }
+                    if (isSaved) {
+                        Files.deleteIfExists(Paths.get(JOURNAL_FILE));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        journalWriter.shutdown();
+        try {
+            journalWriter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public void addWindowListener(JFrame frame) {
         frame.addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                saveGame();
+                closeJournal(saveGame());
                 frame.dispose();
             }
         });
     }
 
+    /**
+     * Takes back the last move. Against the computer, the computer's reply is taken
+     * back as well, so it is the player's turn again.
+     */
+    public void takeBackMove() {
+        if (isComputerThinking) {
+            return;
+        }
+        if (gameModel.takeBack() && isComputerOpponent && !gameModel.isWhiteTurn()) {
+            gameModel.takeBack();
+        }
+        journalCheckpoint();
+        showStatus(" ");
+        selectedPosition = null;
+        legalMoveCount = 0;
+        targetSquares = 0;
+        repaintChangedSquares();
+    }
+
     public void resetBoard() {
         gameModel.reset();
+        journalCheckpoint();
+        showStatus(" ");
         selectedPosition = null;
-        repaint();
+        legalMoveCount = 0;
+        targetSquares = 0;
+        repaintChangedSquares();
     }
 
 }
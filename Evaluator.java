@@ -0,0 +1,139 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.Piece;
+
+/**
+ * Static evaluation of Chess positions: material plus piece-square tables.
+ * Scores are in centipawns from the point of view of the player to move.
+ */
+public final class Evaluator {
+    //material value of each piece type, indexed by Piece.PAWN to Piece.KING
+    public static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+
+    //piece-square tables from white's point of view, row 0 (rank 8) first
+    private static final int[] PAWN_TABLE = {
+        0,   0,   0,   0,   0,   0,   0,   0,
+        50,  50,  50,  50,  50,  50,  50,  50,
+        10,  10,  20,  30,  30,  20,  10,  10,
+        5,   5,  10,  25,  25,  10,   5,   5,
+        0,   0,   0,  20,  20,   0,   0,   0,
+        5,  -5, -10,   0,   0, -10,  -5,   5,
+        5,  10,  10, -20, -20,  10,  10,   5,
+        0,   0,   0,   0,   0,   0,   0,   0,
+    };
+    private static final int[] KNIGHT_TABLE = {
+        -50, -40, -30, -30, -30, -30, -40, -50,
+        -40, -20,   0,   0,   0,   0, -20, -40,
+        -30,   0,  10,  15,  15,  10,   0, -30,
+        -30,   5,  15,  20,  20,  15,   5, -30,
+        -30,   0,  15,  20,  20,  15,   0, -30,
+        -30,   5,  10,  15,  15,  10,   5, -30,
+        -40, -20,   0,   5,   5,   0, -20, -40,
+        -50, -40, -30, -30, -30, -30, -40, -50,
+    };
+    private static final int[] BISHOP_TABLE = {
+        -20, -10, -10, -10, -10, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,  10,  10,   5,   0, -10,
+        -10,   5,   5,  10,  10,   5,   5, -10,
+        -10,   0,  10,  10,  10,  10,   0, -10,
+        -10,  10,  10,  10,  10,  10,  10, -10,
+        -10,   5,   0,   0,   0,   0,   5, -10,
+        -20, -10, -10, -10, -10, -10, -10, -20,
+    };
+    private static final int[] ROOK_TABLE = {
+        0,   0,   0,   0,   0,   0,   0,   0,
+        5,  10,  10,  10,  10,  10,  10,   5,
+        -5,   0,   0,   0,   0,   0,   0,  -5,
+        -5,   0,   0,   0,   0,   0,   0,  -5,
+        -5,   0,   0,   0,   0,   0,   0,  -5,
+        -5,   0,   0,   0,   0,   0,   0,  -5,
+        -5,   0,   0,   0,   0,   0,   0,  -5,
+        0,   0,   0,   5,   5,   0,   0,   0,
+    };
+    private static final int[] QUEEN_TABLE = {
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+        -10,   0,   0,   0,   0,   0,   0, -10,
+        -10,   0,   5,   5,   5,   5,   0, -10,
+        -5,   0,   5,   5,   5,   5,   0,  -5,
+        0,   0,   5,   5,   5,   5,   0,  -5,
+        -10,   5,   5,   5,   5,   5,   0, -10,
+        -10,   0,   5,   0,   0,   0,   0, -10,
+        -20, -10, -10,  -5,  -5, -10, -10, -20,
+    };
+    private static final int[] KING_MIDDLEGAME_TABLE = {
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -30, -40, -40, -50, -50, -40, -40, -30,
+        -20, -30, -30, -40, -40, -30, -30, -20,
+        -10, -20, -20, -20, -20, -20, -20, -10,
+        20,  20,   0,   0,   0,   0,  20,  20,
+        20,  30,  10,   0,   0,  10,  30,  20,
+    };
+    private static final int[] KING_ENDGAME_TABLE = {
+        -50, -40, -30, -20, -20, -30, -40, -50,
+        -30, -20, -10,   0,   0, -10, -20, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  30,  40,  40,  30, -10, -30,
+        -30, -10,  20,  30,  30,  20, -10, -30,
+        -30, -30,   0,   0,   0,   0, -30, -30,
+        -50, -30, -30, -30, -30, -30, -30, -50,
+    };
+    private static final int[][] TABLES = {
+        PAWN_TABLE, KNIGHT_TABLE, BISHOP_TABLE, ROOK_TABLE, QUEEN_TABLE, KING_MIDDLEGAME_TABLE,
+    };
+
+    //below this much non-pawn material per side the kings head for the center
+    private static final int ENDGAME_MATERIAL = 1300;
+
+    private Evaluator() {
+    }
+
+    /**
+     * Evaluates a position.
+     * @param game The position to evaluate.
+     * @return The score in centipawns, positive if the player to move is better.
+     */
+    public static int evaluate(Chess game) {
+        boolean isEndgame = nonPawnMaterial(game, 0) <= ENDGAME_MATERIAL
+                && nonPawnMaterial(game, 1) <= ENDGAME_MATERIAL;
+        int score = evaluateSide(game, 0, isEndgame) - evaluateSide(game, 1, isEndgame);
+        if (game.isWhiteTurn()) {
+            return score;
+        }
+        return -score;
+    }
+
+    //sums material and piece-square values for one color
+    private static int evaluateSide(Chess game, int color, boolean isEndgame) {
+        int score = 0;
+        for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+            int[] table = TABLES[type];
+            if (type == Piece.KING && isEndgame) {
+                table = KING_ENDGAME_TABLE;
+            }
+            long pieces = game.getPieceBoard(color, type);
+            while (pieces != 0) {
+                int square = Long.numberOfTrailingZeros(pieces);
+                pieces &= pieces - 1;
+                //black reads the tables upside down
+                if (color == 1) {
+                    square ^= 56;
+                }
+                score += PIECE_VALUES[type] + table[square];
+            }
+        }
+        return score;
+    }
+
+    private static int nonPawnMaterial(Chess game, int color) {
+        int material = 0;
+        for (int type = Piece.KNIGHT; type <= Piece.QUEEN; type++) {
+            material += game.getPieceCount(color, type) * PIECE_VALUES[type];
+        }
+        return material;
+    }
+}
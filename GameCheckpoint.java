@@ -0,0 +1,141 @@
+package org.cis1200.chess;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * An immutable copy of a whole game, from Chess.checkpoint, e.g. for a MoveJournal
+ * checkpoint. Unlike a saved game (see Chess.writeGame) it holds the current position
+ * and the hash of every earlier position as well as the moves, so Chess.restore sets the
+ * game up again without replaying or checking a single move. Taking one copies two arrays
+ * as long as the game; writing it may then be left to another thread.
+ *
+ * Written layout:
+ *   byte    flags; bit 0 is set if a start position follows
+ *   38 B    start position, only for games not started from the standard position
+ *   38 B    current position (both packed, see Chess.packPosition)
+ *   short   number of moves n
+ *   n x 2 B move codes, oldest first
+ *   n x 8 B Zobrist hash of the position before each move
+ *   int     CRC-32 of all the bytes above
+ */
+public final class GameCheckpoint {
+    private static final int CUSTOM_START_FLAG = 1;
+
+    //the start position, or null for the standard start
+    private final byte[] startPosition;
+    private final byte[] position;
+    private final int[] moves;
+    private final long[] positionKeys;
+
+    /**
+     * Creates a checkpoint; see Chess.checkpoint. The arrays are kept, so they must not
+     * be changed afterwards.
+     * @param moves The move codes, oldest first.
+     * @param positionKeys The hash of the position before each move.
+     */
+    GameCheckpoint(byte[] startPosition, byte[] position, int[] moves, long[] positionKeys) {
+        this.startPosition = startPosition;
+        this.position = position;
+        this.moves = moves;
+        this.positionKeys = positionKeys;
+    }
+
+    byte[] getStartPosition() {
+        return startPosition;
+    }
+
+    byte[] getPosition() {
+        return position;
+    }
+
+    int[] getMoves() {
+        return moves;
+    }
+
+    long[] getPositionKeys() {
+        return positionKeys;
+    }
+
+    public int getPlyCount() {
+        return moves.length;
+    }
+
+    //the number of bytes write writes
+    public int getBytes() {
+        int bytes = 1 + position.length + 2 + 10 * moves.length + 4;
+        if (startPosition != null) {
+            bytes += startPosition.length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the checkpoint in the layout described above.
+     * @param out The buffer to write to, with at least getBytes bytes remaining.
+     */
+    public void write(ByteBuffer out) {
+        int start = out.position();
+        if (startPosition == null) {
+            out.put((byte) 0);
+        } else {
+            out.put((byte) CUSTOM_START_FLAG);
+            out.put(startPosition);
+        }
+        out.put(position);
+        out.putShort((short) moves.length);
+        for (int move : moves) {
+            out.putShort((short) move);
+        }
+        for (long key : positionKeys) {
+            out.putLong(key);
+        }
+        out.putInt(crc(out, start, out.position()));
+    }
+
+    /**
+     * Reads a checkpoint written by write, leaving the buffer just after it.
+     * @param in The buffer to read from.
+     * @return The checkpoint.
+     * @throws IOException When the data is cut short or fails its check.
+     */
+    public static GameCheckpoint read(ByteBuffer in) throws IOException {
+        try {
+            int start = in.position();
+            byte[] startPosition = null;
+            if ((in.get() & CUSTOM_START_FLAG) != 0) {
+                startPosition = new byte[Chess.PACKED_POSITION_BYTES];
+                in.get(startPosition);
+            }
+            byte[] position = new byte[Chess.PACKED_POSITION_BYTES];
+            in.get(position);
+            int count = in.getShort() & 0xFFFF;
+            int[] moves = new int[count];
+            for (int i = 0; i < count; i++) {
+                moves[i] = in.getShort() & 0xFFFF;
+            }
+            long[] positionKeys = new long[count];
+            for (int i = 0; i < count; i++) {
+                positionKeys[i] = in.getLong();
+            }
+            if (in.getInt() != crc(in, start, in.position() - 4)) {
+                throw new IOException("Damaged game checkpoint");
+            }
+            return new GameCheckpoint(startPosition, position, moves, positionKeys);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Game checkpoint is cut short", e);
+        }
+    }
+
+    //the CRC-32 of a buffer's bytes from start to end, leaving its position as it was
+    private static int crc(ByteBuffer buffer, int start, int end) {
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(start);
+        bytes.limit(end);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+}
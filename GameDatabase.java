@@ -0,0 +1,277 @@
+package org.cis1200.chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only store of games in one memory-mapped file. Each game is kept in the
+ * compact save format of Chess.writeGame (about two bytes per move), and games are
+ * numbered from 0 in the order they are added. Nothing is ever rewritten, so a game's
+ * record stays where it was put.
+ *
+ * File layout:
+ *   header          magic "CHDB", version, game count, end of the used part of the file,
+ *                   then the offsets of up to MAX_INDEX_BLOCKS index blocks
+ *   index blocks    INDEX_BLOCK_ENTRIES record offsets each, allocated as games are added
+ *   records         the games, one after another in the order they were added
+ * Game id i is found in index block i / INDEX_BLOCK_ENTRIES at slot i % INDEX_BLOCK_ENTRIES,
+ * so looking up a game takes two reads whatever the size of the database, and reading
+ * the games in id order reads the file front to back.
+ *
+ * The file is mapped in SEGMENT_BYTES segments and grows a segment at a time; records
+ * and index blocks never cross a segment boundary. Games may be read from several
+ * threads at once, but adding games must not overlap with other calls.
+ *
+ * A game that was added can be read in this process at once, but it is only stored, and
+ * seen when the file is opened again, after flush or close. flush forces the records
+ * and index blocks onto the disk before it writes the header's game count, so a crash
+ * can lose the games added since the last flush but never leaves the count covering a
+ * record that was not written.
+ */
+public class GameDatabase implements Closeable {
+    private static final int MAGIC = 0x43484442;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_BYTES = 1 << 26;
+    private static final int INDEX_BLOCK_ENTRIES = 1 << 16;
+    private static final int MAX_INDEX_BLOCKS = 8192;
+
+    //header fields, as offsets from the start of the file
+    private static final int GAME_COUNT_OFFSET = 8;
+    private static final int DATA_END_OFFSET = 16;
+    private static final int INDEX_BLOCKS_OFFSET = 64;
+    private static final int HEADER_BYTES = INDEX_BLOCKS_OFFSET + MAX_INDEX_BLOCKS * 8;
+
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private volatile long gameCount;
+    private long dataEnd;
+
+    /**
+     * Opens a database, creating an empty one if the file does not exist.
+     * @param path The database file.
+     * @throws IOException When the file cannot be opened or is not a game database.
+     */
+    public GameDatabase(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        boolean isNew = channel.size() == 0;
+        ByteBuffer header = segment(0);
+        if (isNew) {
+            header.putInt(0, MAGIC);
+            header.putInt(4, VERSION);
+            header.putLong(GAME_COUNT_OFFSET, 0);
+            header.putLong(DATA_END_OFFSET, HEADER_BYTES);
+        } else if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a game database: " + path);
+        }
+        gameCount = header.getLong(GAME_COUNT_OFFSET);
+        dataEnd = header.getLong(DATA_END_OFFSET);
+        //index blocks allocated after the last flush may have been lost in a crash, and
+        //the space after dataEnd will be used again
+        for (int block = 0; block < MAX_INDEX_BLOCKS; block++) {
+            if (header.getLong(INDEX_BLOCKS_OFFSET + block * 8) >= dataEnd) {
+                header.putLong(INDEX_BLOCKS_OFFSET + block * 8, 0);
+            }
+        }
+    }
+
+    public long getGameCount() {
+        return gameCount;
+    }
+
+    /**
+     * Adds a game at the end of the database.
+     * @param game The game, with the moves in its move history.
+     * @return The id of the game.
+     * @throws IOException When the database is full or the game is too long to store.
+     */
+    public long append(Chess game) throws IOException {
+        long id = gameCount;
+        if (id >= (long) MAX_INDEX_BLOCKS * INDEX_BLOCK_ENTRIES) {
+            throw new IOException("Game database is full");
+        }
+        if (game.getMoveHistory().size() > 0xFFFF) {
+            throw new IOException("Game too long to store");
+        }
+        int block = (int) (id / INDEX_BLOCK_ENTRIES);
+        long blockOffset = segment(0).getLong(INDEX_BLOCKS_OFFSET + block * 8);
+        if (blockOffset == 0) {
+            blockOffset = allocate(INDEX_BLOCK_ENTRIES * 8);
+        }
+
+        long recordOffset = allocate(game.getSavedGameBytes());
+        ByteBuffer record = segment(recordOffset).duplicate();
+        record.position(offsetInSegment(recordOffset));
+        game.writeGame(record);
+
+        //readers in this process see the game once gameCount includes it, so that is
+        //written last; the header's count is only written by flush
+        segment(blockOffset).putLong(offsetInSegment(blockOffset)
+                + (int) (id % INDEX_BLOCK_ENTRIES) * 8, recordOffset);
+        segment(0).putLong(INDEX_BLOCKS_OFFSET + block * 8, blockOffset);
+        gameCount = id + 1;
+        return id;
+    }
+
+    /**
+     * Replays a stored game straight from the mapped file into a Chess, replacing its
+     * current game.
+     * @param id The id of the game.
+     * @param game The Chess to replay it into.
+     * @throws IOException When the stored game is damaged.
+     * @throws IndexOutOfBoundsException When there is no game with that id.
+     */
+    public void readGame(long id, Chess game) throws IOException {
+        game.readGame(getRecord(id));
+    }
+
+    /**
+     * Gets a stored game.
+     * @param id The id of the game.
+     * @return A new Chess with the game replayed.
+     * @throws IOException When the stored game is damaged.
+     * @throws IndexOutOfBoundsException When there is no game with that id.
+     */
+    public Chess readGame(long id) throws IOException {
+        Chess game = new Chess();
+        readGame(id, game);
+        return game;
+    }
+
+    /**
+     * Gets the stored bytes of a game, in the format of Chess.writeGame, without
+     * copying them out of the mapped file.
+     * @param id The id of the game.
+     * @return A read-only buffer positioned at the start of the game.
+     * @throws IndexOutOfBoundsException When there is no game with that id.
+     */
+    public ByteBuffer getRecord(long id) {
+        if (id < 0 || id >= gameCount) {
+            throw new IndexOutOfBoundsException("No game " + id);
+        }
+        long blockOffset = segment(0).getLong(INDEX_BLOCKS_OFFSET
+                + (int) (id / INDEX_BLOCK_ENTRIES) * 8);
+        long recordOffset = segment(blockOffset).getLong(offsetInSegment(blockOffset)
+                + (int) (id % INDEX_BLOCK_ENTRIES) * 8);
+        ByteBuffer record = segment(recordOffset).asReadOnlyBuffer();
+        record.position(offsetInSegment(recordOffset));
+        return record;
+    }
+
+    /**
+     * Stores the games added so far: writes the records and index blocks out to the disk,
+     * and only then the header's game count and used size, forcing the header again.
+     */
+    public void flush() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        MappedByteBuffer header = segment(0);
+        header.putLong(DATA_END_OFFSET, dataEnd);
+        header.putLong(GAME_COUNT_OFFSET, gameCount);
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    /**
+     * Reserves space at the end of the used part of the file, starting a new segment
+     * if the space does not fit in the current one.
+     * @return The file offset of the space.
+     */
+    private long allocate(int bytes) {
+        long offset = dataEnd;
+        if (offsetInSegment(offset) + bytes > SEGMENT_BYTES) {
+            offset = (offset / SEGMENT_BYTES + 1) * SEGMENT_BYTES;
+        }
+        dataEnd = offset + bytes;
+        return offset;
+    }
+
+    //the mapped segment holding a file offset, mapping it (and growing the file) if needed
+    private synchronized MappedByteBuffer segment(long offset) {
+        int index = (int) (offset / SEGMENT_BYTES);
+        while (segments.size() <= index) {
+            try {
+                segments.add(channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) segments.size() * SEGMENT_BYTES, SEGMENT_BYTES));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map game database", e);
+            }
+        }
+        return segments.get(index);
+    }
+
+    private static int offsetInSegment(long offset) {
+        return (int) (offset % SEGMENT_BYTES);
+    }
+
+    /**
+     * Imports PGN files into a database, or replays every game in it and reports the
+     * throughput.
+     * Usage:
+     *   GameDatabase file.db import games.pgn [threads]
+     *   GameDatabase file.db scan
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: GameDatabase file.db import games.pgn [threads]"
+                    + " | GameDatabase file.db scan");
+            return;
+        }
+        try (final GameDatabase database = new GameDatabase(Paths.get(args[0]))) {
+            long start = System.nanoTime();
+            if (args[1].equals("import")) {
+                int threads = Runtime.getRuntime().availableProcessors();
+                if (args.length > 3) {
+                    threads = Integer.parseInt(args[3]);
+                }
+                PgnImporter importer = new PgnImporter(threads);
+                importer.importFile(Paths.get(args[2]), new PgnImporter.GameHandler() {
+                    public void handle(PgnGame game) {
+                        //appends must not overlap, and workers call this concurrently
+                        synchronized (database) {
+                            try {
+                                database.append(game.getGame());
+                            } catch (IOException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                });
+                System.out.printf("imported %d games (%d failed), %d in the database%n",
+                        importer.getGameCount(), importer.getFailureCount(),
+                        database.getGameCount());
+            } else {
+                Chess game = new Chess();
+                long plies = 0;
+                long bytes = 0;
+                for (long id = 0; id < database.getGameCount(); id++) {
+                    ByteBuffer record = database.getRecord(id);
+                    int recordStart = record.position();
+                    game.readGame(record);
+                    plies += game.getMoveHistory().size();
+                    bytes += record.position() - recordStart;
+                }
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("replayed %d games, %d plies, %.1f MB in %.2f s:"
+                                + " %.0f games/s, %.1f MB/s%n", database.getGameCount(), plies,
+                        bytes / 1e6, seconds, database.getGameCount() / seconds,
+                        bytes / 1e6 / seconds);
+            }
+        }
+    }
+}
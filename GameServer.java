@@ -0,0 +1,343 @@
+package org.cis1200.chess.server;
+
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.GameSnapshot;
+import org.cis1200.chess.Move;
+import org.cis1200.chess.MoveGenerator;
+import org.cis1200.chess.Piece;
+import org.cis1200.chess.Position;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts many Chess games at once without a user interface. Requests (make a move, get
+ * the legal moves, get the state) return a CompletableFuture and are carried out on a
+ * shared pool of threads.
+ *
+ * Chess objects are not thread-safe, so each game is confined to a serialized executor
+ * of its own: its requests wait in a queue and run one at a time, in the order they were
+ * made, on whichever pool thread is free. A game therefore never needs a lock and the
+ * pool can be much smaller than the number of games. A game whose queue has been worked
+ * on for a while goes to the back of the pool's queue, so one busy game cannot hold up
+ * the others.
+ *
+ * Limits keep the server's memory bounded: the number of games, the number of requests
+ * waiting per game and the number of moves per game. A request over a limit fails with
+ * a RejectedExecutionException or IllegalStateException instead of waiting, so clients
+ * feel the load and can back off.
+ *
+ * Readers that only want to look at a game, such as spectators, need not queue at all:
+ * each game publishes an immutable GameSnapshot after every move, which getSnapshot
+ * returns straight away on the caller's thread.
+ */
+public class GameServer implements Closeable {
+    //requests of one game run before the game lets other games have the thread
+    private static final int REQUESTS_PER_TURN = 16;
+
+    private final ExecutorService pool;
+    private final ConcurrentHashMap<Long, GameSession> games = new ConcurrentHashMap<>();
+    private final AtomicLong nextGameId = new AtomicLong();
+    private final AtomicInteger gameCount = new AtomicInteger();
+    private final int maxGames;
+    private final int maxQueuedRequests;
+    private final int maxPlies;
+
+    /**
+     * Creates a server.
+     * @param threadCount The number of threads that carry out requests, at least 1.
+     * @param maxGames The most games that may be open at once.
+     * @param maxQueuedRequests The most requests that may wait for one game.
+     * @param maxPlies The most moves a game may have.
+     * @throws IllegalArgumentException When a limit is less than 1.
+     */
+    public GameServer(int threadCount, int maxGames, int maxQueuedRequests, int maxPlies) {
+        if (threadCount < 1 || maxGames < 1 || maxQueuedRequests < 1 || maxPlies < 1) {
+            throw new IllegalArgumentException("Invalid server limits");
+        }
+        this.maxGames = maxGames;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxPlies = maxPlies;
+        pool = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                        "game-server-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getGameCount() {
+        return gameCount.get();
+    }
+
+    /**
+     * Opens a new game from the standard starting position.
+     * @return The id of the game.
+     * @throws RejectedExecutionException When the server already has its most games.
+     */
+    public long createGame() {
+        if (gameCount.incrementAndGet() > maxGames) {
+            gameCount.decrementAndGet();
+            throw new RejectedExecutionException("Too many games");
+        }
+        long id = nextGameId.getAndIncrement();
+        games.put(id, new GameSession(id));
+        return id;
+    }
+
+    /**
+     * Closes a game. Requests already made for it are still carried out.
+     * @param gameId The game.
+     * @return Whether there was such a game.
+     */
+    public boolean closeGame(long gameId) {
+        if (games.remove(gameId) == null) {
+            return false;
+        }
+        gameCount.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Makes a move in a game.
+     * @param gameId The game.
+     * @param move The move code, e.g. one of getLegalMoves.
+     * @return Whether the move was legal and made.
+     */
+    public CompletableFuture<Boolean> makeMove(long gameId, final int move) {
+        return submit(gameId, new Request<Boolean>() {
+            public Boolean run(GameSession session) {
+                return session.makeMove(move);
+            }
+        });
+    }
+
+    /**
+     * Makes a move given in coordinate notation, e.g. "e2e4" or "e7e8q".
+     * @param gameId The game.
+     * @param coordinates The move.
+     * @return Whether the move was legal and made.
+     */
+    public CompletableFuture<Boolean> makeMove(long gameId, final String coordinates) {
+        return submit(gameId, new Request<Boolean>() {
+            public Boolean run(GameSession session) {
+                int count = session.game.generateLegalMoves(session.moves);
+                for (int i = 0; i < count; i++) {
+                    if (Move.toCoordinateString(session.moves[i]).equals(coordinates)) {
+                        return session.makeMove(session.moves[i]);
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Gets the legal moves of the player to move in a game.
+     * @param gameId The game.
+     * @return The move codes, none if the game is over.
+     */
+    public CompletableFuture<int[]> getLegalMoves(long gameId) {
+        return submit(gameId, new Request<int[]>() {
+            public int[] run(GameSession session) {
+                if (session.game.isGameOver()) {
+                    return new int[0];
+                }
+                int count = session.game.generateLegalMoves(session.moves);
+                return Arrays.copyOf(session.moves, count);
+            }
+        });
+    }
+
+    /**
+     * Gets the state of a game.
+     * @param gameId The game.
+     * @return A copy of the state.
+     */
+    public CompletableFuture<GameState> getState(long gameId) {
+        return submit(gameId, new Request<GameState>() {
+            public GameState run(GameSession session) {
+                Chess game = session.game;
+                String result = null;
+                if (game.isGameOver()) {
+                    result = game.checkForGameOver();
+                }
+                return new GameState(session.id, game.toFen(), game.isWhiteTurn(),
+                        game.getMoveHistory().size(), result);
+            }
+        });
+    }
+
+    /**
+     * Gets the position of a game after its latest move, without waiting for the game's
+     * requests. Moves still in its queue are not included yet.
+     * @param gameId The game.
+     * @return The snapshot.
+     * @throws IllegalArgumentException When there is no such game.
+     */
+    public GameSnapshot getSnapshot(long gameId) {
+        GameSession session = games.get(gameId);
+        if (session == null) {
+            throw new IllegalArgumentException("No game " + gameId);
+        }
+        return session.latest;
+    }
+
+    /**
+     * Stops the server's threads once the requests already made are carried out.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //queues a request on its game, failing the future if the game does not exist or is full
+    private <T> CompletableFuture<T> submit(long gameId, Request<T> request) {
+        GameSession session = games.get(gameId);
+        if (session == null) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalArgumentException("No game " + gameId));
+            return future;
+        }
+        return session.submit(request);
+    }
+
+    /**
+     * Work done on a game's own thread; it may use the game freely.
+     */
+    private interface Request<T> {
+        T run(GameSession session);
+    }
+
+    //a request waiting for its game, with the future it completes
+    private static class Task<T> {
+        private final Request<T> request;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Request<T> request) {
+            this.request = request;
+        }
+
+        //an Error is rethrown after failing the future, so whoever waits on it is not
+        //left waiting forever and the pool still sees the Error
+        void run(GameSession session) {
+            try {
+                future.complete(request.run(session));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+        }
+    }
+
+    /**
+     * A game and its queue of requests. The session runs as a task on the pool while it
+     * has requests, and at most one such task is scheduled at a time, which is what keeps
+     * the game on one thread at a time.
+     */
+    private class GameSession implements Runnable {
+        private final long id;
+        private final Chess game = new Chess();
+        //scratch buffer for the legal moves
+        private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+        private final BlockingQueue<Task<?>> requests =
+                new ArrayBlockingQueue<>(maxQueuedRequests);
+        private final AtomicBoolean isScheduled = new AtomicBoolean();
+        //written only on the game's thread, read by any thread
+        private volatile GameSnapshot latest;
+
+        GameSession(long id) {
+            this.id = id;
+            latest = game.snapshot();
+        }
+
+        <T> CompletableFuture<T> submit(Request<T> request) {
+            Task<T> task = new Task<>(request);
+            if (!requests.offer(task)) {
+                task.future.completeExceptionally(new RejectedExecutionException(
+                        "Too many requests for game " + id));
+                return task.future;
+            }
+            schedule();
+            return task.future;
+        }
+
+        private void schedule() {
+            if (isScheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this);
+                } catch (RejectedExecutionException e) {
+                    //the server is closed, so the waiting requests can never run
+                    isScheduled.set(false);
+                    failRequests(e);
+                }
+            }
+        }
+
+        private void failRequests(RejectedExecutionException cause) {
+            Task<?> task = requests.poll();
+            while (task != null) {
+                task.future.completeExceptionally(cause);
+                task = requests.poll();
+            }
+        }
+
+        public void run() {
+            try {
+                for (int i = 0; i < REQUESTS_PER_TURN; i++) {
+                    Task<?> task = requests.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    task.run(this);
+                }
+            } finally {
+                //also after an Error, or the game would never be scheduled again
+                isScheduled.set(false);
+                //a request that came in after the last poll must not be left waiting
+                if (!requests.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        boolean makeMove(int move) {
+            if (game.getMoveHistory().size() >= maxPlies) {
+                throw new IllegalStateException("Game " + id + " is too long");
+            }
+            int promotionType = Piece.QUEEN;
+            if (Move.isPromotion(move)) {
+                promotionType = Move.promotionType(move);
+            }
+            boolean isMade = game.movePiece(Position.of(Move.fromSquare(move)),
+                    Position.of(Move.toSquare(move)), promotionType);
+            if (isMade) {
+                latest = game.snapshot();
+            }
+            return isMade;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.cis1200.chess.server;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Measures how a GameServer copes as the number of games grows. For each game count, a
+ * client per game plays random legal moves, one request at a time, so every game has a
+ * request in flight all the time. The latency of each move, from asking for the legal
+ * moves to the move being made, so including the time spent waiting behind the other
+ * games, is reported as the 50th and 99th percentile, together with the moves per
+ * second and the heap used per game once its moves are played. The clients run on a
+ * thread of their own, as they would on another machine, rather than on the server's
+ * threads.
+ * Usage: GameServerLoadTest [moves per game] [threads] [game counts...]
+ */
+public class GameServerLoadTest {
+    private final GameServer server;
+    private final int movesPerGame;
+    private final long[] latencies;
+    private final AtomicInteger latencyCount = new AtomicInteger();
+    private final LongAdder failures = new LongAdder();
+    private final CountDownLatch finished;
+    private final ExecutorService client = Executors.newSingleThreadExecutor();
+
+    private GameServerLoadTest(GameServer server, int gameCount, int movesPerGame) {
+        this.server = server;
+        this.movesPerGame = movesPerGame;
+        latencies = new long[gameCount * movesPerGame];
+        finished = new CountDownLatch(gameCount);
+    }
+
+    //asks for the legal moves of a game and plays one of them, until the game is done
+    private void playNext(final long gameId, final int movesLeft) {
+        if (movesLeft == 0) {
+            finished.countDown();
+            return;
+        }
+        final long start = System.nanoTime();
+        server.getLegalMoves(gameId).whenCompleteAsync(new BiConsumer<int[], Throwable>() {
+            public void accept(int[] moves, Throwable error) {
+                if (error != null) {
+                    failures.increment();
+                    finished.countDown();
+                } else if (moves.length == 0) {
+                    //the game is over
+                    finished.countDown();
+                } else {
+                    int move = moves[ThreadLocalRandom.current().nextInt(moves.length)];
+                    playMove(gameId, move, movesLeft, start);
+                }
+            }
+        }, client);
+    }
+
+    private void playMove(final long gameId, int move, final int movesLeft,
+            final long start) {
+        server.makeMove(gameId, move).whenCompleteAsync(new BiConsumer<Boolean, Throwable>() {
+            public void accept(Boolean isMade, Throwable error) {
+                latencies[latencyCount.getAndIncrement()] = System.nanoTime() - start;
+                if (error != null || !isMade) {
+                    failures.increment();
+                    finished.countDown();
+                } else {
+                    playNext(gameId, movesLeft - 1);
+                }
+            }
+        }, client);
+    }
+
+    //the latency below which the given fraction of the moves finished, in microseconds
+    private double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length));
+        return sorted[index] / 1e3;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int movesPerGame = 40;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int[] gameCounts = {1_000, 10_000, 50_000};
+        if (args.length > 0) {
+            movesPerGame = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            threads = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            gameCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                gameCounts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.printf("%d threads, %d moves per game%n", threads, movesPerGame);
+        System.out.printf("%8s %10s %10s %10s %10s %10s %9s%n", "games", "moves", "moves/s",
+                "p50 us", "p99 us", "max us", "KB/game");
+        for (int gameCount : gameCounts) {
+            GameServer server = new GameServer(threads, gameCount, 16, movesPerGame);
+            GameServerLoadTest test = new GameServerLoadTest(server, gameCount, movesPerGame);
+            long[] gameIds = new long[gameCount];
+            long heapBefore = usedHeap();
+            for (int i = 0; i < gameCount; i++) {
+                gameIds[i] = server.createGame();
+            }
+
+            long start = System.nanoTime();
+            for (long gameId : gameIds) {
+                test.playNext(gameId, movesPerGame);
+            }
+            test.finished.await();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            //measured with the games still open, so their move histories and undo stacks
+            //are counted
+            long heapPerGame = (usedHeap() - heapBefore) / gameCount;
+            test.client.shutdown();
+            server.close();
+
+            long[] sorted = Arrays.copyOf(test.latencies, test.latencyCount.get());
+            Arrays.sort(sorted);
+            System.out.printf("%8d %10d %10.0f %10.1f %10.1f %10.1f %9.1f%n", gameCount,
+                    sorted.length, sorted.length / seconds, test.percentile(sorted, 0.5),
+                    test.percentile(sorted, 0.99), test.percentile(sorted, 1.0),
+                    heapPerGame / 1024.0);
+            if (test.failures.sum() > 0) {
+                System.out.println("  failed requests: " + test.failures.sum());
+            }
+        }
+    }
+}
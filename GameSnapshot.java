@@ -0,0 +1,163 @@
+package org.cis1200.chess;
+
+/**
+ * An immutable copy of a Chess position, from Chess.snapshot. It holds the twelve piece
+ * bitboards and a few state words, so taking one costs a small array copy and it can be
+ * published after every move. Any thread may read a snapshot, e.g. to draw the board,
+ * analyse or save, while the game it came from goes on.
+ */
+public final class GameSnapshot {
+    private final long[] pieceBoards;
+    private final boolean isWhiteTurn;
+    private final int castlingRights;
+    private final int enPassantSquare;
+    private final int halfmoveClock;
+    private final int fullmoveNumber;
+    private final long zobristKey;
+    private final int plyCount;
+    private final int lastMove;
+    private final boolean isGameOver;
+
+    /**
+     * Creates a snapshot; see Chess.snapshot.
+     * @param pieceBoards The bitboard of each piece index (color * 6 + type), which the
+     * snapshot keeps, so it must not be changed afterwards.
+     */
+    GameSnapshot(long[] pieceBoards, boolean isWhiteTurn, int castlingRights,
+            int enPassantSquare, int halfmoveClock, int fullmoveNumber, long zobristKey,
+            int plyCount, int lastMove, boolean isGameOver) {
+        this.pieceBoards = pieceBoards;
+        this.isWhiteTurn = isWhiteTurn;
+        this.castlingRights = castlingRights;
+        this.enPassantSquare = enPassantSquare;
+        this.halfmoveClock = halfmoveClock;
+        this.fullmoveNumber = fullmoveNumber;
+        this.zobristKey = zobristKey;
+        this.plyCount = plyCount;
+        this.lastMove = lastMove;
+        this.isGameOver = isGameOver;
+    }
+
+    /**
+     * Gets the piece on a square.
+     * @param square The square, 0 to 63.
+     * @return The piece index, color * 6 + type, or -1 for an empty square.
+     */
+    public int getPieceIndex(int square) {
+        long bit = Bitboard.bit(square);
+        for (int index = 0; index < pieceBoards.length; index++) {
+            if ((pieceBoards[index] & bit) != 0) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public long getPieceBoard(int color, int type) {
+        return pieceBoards[color * 6 + type];
+    }
+
+    public long getOccupied() {
+        long occupied = 0;
+        for (long board : pieceBoards) {
+            occupied |= board;
+        }
+        return occupied;
+    }
+
+    public boolean isWhiteTurn() {
+        return isWhiteTurn;
+    }
+
+    //see Chess.getCastlingRights
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    //the square a pawn may capture en passant, or -1
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
+
+    public long getZobristKey() {
+        return zobristKey;
+    }
+
+    //the number of moves in the game's history
+    public int getPlyCount() {
+        return plyCount;
+    }
+
+    //the code of the last move played, or Move.NONE
+    public int getLastMove() {
+        return lastMove;
+    }
+
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    /**
+     * Writes the position in Forsyth-Edwards Notation.
+     * @return The FEN.
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        appendFen(fen);
+        return fen.toString();
+    }
+
+    //appends the FEN of the position to a builder, see Chess.appendFen
+    public void appendFen(StringBuilder fen) {
+        for (int row = 0; row < 8; row++) {
+            if (row > 0) {
+                fen.append('/');
+            }
+            int emptySquares = 0;
+            for (int col = 0; col < 8; col++) {
+                int index = getPieceIndex(Bitboard.square(row, col));
+                if (index < 0) {
+                    emptySquares++;
+                } else {
+                    if (emptySquares > 0) {
+                        fen.append((char) ('0' + emptySquares));
+                        emptySquares = 0;
+                    }
+                    fen.append(Chess.FEN_PIECES.charAt(index));
+                }
+            }
+            if (emptySquares > 0) {
+                fen.append((char) ('0' + emptySquares));
+            }
+        }
+        Chess.appendFenState(fen, isWhiteTurn, castlingRights, enPassantSquare,
+                halfmoveClock, fullmoveNumber);
+    }
+
+    /**
+     * Sets up a new game from the position. The move history and the hashes of earlier
+     * positions are not part of a snapshot, so the game starts at this position: moves
+     * before it cannot be taken back, and repetitions of earlier positions are not seen
+     * by checkForGameOver or a Search. A search that should avoid or claim repetitions
+     * needs a copy of the live game (see the Chess copy constructor) instead.
+     * @return The new game.
+     */
+    public Chess toChess() {
+        Chess game = new Chess();
+        game.loadFen(toFen());
+        return game;
+    }
+
+    @Override
+    public String toString() {
+        return toFen();
+    }
+}
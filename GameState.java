@@ -0,0 +1,63 @@
+package org.cis1200.chess.server;
+
+/**
+ * What a GameServer reports about one of its games at one moment. It is a copy, so it
+ * can be handed to any thread while the game goes on.
+ */
+public class GameState {
+    private final long gameId;
+    private final String fen;
+    private final boolean isWhiteTurn;
+    private final int plyCount;
+    private final String result;
+
+    /**
+     * Creates a game state.
+     * @param gameId The id of the game on its server.
+     * @param fen The position, in FEN.
+     * @param isWhiteTurn Whether white is to move.
+     * @param plyCount The number of moves played.
+     * @param result How the game ended, as from Chess.checkForGameOver, or null if it
+     * is still going on.
+     */
+    public GameState(long gameId, String fen, boolean isWhiteTurn, int plyCount,
+            String result) {
+        this.gameId = gameId;
+        this.fen = fen;
+        this.isWhiteTurn = isWhiteTurn;
+        this.plyCount = plyCount;
+        this.result = result;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public String getFen() {
+        return fen;
+    }
+
+    public boolean isWhiteTurn() {
+        return isWhiteTurn;
+    }
+
+    public int getPlyCount() {
+        return plyCount;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public boolean isGameOver() {
+        return result != null;
+    }
+
+    @Override
+    public String toString() {
+        if (result == null) {
+            return "game " + gameId + ": " + fen;
+        }
+        return "game " + gameId + ": " + fen + " (" + result + ")";
+    }
+}
@@ -3,6 +3,7 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public class King extends Piece implements Serializable {
+    private static final long serialVersionUID = -781866902760490503L;
 
     //creates King object using Piece's (superclass)'s constructor
     public King(int color, Position position) {
@@ -11,25 +12,23 @@ public class King extends Piece implements Serializable {
 
     /**
      * Function to check if a move is valid for the king.
-     * @param to Position to move the piece to.
+     * @param to Square to move the piece to, 0 to 63.
      * @param game The state of the Chess game.
      * @return true if move is valid, false otherwise.
      */
 
     @Override
-    public boolean isValidMove(Position to, Chess game) {
-        //checks if the target position is invalid
-        if (!game.isValidPosition(to)) {
+    public boolean isValidMove(int to, Chess game) {
+        //checks if the target square is invalid
+        if (to < 0 || to >= 64) {
             return false;
         }
 
-        //calculates the # difference in row & columns between the target and original positions
-        Position from = this.getPosition();
-        int rowDifference = Math.abs(to.getRow() - from.getRow());
-        int colDifference = Math.abs(to.getCol() - from.getCol());
+        //looks up the squares the piece attacks from its current square
+        int from = this.getPosition().getSquare();
 
         //check for king only moving one square in any direction
-        if (rowDifference > 1 || colDifference > 1) {
+        if ((Attacks.king(from) & Bitboard.bit(to)) == 0) {
             return false;
         }
         //check if the target square is occupied by a friendly piece
@@ -40,6 +39,11 @@ public class King extends Piece implements Serializable {
         return true;
     }
 
+    @Override
+    public int getType() {
+        return KING;
+    }
+
     @Override
     public String toString() {
         return super.toString();
@@ -3,6 +3,7 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public class Knight extends Piece implements Serializable {
+    private static final long serialVersionUID = -2189485118251424623L;
 
     //creates Knight object using Piece's (superclass)'s constructor
     public Knight(int color, Position position) {
@@ -11,28 +12,23 @@ public class Knight extends Piece implements Serializable {
 
     /**
      * Function to check if a move is valid for the knight.
-     * @param to Position to move the piece to.
+     * @param to Square to move the piece to, 0 to 63.
      * @param game The state of the Chess game.
      * @return true if move is valid, false otherwise.
      */
 
     @Override
-    public boolean isValidMove(Position to, Chess game) {
-        //checks if the target position is invalid
-        if (!game.isValidPosition(to)) {
+    public boolean isValidMove(int to, Chess game) {
+        //checks if the target square is invalid
+        if (to < 0 || to >= 64) {
             return false;
         }
 
-        //calculates the # difference in row & columns between the target and original positions
-        Position from = this.getPosition();
-        int rowDifference = Math.abs(to.getRow() - from.getRow());
-        int colDifference = Math.abs(to.getCol() - from.getCol());
+        //looks up the squares the piece attacks from its current square
+        int from = this.getPosition().getSquare();
 
-        //knights can only move in an L-shape, this boolean returns true if
-        // the move is an L and false if not.
-        boolean isLShape = (rowDifference == 2 && colDifference == 1) ||
-                (rowDifference == 1 && colDifference == 2);
-        if (!isLShape) {
+        //knights can only move in an L-shape, looked up in the precomputed attack table
+        if ((Attacks.knight(from) & Bitboard.bit(to)) == 0) {
             return false; //returns false when the move is not an L shape, meaning it is invalid.
         }
 
@@ -42,6 +38,11 @@ public class Knight extends Piece implements Serializable {
         return p == null || p.getColor() != this.getColor();
     }
 
+    @Override
+    public int getType() {
+        return KNIGHT;
+    }
+
     @Override
     public String toString() {
         return super.toString();
@@ -3,17 +3,40 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public class Move implements Serializable {
+    private static final long serialVersionUID = 1527759388196952868L;
+
+    //flags stored in the top four bits of a move code
+    public static final int NORMAL = 0;
+    public static final int DOUBLE_PUSH = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int CASTLE = 3;
+    public static final int PROMOTE_KNIGHT = 4;
+    public static final int PROMOTE_BISHOP = 5;
+    public static final int PROMOTE_ROOK = 6;
+    public static final int PROMOTE_QUEEN = 7;
+
+    //a move code that never matches a real move (the from and to squares are equal)
+    public static final int NONE = 0;
+
     private final Position from;
     private final Position to;
     private final Piece movedPiece;
     private final Piece capturedPiece;
+    //the move code, or NONE for moves read from the old save format
+    private final int code;
 
     //constructs a Move object
     public Move(Position from, Position to, Piece movedPiece, Piece capturedPiece) {
+        this(from, to, movedPiece, capturedPiece, NONE);
+    }
+
+    //constructs a Move object that also records its move code
+    public Move(Position from, Position to, Piece movedPiece, Piece capturedPiece, int code) {
         this.from = from;
         this.to = to;
         this.movedPiece = movedPiece;
         this.capturedPiece = capturedPiece;
+        this.code = code;
     }
 
     //basic getters and setters for instance variables
@@ -34,6 +57,64 @@ public class Move implements Serializable {
         return capturedPiece;
     }
 
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Packs a move into a 16-bit move code. Bits 0-5 hold the starting square,
+     * bits 6-11 hold the target square and bits 12-15 hold the flag.
+     * @param from The starting square, 0 to 63.
+     * @param to The target square, 0 to 63.
+     * @param flag One of the move flags, e.g. NORMAL or CASTLE.
+     * @return The move code.
+     */
+    public static int encode(int from, int to, int flag) {
+        return from | (to << 6) | (flag << 12);
+    }
+
+    public static int fromSquare(int code) {
+        return code & 63;
+    }
+
+    public static int toSquare(int code) {
+        return (code >>> 6) & 63;
+    }
+
+    public static int flag(int code) {
+        return (code >>> 12) & 15;
+    }
+
+    public static boolean isPromotion(int code) {
+        return flag(code) >= PROMOTE_KNIGHT;
+    }
+
+    //returns the Piece type a pawn promotes to, only meaningful for promotion codes
+    public static int promotionType(int code) {
+        return flag(code) - PROMOTE_KNIGHT + Piece.KNIGHT;
+    }
+
+    /**
+     * Writes a move code in coordinate notation, e.g. "e2e4" or "e7e8q".
+     * @param code The move code.
+     * @return The move in coordinate notation.
+     */
+    public static String toCoordinateString(int code) {
+        StringBuilder sb = new StringBuilder(5);
+        appendSquare(sb, fromSquare(code));
+        appendSquare(sb, toSquare(code));
+        if (isPromotion(code)) {
+            sb.append("nbrq".charAt(promotionType(code) - Piece.KNIGHT));
+        }
+        return sb.toString();
+    }
+
+    //columns are files a to h and row 0 is rank 8
+    private static void appendSquare(StringBuilder sb, int square) {
+        sb.append((char) ('a' + Bitboard.col(square)));
+        sb.append((char) ('8' - Bitboard.row(square)));
+    }
+
     @Override
     public String toString() {
         if (movedPiece instanceof King && Math.abs(from.getCol() - to.getCol()) == 2) {
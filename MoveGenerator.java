@@ -0,0 +1,173 @@
+package org.cis1200.chess;
+
+/**
+ * Generates the pseudo-legal moves of the side to move in a Chess position.
+ * Moves are written as move codes (see Move.encode) into a buffer supplied by
+ * the caller, one piece type at a time. Pseudo-legal moves follow the piece
+ * movement rules but may still leave the mover's king in check;
+ * Chess.generateLegalMoves filters those out.
+ */
+public final class MoveGenerator {
+    //enough room for the pseudo-legal moves of any position
+    public static final int MAX_MOVES = 256;
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * Writes every pseudo-legal move of the side to move into the buffer.
+     * @param game The state of the Chess game.
+     * @param moves The buffer to fill, at least MAX_MOVES long.
+     * @return The number of moves written.
+     */
+    public static int generatePseudoLegalMoves(Chess game, int[] moves) {
+        int color;
+        if (game.isWhiteTurn()) {
+            color = 0;
+        } else {
+            color = 1;
+        }
+        long own = game.getColorBoard(color);
+        long occupied = game.getOccupied();
+        long queens = game.getPieceBoard(color, Piece.QUEEN);
+
+        int count = generatePawnMoves(game, color, moves, 0);
+        long knights = game.getPieceBoard(color, Piece.KNIGHT);
+        while (knights != 0) {
+            int from = Long.numberOfTrailingZeros(knights);
+            knights &= knights - 1;
+            count = addMoves(from, Attacks.knight(from) & ~own, moves, count);
+        }
+        long bishops = game.getPieceBoard(color, Piece.BISHOP) | queens;
+        while (bishops != 0) {
+            int from = Long.numberOfTrailingZeros(bishops);
+            bishops &= bishops - 1;
+            count = addMoves(from, Attacks.bishop(from, occupied) & ~own, moves, count);
+        }
+        long rooks = game.getPieceBoard(color, Piece.ROOK) | queens;
+        while (rooks != 0) {
+            int from = Long.numberOfTrailingZeros(rooks);
+            rooks &= rooks - 1;
+            count = addMoves(from, Attacks.rook(from, occupied) & ~own, moves, count);
+        }
+        long kings = game.getPieceBoard(color, Piece.KING);
+        while (kings != 0) {
+            int from = Long.numberOfTrailingZeros(kings);
+            kings &= kings - 1;
+            count = addMoves(from, Attacks.king(from) & ~own, moves, count);
+        }
+        return generateCastlingMoves(game, color, moves, count);
+    }
+
+    /**
+     * Generates pushes, double pushes, captures, en passant and promotions for pawns.
+     */
+    private static int generatePawnMoves(Chess game, int color, int[] moves, int count) {
+        int direction;
+        int startRow;
+        if (color == 0) {
+            direction = -1; //white moves up
+            startRow = 6;
+        } else {
+            direction = 1;  //black moves down
+            startRow = 1;
+        }
+        long occupied = game.getOccupied();
+        long enemy = game.getColorBoard(1 - color);
+        int enPassantSquare = game.getEnPassantSquare();
+
+        long pawns = game.getPieceBoard(color, Piece.PAWN);
+        while (pawns != 0) {
+            int from = Long.numberOfTrailingZeros(pawns);
+            pawns &= pawns - 1;
+            int row = Bitboard.row(from);
+            int col = Bitboard.col(from);
+            int nextRow = row + direction;
+            if (nextRow < 0 || nextRow > 7) {
+                continue;
+            }
+
+            //single and double pushes onto empty squares
+            int to = Bitboard.square(nextRow, col);
+            if ((occupied & Bitboard.bit(to)) == 0) {
+                count = addPawnMove(from, to, moves, count);
+                int doubleTo = Bitboard.square(nextRow + direction, col);
+                if (row == startRow && (occupied & Bitboard.bit(doubleTo)) == 0) {
+                    moves[count++] = Move.encode(from, doubleTo, Move.DOUBLE_PUSH);
+                }
+            }
+
+            //diagonal captures, including en passant
+            long captures = Attacks.pawn(color, from) & enemy;
+            while (captures != 0) {
+                count = addPawnMove(from, Long.numberOfTrailingZeros(captures), moves, count);
+                captures &= captures - 1;
+            }
+            if (enPassantSquare >= 0
+                    && (Attacks.pawn(color, from) & Bitboard.bit(enPassantSquare)) != 0) {
+                moves[count++] = Move.encode(from, enPassantSquare, Move.EN_PASSANT);
+            }
+        }
+        return count;
+    }
+
+    //adds a pawn move, expanding it into the four promotions on the last row
+    private static int addPawnMove(int from, int to, int[] moves, int count) {
+        int row = Bitboard.row(to);
+        if (row == 0 || row == 7) {
+            for (int flag = Move.PROMOTE_QUEEN; flag >= Move.PROMOTE_KNIGHT; flag--) {
+                moves[count++] = Move.encode(from, to, flag);
+            }
+        } else {
+            moves[count++] = Move.encode(from, to, Move.NORMAL);
+        }
+        return count;
+    }
+
+    //adds a normal move from the square to each target square
+    private static int addMoves(int from, long targets, int[] moves, int count) {
+        while (targets != 0) {
+            moves[count++] = Move.encode(from, Long.numberOfTrailingZeros(targets), Move.NORMAL);
+            targets &= targets - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Generates castling moves for an unmoved king and rook with empty squares in between.
+     * Whether the king passes through check is left to the legality filter.
+     */
+    private static int generateCastlingMoves(Chess game, int color, int[] moves, int count) {
+        int row;
+        if (color == 0) {
+            row = 7;
+        } else {
+            row = 0;
+        }
+        int kingSquare = Bitboard.square(row, 4);
+        Piece king = game.getPiece(kingSquare);
+        if (!(king instanceof King) || king.getColor() != color || king.hasMoved()) {
+            return count;
+        }
+        long occupied = game.getOccupied();
+
+        //kingside: the two squares between king and rook must be empty
+        long kingsidePath = Bitboard.bit(kingSquare + 1) | Bitboard.bit(kingSquare + 2);
+        if (canCastleWith(game.getPiece(Bitboard.square(row, 7)), color)
+                && (occupied & kingsidePath) == 0) {
+            moves[count++] = Move.encode(kingSquare, kingSquare + 2, Move.CASTLE);
+        }
+        //queenside: the three squares between king and rook must be empty
+        long queensidePath = Bitboard.bit(kingSquare - 1) | Bitboard.bit(kingSquare - 2)
+                | Bitboard.bit(kingSquare - 3);
+        if (canCastleWith(game.getPiece(Bitboard.square(row, 0)), color)
+                && (occupied & queensidePath) == 0) {
+            moves[count++] = Move.encode(kingSquare, kingSquare - 2, Move.CASTLE);
+        }
+        return count;
+    }
+
+    private static boolean canCastleWith(Piece rook, int color) {
+        return rook instanceof Rook && rook.getColor() == color && !rook.hasMoved();
+    }
+}
@@ -0,0 +1,222 @@
+package org.cis1200.chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A write-ahead journal of a game, so a game in progress survives the program crashing.
+ * Each move is appended to the journal as it is played, which costs one small write, so
+ * there is no need to save the whole game to be safe.
+ *
+ * File layout:
+ *   int     "CHJL" magic number
+ *   byte    format version, currently 3
+ *   ...     checkpoint: the whole game so far as written by GameCheckpoint.write, i.e.
+ *           the current position and every move with the hash of the position before it
+ *           (versions 1 and 2 held a saved game, see Chess.writeGame, instead)
+ *   records one per move played since the checkpoint, 4 bytes each: the 16-bit move code
+ *           and a 16-bit check of the move and its place in the journal
+ *
+ * The writer replaces the file with a new checkpoint every CHECKPOINT_MOVES moves, and
+ * whenever the game changed in a way the records cannot show, e.g. a move was taken back.
+ * The new file is written beside the journal and renamed over it, so a crash at any time
+ * leaves either the old journal or the new one. Recovery sets up the checkpoint without
+ * replaying its moves (see Chess.restore), so it checks and replays at most the
+ * CHECKPOINT_MOVES records after it however long the game is. The recovered game still
+ * has its whole history: moves can be taken back, and repetitions of earlier positions
+ * are seen.
+ *
+ * A move is handed to the operating system before append returns, so it survives the
+ * program crashing. Forcing it onto the disk, which survives the computer crashing too,
+ * takes much longer, so that is done for a batch: every SYNC_MOVES moves, and on sync,
+ * checkpoint and close. The journal has no thread of its own, so a move followed by a
+ * pause in the game is only forced by the writer calling sync; it should do so every
+ * SYNC_MILLIS, as ChessBoard does, so no move waits longer than that.
+ *
+ * A journal is not thread-safe; it is meant to be written from one thread, given move
+ * codes and checkpoints taken on the thread that plays the game (see Chess.checkpoint).
+ */
+public class MoveJournal implements Closeable {
+    //moves after which the journal is started again from a checkpoint
+    public static final int CHECKPOINT_MOVES = 64;
+    private static final int SYNC_MOVES = 8;
+    //how often the writer should call sync
+    public static final long SYNC_MILLIS = 1000;
+    private static final int MAGIC = 0x43484A4C;
+    private static final int VERSION = 3;
+    private static final int HEADER_BYTES = 5;
+    private static final int RECORD_BYTES = 4;
+
+    private final Path path;
+    private final Path checkpointPath;
+    private FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocateDirect(RECORD_BYTES);
+    //moves written since the checkpoint, and of those, the ones not yet forced to disk
+    private int recordCount;
+    private int unsyncedCount;
+
+    /**
+     * Starts a journal, replacing any journal already at the path.
+     * @param path The journal file.
+     * @param game The game so far, which becomes the first checkpoint.
+     * @throws IOException When the journal cannot be written.
+     */
+    public MoveJournal(Path path, GameCheckpoint game) throws IOException {
+        this.path = path;
+        checkpointPath = path.resolveSibling(path.getFileName() + ".tmp");
+        checkpoint(game);
+    }
+
+    //moves appended since the last checkpoint
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Appends a move that was just played. The journal does not take checkpoints by
+     * itself, as it does not have the game: the writer should call checkpoint instead of
+     * append once CHECKPOINT_MOVES moves have been appended.
+     * @param move The move code of the move, e.g. GameSnapshot.getLastMove.
+     * @throws IOException When the journal cannot be written.
+     */
+    public void append(int move) throws IOException {
+        record.clear();
+        record.putShort((short) move);
+        record.putShort((short) check(recordCount, move));
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        recordCount++;
+        unsyncedCount++;
+        if (unsyncedCount >= SYNC_MOVES) {
+            sync();
+        }
+    }
+
+    /**
+     * Replaces the journal with one holding the whole game as its checkpoint, e.g. after
+     * CHECKPOINT_MOVES moves, after a move was taken back or when a new game was started.
+     * @param game The game so far.
+     * @throws IOException When the journal cannot be written; the old journal is then
+     * left as it was.
+     */
+    public void checkpoint(GameCheckpoint game) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + game.getBytes());
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        game.write(buffer);
+        buffer.flip();
+
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        try (FileChannel out = FileChannel.open(checkpointPath, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        Files.move(checkpointPath, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        recordCount = 0;
+        unsyncedCount = 0;
+    }
+
+    /**
+     * Forces the moves appended so far onto the disk. It does nothing if they all are
+     * already, so it is cheap to call on a timer.
+     * @throws IOException When the journal cannot be written.
+     */
+    public void sync() throws IOException {
+        if (unsyncedCount > 0) {
+            channel.force(false);
+            unsyncedCount = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            sync();
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Recovers the game in a journal: the game in the checkpoint, then each move after it
+     * that was written whole. Moves are checked like the player's moves, so a
+     * torn or damaged record at the end stops the replay instead of corrupting the game.
+     * @param path The journal file.
+     * @return The game with its whole history, or null if there is no journal.
+     * @throws IOException When the file cannot be read or its checkpoint is damaged.
+     */
+    public static Chess recover(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        //a journal holds a checkpoint and at most CHECKPOINT_MOVES records
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC) {
+            throw new IOException("Not a move journal: " + path);
+        }
+        int version = data.get();
+        Chess game = new Chess();
+        if (version == VERSION) {
+            game.restore(GameCheckpoint.read(data));
+        } else if (version == 1 || version == 2) {
+            //journals written before checkpoints were kept as saved games
+            game.readGame(data);
+        } else {
+            throw new IOException("Unsupported move journal version " + version);
+        }
+
+        int index = 0;
+        while (data.remaining() >= RECORD_BYTES) {
+            int move = data.getShort() & 0xFFFF;
+            int check = data.getShort() & 0xFFFF;
+            if (check != check(index, move) || !replayMove(game, move)) {
+                System.err.println("Move journal ends in a damaged record after " + index
+                        + " moves");
+                break;
+            }
+            index++;
+        }
+        return game;
+    }
+
+    //plays a journaled move if it is legal
+    private static boolean replayMove(Chess game, int move) {
+        int promotionType = Piece.QUEEN;
+        if (Move.isPromotion(move)) {
+            promotionType = Move.promotionType(move);
+        }
+        return game.movePiece(Position.of(Move.fromSquare(move)),
+                Position.of(Move.toSquare(move)), promotionType);
+    }
+
+    /**
+     * Mixes a move with its index into 16 bits, so a record that was only partly written
+     * or that belongs to another place in the journal is very unlikely to pass.
+     * @param index The record's index after the checkpoint.
+     * @param move The move code.
+     * @return The check, 0 to 0xFFFF.
+     */
+    private static int check(int index, int move) {
+        int hash = (index + 1) * 0x9E3779B1 ^ move * 0x85EBCA6B;
+        hash ^= hash >>> 15;
+        hash *= 0x2C1B3C6D;
+        hash ^= hash >>> 16;
+        return hash & 0xFFFF;
+    }
+}
@@ -0,0 +1,188 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Bitboard;
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.Move;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * An opening book of 16-byte big-endian entries: a 64-bit position key, a 16-bit move,
+ * a 16-bit weight and 32 learning bits, sorted by key. The file is memory-mapped and
+ * probed with a binary search, and probing does not allocate, so the book can be
+ * consulted before every search.
+ *
+ * The entries are laid out and the moves encoded like Polyglot's .bin books, but the keys
+ * are Chess.getZobristKey rather than hashes from Polyglot's Random64 table. The books
+ * are therefore not Polyglot books: Polyglot tools cannot read the books BookBuilder
+ * writes, and a Polyglot book opened here matches no position.
+ * A book is read-only and may be probed from several threads at once.
+ */
+public class OpeningBook implements Closeable {
+    static final int ENTRY_BYTES = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer entries;
+    private final int entryCount;
+
+    /**
+     * Opens a book file.
+     * @param path The book.
+     * @throws IOException When the file cannot be read or is not a whole number of entries.
+     */
+    public OpeningBook(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        if (size % ENTRY_BYTES != 0 || size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Not an opening book: " + path);
+        }
+        entries = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        entryCount = (int) (size / ENTRY_BYTES);
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Finds the book moves of a position.
+     * @param game The position; it is changed while the legal moves are generated, but
+     * restored before returning.
+     * @param moves Receives the book moves, best weighted first. It is also used to
+     * generate the legal moves, so it must be at least MoveGenerator.MAX_MOVES long.
+     * @param weights Receives the weight of each book move, as long as moves.
+     * @return The number of book moves, 0 if the position is not in the book.
+     */
+    public int probe(Chess game, int[] moves, int[] weights) {
+        long key = game.getZobristKey();
+        int first = lowerBound(key);
+        if (first == entryCount || getKey(first) != key) {
+            return 0;
+        }
+        int end = first;
+        while (end < entryCount && getKey(end) == key) {
+            end++;
+        }
+
+        //keeps the legal moves that appear in the book, which also guards against the
+        //rare position that shares its key with a book position
+        int count = game.generateLegalMoves(moves);
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            int polyglotMove = toPolyglotMove(moves[i]);
+            for (int entry = first; entry < end; entry++) {
+                if (getMove(entry) == polyglotMove) {
+                    moves[found] = moves[i];
+                    weights[found] = getWeight(entry);
+                    found++;
+                    break;
+                }
+            }
+        }
+
+        //insertion sort by weight, since a position has only a few book moves
+        for (int i = 1; i < found; i++) {
+            int move = moves[i];
+            int weight = weights[i];
+            int j = i - 1;
+            while (j >= 0 && weights[j] < weight) {
+                moves[j + 1] = moves[j];
+                weights[j + 1] = weights[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            weights[j + 1] = weight;
+        }
+        return found;
+    }
+
+    /**
+     * Picks a book move at random, each move with a chance in proportion to its weight.
+     * @param moves Scratch buffer, see probe.
+     * @param weights Scratch buffer, see probe.
+     * @return The move code, or Move.NONE if the position is not in the book.
+     */
+    public int pickMove(Chess game, int[] moves, int[] weights, Random random) {
+        int count = probe(game, moves, weights);
+        long totalWeight = 0;
+        for (int i = 0; i < count; i++) {
+            totalWeight += weights[i];
+        }
+        if (totalWeight == 0) {
+            return Move.NONE;
+        }
+        long pick = (long) (random.nextDouble() * totalWeight);
+        for (int i = 0; i < count; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                return moves[i];
+            }
+        }
+        return moves[count - 1];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Encodes a move the way Polyglot does: the target file and rank in bits 0-5, the
+     * starting file and rank in bits 6-11 (rank 0 is white's back rank) and the
+     * promotion piece in bits 12-14. Castling is written as the king taking its own rook.
+     * @param move A move code.
+     * @return The Polyglot move.
+     */
+    static int toPolyglotMove(int move) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        if (Move.flag(move) == Move.CASTLE) {
+            if (to > from) {
+                to = Bitboard.square(Bitboard.row(from), 7);
+            } else {
+                to = Bitboard.square(Bitboard.row(from), 0);
+            }
+        }
+        //Polyglot numbers the promotion pieces like Piece: knight 1 up to queen 4
+        int promotion = 0;
+        if (Move.isPromotion(move)) {
+            promotion = Move.promotionType(move);
+        }
+        return Bitboard.col(to) | (7 - Bitboard.row(to)) << 3 | Bitboard.col(from) << 6
+                | (7 - Bitboard.row(from)) << 9 | promotion << 12;
+    }
+
+    //the first entry whose key is not below the given key, comparing keys as unsigned
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = entryCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (Long.compareUnsigned(getKey(middle), key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long getKey(int entry) {
+        return entries.getLong(entry * ENTRY_BYTES);
+    }
+
+    private int getMove(int entry) {
+        return entries.getShort(entry * ENTRY_BYTES + 8) & 0xFFFF;
+    }
+
+    private int getWeight(int entry) {
+        return entries.getShort(entry * ENTRY_BYTES + 10) & 0xFFFF;
+    }
+}
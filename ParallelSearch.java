@@ -0,0 +1,196 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.Tablebase;
+import org.cis1200.chess.Perft;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lazy SMP parallel search: several threads search the same root position at
+ * once and share one TranspositionTable, so each thread's results cut down the
+ * work of the others. Helper threads start iterative deepening at staggered
+ * depths so they do not all search the same tree in lockstep.
+ *
+ * Chess and Piece objects are mutable and not thread-safe, so every thread
+ * searches its own copy of the position. The main thread's search decides when
+ * to stop; when it finishes, the helpers are signalled to stop as well.
+ *
+ * A ParallelSearch is not thread-safe; only one search may run at a time.
+ */
+public class ParallelSearch {
+    private final TranspositionTable table;
+    private final AtomicBoolean stopSignal = new AtomicBoolean();
+    //searches[0] runs on the calling thread, the rest on helper threads
+    private final Search[] searches;
+
+    /**
+     * Creates a parallel search.
+     * @param threadCount The number of threads to search with, at least 1.
+     * @param table The transposition table shared by all threads.
+     * @throws IllegalArgumentException When the thread count is less than 1.
+     */
+    public ParallelSearch(int threadCount, TranspositionTable table) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count");
+        }
+        this.table = table;
+        searches = new Search[threadCount];
+        //the main search only stops on its own budgets, so it never sees the signal set
+        searches[0] = new Search(table);
+        for (int i = 1; i < threadCount; i++) {
+            searches[i] = new Search(table, stopSignal);
+        }
+    }
+
+    public int getThreadCount() {
+        return searches.length;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Sets the opening book to play from before searching.
+     * @param book The book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        //only the main search probes; helpers are not started for book positions
+        searches[0].setOpeningBook(book);
+    }
+
+    /**
+     * Sets the endgame tables that every thread scores endings with.
+     * @param tablebase The tables, or null to always search.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        for (Search search : searches) {
+            search.setTablebase(tablebase);
+        }
+    }
+
+    /**
+     * Searches a position for the best move of the player to move.
+     * @param game The position to search, which is left unchanged.
+     * @param maxDepth The deepest iteration to search, in plies.
+     * @param maxNodes The node budget of the main thread.
+     * @param maxMillis The time budget in milliseconds.
+     * @return The deepest completed result of any thread, preferring the main
+     * thread's on a tie. Its node count is the total over all threads.
+     */
+    public SearchResult search(Chess game, int maxDepth, long maxNodes, long maxMillis) {
+        long start = System.currentTimeMillis();
+        SearchResult rootResult = searches[0].probeRoot(game);
+        if (rootResult != null) {
+            return rootResult;
+        }
+        stopSignal.set(false);
+        //once for every thread, which all search with the same table age
+        table.newSearch();
+
+        final SearchResult[] results = new SearchResult[searches.length];
+        Thread[] helpers = new Thread[searches.length];
+        for (int i = 1; i < searches.length; i++) {
+            final int index = i;
+            //every thread needs its own copy of the position
+            final Chess copy = new Chess(game);
+            //odd helpers start one ply deeper than the main thread
+            final int startDepth = 1 + i % 2;
+            helpers[i] = new Thread(new Runnable() {
+                public void run() {
+                    results[index] = searches[index].search(copy, startDepth, maxDepth,
+                            Long.MAX_VALUE, maxMillis, false);
+                }
+            }, "search-helper-" + i);
+            helpers[i].start();
+        }
+
+        results[0] = searches[0].search(new Chess(game), 1, maxDepth, maxNodes, maxMillis,
+                false);
+        stopSignal.set(true);
+        for (int i = 1; i < helpers.length; i++) {
+            try {
+                helpers[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        SearchResult best = results[0];
+        long totalNodes = 0;
+        for (int i = 0; i < searches.length; i++) {
+            totalNodes += searches[i].getNodes();
+            if (results[i] != null && results[i].getDepth() > best.getDepth()
+                    && results[i].getPrincipalVariation().length > 0) {
+                best = results[i];
+            }
+        }
+        return new SearchResult(best.getPrincipalVariation(), best.getScore(), best.getDepth(),
+                totalNodes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reports how the search scales with the number of threads: for each thread
+     * count, the time to reach a fixed depth on a few positions, the nodes per
+     * second, and both compared to a single thread.
+     * Usage: ParallelSearch [depth] [max threads] [table MB]
+     */
+    public static void main(String[] args) {
+        int depth = 6;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int megabytes = 64;
+        if (args.length > 0) {
+            depth = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            maxThreads = Integer.parseInt(args[1]);
+        }
+        if (args.length > 2) {
+            megabytes = Integer.parseInt(args[2]);
+        }
+        String[] fens = {
+            Perft.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        };
+        TranspositionTable table = new TranspositionTable(megabytes);
+        System.out.printf("depth %d, %d positions, %d MB table, %d processors%n", depth,
+                fens.length, megabytes, Runtime.getRuntime().availableProcessors());
+        System.out.println("threads   time ms   speedup        nps   nps ratio");
+
+        long baseMillis = 0;
+        long baseNps = 0;
+        int threads = 1;
+        while (threads <= maxThreads) {
+            ParallelSearch search = new ParallelSearch(threads, table);
+            long millis = 0;
+            long nodes = 0;
+            for (String fen : fens) {
+                Chess game = new Chess();
+                game.loadFen(fen);
+                //every run starts from an empty table so earlier runs do not help it
+                table.clear();
+                SearchResult result = search.search(game, depth, Long.MAX_VALUE,
+                        Long.MAX_VALUE);
+                millis += result.getMillis();
+                nodes += result.getNodes();
+            }
+            long nps = nodes * 1000 / Math.max(millis, 1);
+            if (threads == 1) {
+                baseMillis = millis;
+                baseNps = nps;
+            }
+            System.out.printf("%7d %9d %8.2fx %10d %10.2fx%n", threads, millis,
+                    (double) baseMillis / Math.max(millis, 1), nps, (double) nps / baseNps);
+            //doubles the threads each run, ending on the processor count
+            if (threads < maxThreads && threads * 2 > maxThreads) {
+                threads = maxThreads;
+            } else {
+                threads *= 2;
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public class Pawn extends Piece implements Serializable {
+    private static final long serialVersionUID = -929440736086746678L;
 
     //creates Pawn object using Piece's (superclass)'s constructor
     public Pawn(int color, Position position) {
@@ -12,16 +13,18 @@ public class Pawn extends Piece implements Serializable {
 
 
     @Override
-    public boolean isValidMove(Position to, Chess game) {
-        //checks if the target position is invalid
-        if (!game.isValidPosition(to)) {
+    public boolean isValidMove(int to, Chess game) {
+        //checks if the target square is invalid
+        if (to < 0 || to >= 64) {
             return false;
         }
 
         //calculates the # difference in row & columns between the target and original positions
         Position from = this.getPosition();
-        int rowDifference = to.getRow() - from.getRow();
-        int colDifference = to.getCol() - from.getCol();
+        int toRow = Bitboard.row(to);
+        int toCol = Bitboard.col(to);
+        int rowDifference = toRow - from.getRow();
+        int colDifference = toCol - from.getCol();
         int dir;
         if (this.getColor() == 0) {
             dir = -1;
@@ -36,7 +39,7 @@ public class Pawn extends Piece implements Serializable {
 
         //examines if moving 2 moves forward is valid - only happen if the pawn did not move before
         if (colDifference == 0 && rowDifference == dir * 2 && !this.hasMoved()) {
-            Position middleSquare = new Position(from.getRow() + dir, from.getCol());
+            int middleSquare = Bitboard.square(from.getRow() + dir, from.getCol());
             return game.getPiece(middleSquare) == null && game.getPiece(to) == null;
         }
 
@@ -50,6 +53,11 @@ public class Pawn extends Piece implements Serializable {
         return false;
     }
 
+    @Override
+    public int getType() {
+        return PAWN;
+    }
+
     @Override
     public String toString() {
         return super.toString();
@@ -0,0 +1,209 @@
+package org.cis1200.chess;
+
+import java.util.Arrays;
+
+/**
+ * Perft (performance test) for the Chess move generator. Counts the leaf nodes
+ * of the legal move tree to a fixed depth, so the counts can be compared with
+ * the well-known values for standard positions, and reports nodes per second.
+ *
+ * Usage:
+ *   Perft depth [fen]           counts the nodes from the start position or a FEN
+ *   Perft divide depth [fen]    also prints the node count below each root move
+ *   Perft suite [maxDepth]      checks the standard positions against their known counts,
+ *                               optionally only up to maxDepth
+ */
+public class Perft {
+    public static final String START_FEN =
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    //standard perft positions in EPD form: the FEN followed by ";D<depth> <nodes>" entries
+    private static final String[] SUITE = {
+        //start position
+        START_FEN + " ;D1 20 ;D2 400 ;D3 8902 ;D4 197281 ;D5 4865609",
+        //"Kiwipete": castling, en passant, promotions and pins
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1"
+                + " ;D1 48 ;D2 2039 ;D3 97862 ;D4 4085603",
+        //en passant and discovered checks along the rank
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+                + " ;D1 14 ;D2 191 ;D3 2812 ;D4 43238 ;D5 674624",
+        //promotions, castling through attacked squares
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1"
+                + " ;D1 6 ;D2 264 ;D3 9467 ;D4 422333",
+        //the same position with colors reversed
+        "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1"
+                + " ;D1 6 ;D2 264 ;D3 9467 ;D4 422333",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+                + " ;D1 44 ;D2 1486 ;D3 62379 ;D4 2103487",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+                + " ;D1 46 ;D2 2079 ;D3 89890 ;D4 3894594",
+        //illegal en passant captures that would expose the king
+        "3k4/3p4/8/K1P4r/8/8/8/8 b - - 0 1 ;D6 1134888",
+        "8/8/4k3/8/2p5/8/B2P2K1/8 w - - 0 1 ;D6 1015133",
+        //en passant capture that checks the opponent
+        "8/8/1k6/2b5/2pP4/8/5K2/8 b - d3 0 1 ;D6 1440467",
+        //castling that gives check
+        "5k2/8/8/8/8/8/8/4K2R w K - 0 1 ;D6 661072",
+        "3k4/8/8/8/8/8/8/R3K3 w Q - 0 1 ;D6 803711",
+        //castling rights lost by moving and capturing rooks
+        "r3k2r/1b4bq/8/8/8/8/7B/R3K2R w KQkq - 0 1 ;D4 1274206",
+        //castling prevented by attacked squares
+        "r3k2r/8/3Q4/8/8/5q2/8/R3K2R b KQkq - 0 1 ;D4 1720476",
+        //promotion out of check, to give check and under-promotion
+        "2K2r2/4P3/8/8/8/8/8/3k4 w - - 0 1 ;D6 3821001",
+        "4k3/1P6/8/8/8/8/K7/8 w - - 0 1 ;D6 217342",
+        "8/P1k5/K7/8/8/8/8/8 w - - 0 1 ;D6 92683",
+        //discovered check
+        "8/8/1P2K3/8/2n5/1q6/8/5k2 b - - 0 1 ;D5 1004658",
+        //stalemate and checkmate
+        "K1k5/8/P7/8/8/8/8/8 w - - 0 1 ;D6 2217",
+        "8/k1P5/8/1K6/8/8/8/8 w - - 0 1 ;D7 567584",
+        "8/8/2k5/5q2/5n2/8/5K2/8 b - - 0 1 ;D4 23527",
+    };
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Usage: Perft depth [fen] | Perft divide depth [fen]"
+                    + " | Perft suite [maxDepth]");
+            return;
+        }
+        if (args[0].equals("suite")) {
+            int maxDepth = Integer.MAX_VALUE;
+            if (args.length > 1) {
+                maxDepth = Integer.parseInt(args[1]);
+            }
+            if (!runSuite(maxDepth)) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        boolean divide = args[0].equals("divide");
+        int argIndex = 0;
+        if (divide) {
+            argIndex = 1;
+        }
+        int depth = Integer.parseInt(args[argIndex]);
+        String fen = START_FEN;
+        if (args.length > argIndex + 1) {
+            fen = String.join(" ", Arrays.copyOfRange(args, argIndex + 1, args.length));
+        }
+
+        Chess game = new Chess();
+        game.loadFen(fen);
+        long start = System.nanoTime();
+        long nodes;
+        if (divide) {
+            nodes = divide(game, depth);
+        } else {
+            nodes = perft(game, depth);
+        }
+        report(nodes, System.nanoTime() - start);
+    }
+
+    /**
+     * Counts the leaf nodes of the legal move tree below a position.
+     * @param game The position to start from, which is left unchanged.
+     * @param depth The number of plies to search.
+     * @return The number of leaf nodes.
+     */
+    public static long perft(Chess game, int depth) {
+        return perft(game, depth, new int[depth + 1][MoveGenerator.MAX_MOVES]);
+    }
+
+    //uses one preallocated move buffer per remaining depth
+    private static long perft(Chess game, int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        }
+        int[] moves = buffers[depth];
+        int count = game.generateLegalMoves(moves);
+        //the leaves are exactly the legal moves one ply up
+        if (depth == 1) {
+            return count;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            nodes += perft(game, depth - 1, buffers);
+            game.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Prints the leaf node count below each root move, to find where two move
+     * generators disagree.
+     * @param game The position to start from, which is left unchanged.
+     * @param depth The number of plies to search, at least 1.
+     * @return The total number of leaf nodes.
+     */
+    public static long divide(Chess game, int depth) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = game.generateLegalMoves(moves);
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            long nodes = perft(game, depth - 1);
+            game.unmakeMove();
+            System.out.println(Move.toCoordinateString(moves[i]) + ": " + nodes);
+            total += nodes;
+        }
+        System.out.println("Moves: " + count);
+        return total;
+    }
+
+    /**
+     * Runs every suite position to each known depth up to maxDepth.
+     * @param maxDepth The deepest depth to check.
+     * @return true if every count matched, false otherwise.
+     */
+    public static boolean runSuite(int maxDepth) {
+        boolean passed = true;
+        long totalNodes = 0;
+        long totalTime = 0;
+        for (String entry : SUITE) {
+            String[] parts = entry.split(";");
+            String fen = parts[0].trim();
+            for (int i = 1; i < parts.length; i++) {
+                String[] depthAndNodes = parts[i].trim().substring(1).split(" ");
+                int depth = Integer.parseInt(depthAndNodes[0]);
+                long expected = Long.parseLong(depthAndNodes[1]);
+                if (depth > maxDepth) {
+                    continue;
+                }
+
+                Chess game = new Chess();
+                game.loadFen(fen);
+                long start = System.nanoTime();
+                long nodes = perft(game, depth);
+                long time = System.nanoTime() - start;
+                totalNodes += nodes;
+                totalTime += time;
+
+                String result;
+                if (nodes == expected) {
+                    result = "ok";
+                } else {
+                    result = "FAILED, expected " + expected;
+                    passed = false;
+                }
+                System.out.println(fen + " depth " + depth + ": " + nodes + " " + result);
+            }
+        }
+        report(totalNodes, totalTime);
+        if (passed) {
+            System.out.println("All perft counts match.");
+        } else {
+            System.out.println("Some perft counts do not match!");
+        }
+        return passed;
+    }
+
+    private static void report(long nodes, long nanos) {
+        double seconds = nanos / 1e9;
+        long nodesPerSecond = (long) (nodes / Math.max(seconds, 1e-9));
+        System.out.println("Nodes: " + nodes + ", time: " + String.format("%.3f", seconds)
+                + " s, " + nodesPerSecond + " nodes/s");
+    }
+}
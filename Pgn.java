@@ -0,0 +1,548 @@
+package org.cis1200.chess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Standard Algebraic Notation (SAN) and Portable Game Notation (PGN) for Chess games.
+ * toSan and parseSan convert single moves, toPgn exports a whole game with its tags,
+ * and parseGame replays the text of one game, e.g. as split off by PgnReader.
+ *
+ * The parsers scan the text in place rather than using regular expressions or
+ * substrings, since PgnImporter runs them over millions of games. None of the methods
+ * are thread-safe for the same Chess, but different threads may use different games.
+ */
+public final class Pgn {
+    //SAN letters of the piece types, indexed by type; pawn moves are written without one
+    private static final String PIECE_LETTERS = "PNBRQK";
+    //the tags every exported game has, in the order they are written, and their defaults
+    private static final String[] SEVEN_TAG_ROSTER = {
+        "Event", "Site", "Date", "Round", "White", "Black", "Result",
+    };
+    private static final String[] ROSTER_DEFAULTS = {"?", "?", "????.??.??", "?", "?", "?", "*"};
+    //movetext lines are kept shorter than this, as the PGN export format asks
+    private static final int MAX_LINE_LENGTH = 80;
+    private static final String STANDARD_START_FEN =
+            "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+    private Pgn() {
+    }
+
+    /**
+     * Writes a move in Standard Algebraic Notation, e.g. "Nbd7", "exd6", "e8=Q+" or "O-O#".
+     * @param game The position before the move; it is changed while checking for check,
+     * but restored before returning.
+     * @param move The move code of a legal move in the position.
+     * @return The move in SAN.
+     */
+    public static String toSan(Chess game, int move) {
+        StringBuilder san = new StringBuilder(8);
+        appendSan(game, move, new int[MoveGenerator.MAX_MOVES], san);
+        return san.toString();
+    }
+
+    private static void appendSan(Chess game, int move, int[] moves, StringBuilder san) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        if (Move.flag(move) == Move.CASTLE) {
+            if (to > from) {
+                san.append("O-O");
+            } else {
+                san.append("O-O-O");
+            }
+        } else {
+            int type = game.getPiece(from).getType();
+            boolean isCapture = game.getPiece(to) != null || Move.flag(move) == Move.EN_PASSANT;
+            if (type == Piece.PAWN) {
+                //pawn captures name the file the pawn came from
+                if (isCapture) {
+                    san.append((char) ('a' + Bitboard.col(from)));
+                }
+            } else {
+                san.append(PIECE_LETTERS.charAt(type));
+                appendDisambiguation(game, move, type, moves, san);
+            }
+            if (isCapture) {
+                san.append('x');
+            }
+            san.append((char) ('a' + Bitboard.col(to))).append((char) ('8' - Bitboard.row(to)));
+            if (Move.isPromotion(move)) {
+                san.append('=').append(PIECE_LETTERS.charAt(Move.promotionType(move)));
+            }
+        }
+
+        //the suffix shows whether the move checks or checkmates the opponent
+        game.makeMove(move);
+        Position opponentKing;
+        if (game.isWhiteTurn()) {
+            opponentKing = game.getWhiteKingPosition();
+        } else {
+            opponentKing = game.getBlackKingPosition();
+        }
+        if (game.isKingInCheck(opponentKing)) {
+            if (game.generateLegalMoves(moves) == 0) {
+                san.append('#');
+            } else {
+                san.append('+');
+            }
+        }
+        game.unmakeMove();
+    }
+
+    /**
+     * Adds the file, the rank or both of the starting square when another piece of the
+     * same type could also move to the target square.
+     */
+    private static void appendDisambiguation(Chess game, int move, int type, int[] moves,
+                                             StringBuilder san) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        boolean isAmbiguous = false;
+        boolean isFileShared = false;
+        boolean isRankShared = false;
+        int count = game.generateLegalMoves(moves);
+        for (int i = 0; i < count; i++) {
+            int otherFrom = Move.fromSquare(moves[i]);
+            if (otherFrom != from && Move.toSquare(moves[i]) == to
+                    && game.getPiece(otherFrom).getType() == type) {
+                isAmbiguous = true;
+                if (Bitboard.col(otherFrom) == Bitboard.col(from)) {
+                    isFileShared = true;
+                }
+                if (Bitboard.row(otherFrom) == Bitboard.row(from)) {
+                    isRankShared = true;
+                }
+            }
+        }
+        if (!isAmbiguous) {
+            return;
+        }
+        if (!isFileShared) {
+            san.append((char) ('a' + Bitboard.col(from)));
+        } else if (!isRankShared) {
+            san.append((char) ('8' - Bitboard.row(from)));
+        } else {
+            san.append((char) ('a' + Bitboard.col(from))).append((char) ('8' - Bitboard.row(from)));
+        }
+    }
+
+    /**
+     * Finds the legal move a SAN string stands for.
+     * @param game The position the move is played in.
+     * @param san The move, e.g. "Nf3", "exd5", "e8=Q", "O-O" or "Qh4#".
+     * @return The move code, or Move.NONE if the string is not a legal move or is ambiguous.
+     */
+    public static int parseSan(Chess game, String san) {
+        return parseSan(game, san, 0, san.length(), new int[MoveGenerator.MAX_MOVES]);
+    }
+
+    /**
+     * Finds the legal move written in part of a string. Only the pseudo-legal moves that
+     * match the text are checked for legality, which keeps replaying games cheap.
+     * @param game The position the move is played in.
+     * @param text The text holding the move.
+     * @param start The index of the move's first character.
+     * @param end The index after the move's last character.
+     * @param moves A buffer at least MoveGenerator.MAX_MOVES long.
+     * @return The move code, or Move.NONE if the text is not a legal move or is ambiguous.
+     */
+    static int parseSan(Chess game, String text, int start, int end, int[] moves) {
+        //check marks and annotations such as "!?" do not change the move
+        while (end > start && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        if (end - start < 2) {
+            return Move.NONE;
+        }
+        char first = text.charAt(start);
+        if (first == 'O' || first == '0') {
+            return parseCastle(game, text, start, end, moves);
+        }
+
+        //promotion piece, written "e8=Q" or "e8Q"
+        int promotionType = -1;
+        int lastType = PIECE_LETTERS.indexOf(text.charAt(end - 1));
+        if (lastType > Piece.PAWN && lastType < Piece.KING) {
+            promotionType = lastType;
+            end--;
+            if (end > start && text.charAt(end - 1) == '=') {
+                end--;
+            }
+        }
+
+        //target square, always the last two characters left
+        if (end - start < 2) {
+            return Move.NONE;
+        }
+        int toCol = text.charAt(end - 2) - 'a';
+        int toRow = '8' - text.charAt(end - 1);
+        if (toCol < 0 || toCol > 7 || toRow < 0 || toRow > 7) {
+            return Move.NONE;
+        }
+        int to = Bitboard.square(toRow, toCol);
+        end -= 2;
+
+        //piece letter, then an optional starting file and rank and capture mark
+        int type = Piece.PAWN;
+        int firstType = PIECE_LETTERS.indexOf(first);
+        if (firstType >= 0) {
+            type = firstType;
+            start++;
+        }
+        int fromCol = -1;
+        int fromRow = -1;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromCol = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRow = '8' - c;
+            } else if (c != 'x' && c != '-' && c != ':') {
+                return Move.NONE;
+            }
+        }
+
+        int color;
+        if (game.isWhiteTurn()) {
+            color = 0;
+        } else {
+            color = 1;
+        }
+        long pieces = game.getPieceBoard(color, type);
+        int found = Move.NONE;
+        int count = MoveGenerator.generatePseudoLegalMoves(game, moves);
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int from = Move.fromSquare(move);
+            if (Move.toSquare(move) != to || (pieces & Bitboard.bit(from)) == 0
+                    || Move.flag(move) == Move.CASTLE
+                    || (fromCol >= 0 && Bitboard.col(from) != fromCol)
+                    || (fromRow >= 0 && Bitboard.row(from) != fromRow)) {
+                continue;
+            }
+            if (Move.isPromotion(move)) {
+                if (Move.promotionType(move) != promotionType) {
+                    continue;
+                }
+            } else if (promotionType >= 0) {
+                continue;
+            }
+            if (!game.isLegalMove(move)) {
+                continue;
+            }
+            if (found != Move.NONE) {
+                return Move.NONE;
+            }
+            found = move;
+        }
+        return found;
+    }
+
+    //finds the castling move written "O-O" or "O-O-O" (some files use zeros)
+    private static int parseCastle(Chess game, String text, int start, int end, int[] moves) {
+        int letters = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == 'O' || c == '0') {
+                letters++;
+            } else if (c != '-') {
+                return Move.NONE;
+            }
+        }
+        if (letters != 2 && letters != 3) {
+            return Move.NONE;
+        }
+        boolean isKingside = letters == 2;
+        int count = MoveGenerator.generatePseudoLegalMoves(game, moves);
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (Move.flag(move) == Move.CASTLE
+                    && (Move.toSquare(move) > Move.fromSquare(move)) == isKingside
+                    && game.isLegalMove(move)) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Exports a game in PGN: the Seven Tag Roster, any other tags, and the moves in SAN.
+     * @param game The game to export; it is not changed.
+     * @param tags Tag values by name. Missing roster tags get their "unknown" values,
+     * and a missing Result is worked out from the final position.
+     * @return The game in PGN, ending with a blank line.
+     */
+    public static String toPgn(Chess game, Map<String, String> tags) {
+        StringBuilder pgn = new StringBuilder(1024);
+        appendPgn(game, tags, pgn);
+        return pgn.toString();
+    }
+
+    /**
+     * Appends a game in PGN, so that many games can be exported into one buffer.
+     * @param game The game to export; it is not changed.
+     * @param tags Tag values by name, see toPgn.
+     * @param pgn The buffer to append to.
+     */
+    public static void appendPgn(Chess game, Map<String, String> tags, StringBuilder pgn) {
+        Chess replay = game.getStartPosition();
+        String startFen = replay.toFen();
+        for (int i = 0; i < SEVEN_TAG_ROSTER.length; i++) {
+            String value = tags.get(SEVEN_TAG_ROSTER[i]);
+            if (value == null && SEVEN_TAG_ROSTER[i].equals("Result")) {
+                value = resultOf(game);
+            } else if (value == null) {
+                value = ROSTER_DEFAULTS[i];
+            }
+            appendTag(pgn, SEVEN_TAG_ROSTER[i], value);
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!isRosterTag(tag.getKey())) {
+                appendTag(pgn, tag.getKey(), tag.getValue());
+            }
+        }
+        //games that do not start from the standard position carry their start
+        if (!startFen.equals(STANDARD_START_FEN) && !tags.containsKey("FEN")) {
+            appendTag(pgn, "SetUp", "1");
+            appendTag(pgn, "FEN", startFen);
+        }
+        pgn.append('\n');
+
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        StringBuilder token = new StringBuilder(16);
+        int lineStart = pgn.length();
+        boolean isFirstMove = true;
+        for (Move move : game.getMoveHistory()) {
+            token.setLength(0);
+            if (replay.isWhiteTurn()) {
+                token.append(replay.getFullmoveNumber()).append(". ");
+            } else if (isFirstMove) {
+                token.append(replay.getFullmoveNumber()).append("... ");
+            }
+            appendSan(replay, move.getCode(), moves, token);
+            lineStart = appendToken(pgn, token, lineStart);
+            replay.makeMove(move.getCode());
+            isFirstMove = false;
+        }
+        String result = tags.get("Result");
+        if (result == null) {
+            result = resultOf(game);
+        }
+        token.setLength(0);
+        token.append(result);
+        appendToken(pgn, token, lineStart);
+        pgn.append("\n\n");
+    }
+
+    /**
+     * Appends a movetext token, starting a new line if it would make the line too long.
+     * @return The index where the current line starts.
+     */
+    private static int appendToken(StringBuilder pgn, StringBuilder token, int lineStart) {
+        if (pgn.length() > lineStart) {
+            if (pgn.length() - lineStart + 1 + token.length() >= MAX_LINE_LENGTH) {
+                pgn.append('\n');
+                lineStart = pgn.length();
+            } else {
+                pgn.append(' ');
+            }
+        }
+        pgn.append(token);
+        return lineStart;
+    }
+
+    private static void appendTag(StringBuilder pgn, String name, String value) {
+        pgn.append('[').append(name).append(" \"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                pgn.append('\\');
+            }
+            pgn.append(c);
+        }
+        pgn.append("\"]\n");
+    }
+
+    private static boolean isRosterTag(String name) {
+        for (String rosterTag : SEVEN_TAG_ROSTER) {
+            if (rosterTag.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //the result of a finished game, or "*" if it is still going on
+    private static String resultOf(Chess game) {
+        String gameOver = game.checkForGameOver();
+        if (gameOver == null) {
+            return "*";
+        }
+        if (!gameOver.equals("Checkmate")) {
+            return "1/2-1/2";
+        }
+        //the player to move is the one who was checkmated
+        if (game.isWhiteTurn()) {
+            return "0-1";
+        }
+        return "1-0";
+    }
+
+    /**
+     * Parses the text of one PGN game and replays its moves. Comments, variations,
+     * move numbers and numeric annotation glyphs are skipped. A game with a FEN tag
+     * starts from that position.
+     * @param text The game: its tag pairs followed by the movetext.
+     * @return The tags and the replayed game.
+     * @throws IllegalArgumentException When a tag, the FEN or a move is invalid.
+     */
+    public static PgnGame parseGame(String text) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        int length = text.length();
+        int i = skipWhitespace(text, 0);
+        while (i < length && (text.charAt(i) == '[' || text.charAt(i) == '%')) {
+            if (text.charAt(i) == '%') {
+                i = lineEnd(text, i);
+            } else {
+                i = parseTag(text, i, tags);
+            }
+            i = skipWhitespace(text, i);
+        }
+
+        Chess game = new Chess();
+        String fen = tags.get("FEN");
+        if (fen != null) {
+            game.loadFen(fen);
+        }
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        //moves inside variations are alternatives to the game's moves, so they are skipped
+        int variationDepth = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c <= ' ') {
+                i++;
+            } else if (c == '{') {
+                int close = text.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unterminated comment");
+                }
+                i = close + 1;
+            } else if (c == ';' || c == '%') {
+                //comment or escape to the end of the line
+                i = lineEnd(text, i);
+            } else if (c == '(') {
+                variationDepth++;
+                i++;
+            } else if (c == ')') {
+                variationDepth--;
+                i++;
+            } else {
+                int end = tokenEnd(text, i);
+                if (isResult(text, i, end)) {
+                    if (!tags.containsKey("Result")) {
+                        tags.put("Result", text.substring(i, end));
+                    }
+                } else if (variationDepth == 0 && !isMoveNumber(text, i, end) && c != '$') {
+                    int move = parseSan(game, text, i, end, moves);
+                    if (move == Move.NONE) {
+                        throw new IllegalArgumentException("Illegal move "
+                                + text.substring(i, end) + " after "
+                                + game.getMoveHistory().size() + " plies");
+                    }
+                    game.playMove(move);
+                }
+                i = end;
+            }
+        }
+        return new PgnGame(tags, game);
+    }
+
+    /**
+     * Parses a tag pair such as [White "Fischer, Robert J."] into the map.
+     * @return The index after the closing bracket.
+     */
+    private static int parseTag(String text, int start, Map<String, String> tags) {
+        int length = text.length();
+        int nameStart = skipWhitespace(text, start + 1);
+        int nameEnd = nameStart;
+        while (nameEnd < length && text.charAt(nameEnd) > ' ' && text.charAt(nameEnd) != '"') {
+            nameEnd++;
+        }
+        int i = skipWhitespace(text, nameEnd);
+        if (nameEnd == nameStart || i >= length || text.charAt(i) != '"') {
+            throw new IllegalArgumentException("Invalid tag");
+        }
+        //the value, where \" and \\ stand for a quote and a backslash
+        StringBuilder value = new StringBuilder();
+        i++;
+        while (i < length && text.charAt(i) != '"') {
+            if (text.charAt(i) == '\\' && i + 1 < length) {
+                i++;
+            }
+            value.append(text.charAt(i));
+            i++;
+        }
+        int close = text.indexOf(']', i);
+        if (close < 0) {
+            throw new IllegalArgumentException("Invalid tag");
+        }
+        tags.put(text.substring(nameStart, nameEnd), value.toString());
+        return close + 1;
+    }
+
+    private static int skipWhitespace(String text, int index) {
+        while (index < text.length() && text.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int lineEnd(String text, int index) {
+        while (index < text.length() && text.charAt(index) != '\n') {
+            index++;
+        }
+        return index;
+    }
+
+    //a movetext token ends at whitespace, a comment, a variation or after a move number's dot
+    private static int tokenEnd(String text, int index) {
+        int start = index;
+        while (index < text.length()) {
+            char c = text.charAt(index);
+            if (c <= ' ' || c == '{' || c == '(' || c == ')' || c == ';') {
+                break;
+            }
+            index++;
+            if (c == '.' && isMoveNumber(text, start, index)) {
+                //"1.e4" holds a move number and a move
+                while (index < text.length() && text.charAt(index) == '.') {
+                    index++;
+                }
+                break;
+            }
+        }
+        return index;
+    }
+
+    //move numbers are digits followed by one or more dots, e.g. "12." or "12..."
+    private static boolean isMoveNumber(String text, int start, int end) {
+        int i = start;
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        if (i == start || i == end) {
+            return false;
+        }
+        while (i < end && text.charAt(i) == '.') {
+            i++;
+        }
+        return i == end;
+    }
+
+    private static boolean isResult(String text, int start, int end) {
+        int length = end - start;
+        return (length == 1 && text.charAt(start) == '*')
+                || (length == 3 && (text.startsWith("1-0", start) || text.startsWith("0-1", start)))
+                || (length == 7 && text.startsWith("1/2-1/2", start));
+    }
+}
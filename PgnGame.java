@@ -0,0 +1,40 @@
+package org.cis1200.chess;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A game read from PGN: its tag pairs and the Chess game its moves were replayed into.
+ */
+public class PgnGame {
+    private final Map<String, String> tags;
+    private final Chess game;
+
+    //constructs a PgnGame object
+    public PgnGame(Map<String, String> tags, Chess game) {
+        this.tags = tags;
+        this.game = game;
+    }
+
+    //the value of a tag such as "White" or "Date", or null if the game does not have it
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+
+    public Map<String, String> getTags() {
+        return Collections.unmodifiableMap(tags);
+    }
+
+    public Chess getGame() {
+        return game;
+    }
+
+    //"1-0", "0-1", "1/2-1/2", or "*" for an unfinished or unknown result
+    public String getResult() {
+        String result = tags.get("Result");
+        if (result == null) {
+            return "*";
+        }
+        return result;
+    }
+}
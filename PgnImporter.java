@@ -0,0 +1,227 @@
+package org.cis1200.chess;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Imports every game of a PGN file, parsing and replaying the games on several threads.
+ * The calling thread splits the file into games with a PgnReader and hands them to the
+ * worker threads in batches through a bounded queue, so memory use stays the same however
+ * large the file is. Each worker parses its games with Pgn.parseGame into its own Chess
+ * objects, which are not shared between threads.
+ *
+ * Games that cannot be imported, e.g. because of an illegal move, are counted and skipped.
+ * An Error in a worker, e.g. running out of memory on a huge game, stops the import instead:
+ * the other workers only empty the queue from then on, and importFile rethrows the first
+ * such Error once every worker has finished.
+ */
+public class PgnImporter {
+    //games handed to a worker at a time, so the queue is not touched for every game
+    private static final int BATCH_SIZE = 64;
+    //batches that may wait in the queue per worker before the reader blocks
+    private static final int BATCHES_PER_THREAD = 4;
+
+    /**
+     * Receives the imported games. It is called from the worker threads, so it must be
+     * thread-safe; an exception it throws counts the game as failed.
+     */
+    public interface GameHandler {
+        void handle(PgnGame game);
+    }
+
+    private final int threadCount;
+    private final LongAdder games = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder plies = new LongAdder();
+
+    /**
+     * Creates an importer.
+     * @param threadCount The number of worker threads, at least 1.
+     * @throws IllegalArgumentException When the thread count is less than 1.
+     */
+    public PgnImporter(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Imports the games of a PGN file, returning once every game has been handled.
+     * @param path The PGN file.
+     * @param handler Receives each game that was imported.
+     * @throws IOException When the file cannot be read, or the import was interrupted.
+     */
+    public void importFile(Path path, final GameHandler handler) throws IOException {
+        final BlockingQueue<List<String>> queue =
+                new ArrayBlockingQueue<>(threadCount * BATCHES_PER_THREAD);
+        //the first Error thrown in a worker
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] workers = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        //an empty batch tells the worker that the file is done
+                        List<String> batch = queue.take();
+                        while (!batch.isEmpty()) {
+                            //after a failure the batches are only taken, so the reader and
+                            //the empty batches at the end never wait for a full queue
+                            if (failure.get() == null) {
+                                try {
+                                    for (String text : batch) {
+                                        importGame(text, handler);
+                                    }
+                                } catch (Throwable e) {
+                                    failure.compareAndSet(null, e);
+                                }
+                            }
+                            batch = queue.take();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "pgn-import-" + i);
+            workers[i].start();
+        }
+
+        try (PgnReader reader = new PgnReader(path)) {
+            List<String> batch = new ArrayList<>(BATCH_SIZE);
+            String text = reader.nextGame();
+            while (text != null && failure.get() == null) {
+                batch.add(text);
+                if (batch.size() == BATCH_SIZE) {
+                    put(queue, batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+                text = reader.nextGame();
+            }
+            if (!batch.isEmpty()) {
+                put(queue, batch);
+            }
+        } finally {
+            //does not throw, so an exception from reading the file is the one thrown
+            stopWorkers(queue, workers);
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("PGN import interrupted");
+        }
+        Throwable error = failure.get();
+        if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new IOException("PGN import failed", error);
+        }
+    }
+
+    /**
+     * Hands each worker the empty batch that stops it and waits for all of them to finish.
+     * If the calling thread is interrupted, the workers are interrupted instead of waited
+     * for in the queue, and the calling thread is left interrupted.
+     * @param queue The workers' queue.
+     * @param workers The worker threads.
+     */
+    private static void stopWorkers(BlockingQueue<List<String>> queue, Thread[] workers) {
+        boolean isInterrupted = false;
+        try {
+            for (int i = 0; i < workers.length; i++) {
+                queue.put(Collections.<String>emptyList());
+            }
+        } catch (InterruptedException e) {
+            isInterrupted = true;
+            interruptAll(workers);
+        }
+        for (Thread worker : workers) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    isInterrupted = true;
+                    interruptAll(workers);
+                }
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void interruptAll(Thread[] workers) {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private void importGame(String text, GameHandler handler) {
+        try {
+            PgnGame game = Pgn.parseGame(text);
+            handler.handle(game);
+            games.increment();
+            plies.add(game.getGame().getMoveHistory().size());
+        } catch (RuntimeException e) {
+            failures.increment();
+        }
+    }
+
+    private static void put(BlockingQueue<List<String>> queue, List<String> batch)
+            throws InterruptedIOException {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("PGN import interrupted");
+        }
+    }
+
+    //the number of games imported so far
+    public long getGameCount() {
+        return games.sum();
+    }
+
+    //the number of games skipped because they could not be imported
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    //the number of moves replayed in the imported games
+    public long getPlyCount() {
+        return plies.sum();
+    }
+
+    /**
+     * Imports a PGN file without keeping the games and reports the throughput.
+     * Usage: PgnImporter file.pgn [threads]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: PgnImporter file.pgn [threads]");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length > 1) {
+            threads = Integer.parseInt(args[1]);
+        }
+        PgnImporter importer = new PgnImporter(threads);
+        long start = System.nanoTime();
+        importer.importFile(Paths.get(args[0]), new GameHandler() {
+            public void handle(PgnGame game) {
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d games, %d failed, %d plies in %.2f s with %d threads%n",
+                importer.getGameCount(), importer.getFailureCount(), importer.getPlyCount(),
+                seconds, threads);
+        System.out.printf("%.0f games/s, %.0f plies/s%n", importer.getGameCount() / seconds,
+                importer.getPlyCount() / seconds);
+    }
+}
@@ -0,0 +1,142 @@
+package org.cis1200.chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Splits a PGN file into the text of its games. The file is read through a
+ * FileChannel in fixed-size chunks, so memory use does not grow with the file:
+ * only the chunk and the game being split off are held at any time.
+ *
+ * A game ends where a line starting with a tag pair follows its movetext. Braced
+ * comments and rest-of-line comments are tracked so that a '[' inside them does not
+ * start a new game. The text is decoded as UTF-8.
+ */
+public class PgnReader implements Closeable {
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final FileChannel channel;
+    private final byte[] chunk = new byte[CHUNK_BYTES];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    //the unread part of the chunk is chunk[chunkIndex] to chunk[chunkLength - 1]
+    private int chunkIndex;
+    private int chunkLength;
+    //the bytes of the game being split off, grown for unusually long games
+    private byte[] game = new byte[16 * 1024];
+    private int gameLength;
+    private long bytesRead;
+
+    /**
+     * Opens a PGN file.
+     * @param path The file to read.
+     * @throws IOException When the file cannot be opened.
+     */
+    public PgnReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads the next game.
+     * @return The text of the game, its tag pairs followed by its movetext, or null
+     * at the end of the file.
+     * @throws IOException When reading fails.
+     */
+    public String nextGame() throws IOException {
+        gameLength = 0;
+        boolean hasMovetext = false;
+        //whether only whitespace has been seen on the current line
+        boolean isLineBlank = true;
+        boolean isTagLine = false;
+        boolean isInComment = false;
+        boolean isInLineComment = false;
+        while (chunkIndex < chunkLength || fillChunk()) {
+            int b = chunk[chunkIndex] & 0xFF;
+            if (b == '\n') {
+                isLineBlank = true;
+                isTagLine = false;
+                isInLineComment = false;
+            } else if (isInLineComment) {
+                //skips the rest of the line
+            } else if (isInComment) {
+                if (b == '}') {
+                    isInComment = false;
+                }
+            } else if (b > ' ') {
+                if (isLineBlank) {
+                    isLineBlank = false;
+                    if (b == '[' && hasMovetext) {
+                        //the tag pairs of the next game; left unread for the next call
+                        break;
+                    } else if (b == '[') {
+                        isTagLine = true;
+                    } else if (b != '%') {
+                        hasMovetext = true;
+                    }
+                }
+                if (!isTagLine && b == '{') {
+                    isInComment = true;
+                } else if (!isTagLine && (b == ';' || b == '%')) {
+                    isInLineComment = true;
+                }
+            }
+            appendByte(chunk[chunkIndex]);
+            chunkIndex++;
+        }
+        if (isBlank()) {
+            return null;
+        }
+        return new String(game, 0, gameLength, StandardCharsets.UTF_8);
+    }
+
+    //the number of bytes of the file read so far
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the next chunk of the file.
+     * @return false at the end of the file.
+     */
+    private boolean fillChunk() throws IOException {
+        chunkBuffer.clear();
+        int count = channel.read(chunkBuffer);
+        if (count <= 0) {
+            chunkIndex = 0;
+            chunkLength = 0;
+            return false;
+        }
+        bytesRead += count;
+        chunkIndex = 0;
+        chunkLength = count;
+        return true;
+    }
+
+    private void appendByte(byte b) {
+        if (gameLength == game.length) {
+            byte[] larger = new byte[game.length * 2];
+            System.arraycopy(game, 0, larger, 0, gameLength);
+            game = larger;
+        }
+        game[gameLength++] = b;
+    }
+
+    //whether the bytes read for the current game are all whitespace
+    private boolean isBlank() {
+        for (int i = 0; i < gameLength; i++) {
+            if ((game[i] & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
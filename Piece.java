@@ -3,8 +3,20 @@ package org.cis1200.chess;
 import java.io.Serializable;
 
 public abstract class Piece implements Serializable {
+    //unchanged from the original classes, so games saved with Java serialization still load
+    private static final long serialVersionUID = -3284382492184965009L;
+
     private static final int WHITE = 0;
     private static final int BLACK = 1;
+
+    //piece type indices, used to pick a piece's bitboard in Chess
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
     private int color;
     private Position position;
     private boolean hasMoved;
@@ -38,14 +50,67 @@ public abstract class Piece implements Serializable {
         this.hasMoved = true;
     }
 
+    //restores the moved flag when a move is taken back
+    public void setMoved(boolean hasMoved) {
+        this.hasMoved = hasMoved;
+    }
+
     /**
-     * Abstract function that tests if a move is valid,
-     * requires individual implementation in subclasses
+     * Creates a new piece of the given type.
+     * @param type One of PAWN, KNIGHT, BISHOP, ROOK, QUEEN or KING.
+     * @param color The color of the piece.
+     * @param position The position of the piece.
+     * @throws IllegalArgumentException When the type is not a valid piece type.
+     * @return The new piece.
+     */
+    public static Piece create(int type, int color, Position position) {
+        switch (type) {
+            case PAWN:
+                return new Pawn(color, position);
+            case KNIGHT:
+                return new Knight(color, position);
+            case BISHOP:
+                return new Bishop(color, position);
+            case ROOK:
+                return new Rook(color, position);
+            case QUEEN:
+                return new Queen(color, position);
+            case KING:
+                return new King(color, position);
+            default:
+                throw new IllegalArgumentException("Invalid piece type");
+        }
+    }
+
+    /**
+     * Tests if a move is valid.
      * @param to Position to move the piece to.
      * @param game The state of the Chess game.
      * @return true if move is valid, false otherwise.
      */
-    public abstract boolean isValidMove(Position to, Chess game);
+    public boolean isValidMove(Position to, Chess game) {
+        //checks if the target position is invalid
+        if (!game.isValidPosition(to)) {
+            return false;
+        }
+        return isValidMove(to.getSquare(), game);
+    }
+
+    /**
+     * Abstract function that tests if a move is valid without allocating,
+     * requires individual implementation in subclasses
+     * @param to Square to move the piece to, 0 to 63 (see Bitboard.square).
+     * @param game The state of the Chess game.
+     * @return true if move is valid, false otherwise.
+     */
+    public abstract boolean isValidMove(int to, Chess game);
+
+    /**
+     * Abstract function that gives the type index of the piece,
+     * requires individual implementation in subclasses
+     * @return One of PAWN, KNIGHT, BISHOP, ROOK, QUEEN or KING.
+     */
+    public abstract int getType();
 
     @Override
     public String toString() {
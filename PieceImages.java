@@ -3,71 +3,134 @@ package org.cis1200.chess;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The pictures of the pieces. They are read once from the classpath, e.g. whiteking.png,
+ * into an array indexed like Chess's bitboards (color * 6 + type).
+ *
+ * For drawing, the twelve pictures are scaled once into an Atlas: one image holding a
+ * row of white and a row of black pieces, each exactly as many pixels wide as a square
+ * is on the screen. Drawing a piece then copies pixels from the atlas without looking
+ * anything up or scaling. An atlas is made for each square size and HiDPI scale used
+ * and kept for later.
+ */
 public class PieceImages {
-    private static final Map<String, BufferedImage> images = new HashMap<>();
+    private static final String[] COLOR_NAMES = {"white", "black"};
+    private static final String[] TYPE_NAMES = {"pawn", "knight", "bishop", "rook", "queen",
+        "king"};
+
+    //the pictures as read, or null for one that could not be read
+    private static final BufferedImage[] images = new BufferedImage[12];
+    //atlases by square size in pixels, see getAtlas
+    private static final Map<Long, Atlas> atlases = new HashMap<>();
 
     static {
         //load all images for pieces
-        loadImage("blackking",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackking.png");
-        loadImage("blackqueen",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackqueen.png");
-        loadImage("blackrook",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackrook.png");
-        loadImage("blackbishop",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackbishop.png");
-        loadImage("blackknight",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackknight.png");
-        loadImage("blackpawn",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/blackpawn.png");
-
-        loadImage("whiteking",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whiteking.png");
-        loadImage("whitequeen",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whitequeen.png");
-        loadImage("whiterook",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whiterook.png");
-        loadImage("whitebishop",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whitebishop.png");
-        loadImage("whiteknight",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whiteknight.png");
-        loadImage("whitepawn",
-                "/Users/collin/Downloads/hw09_local_temp/src/main/resources/whitepawn.png");
+        for (int color = 0; color < 2; color++) {
+            for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+                images[color * 6 + type] = loadImage(COLOR_NAMES[color] + TYPE_NAMES[type]
+                        + ".png");
+            }
+        }
     }
 
-    private static void loadImage(String key, String path) {
-        try {
-            BufferedImage image = ImageIO.read(new File(path));
-            images.put(key, image);
+    private static BufferedImage loadImage(String name) {
+        try (InputStream in = PieceImages.class.getResourceAsStream("/" + name)) {
+            if (in == null) {
+                System.err.println("Failed to find image: " + name);
+                return null;
+            }
+            return ImageIO.read(in);
         } catch (IOException e) {
-            System.err.println("Failed to load image: " + path);
+            System.err.println("Failed to load image: " + name);
+            return null;
         }
     }
 
+    /**
+     * Gets the picture of a piece at the size it was read.
+     * @param piece The piece.
+     * @return The picture, or null if it could not be read.
+     */
     public static Image getImage(Piece piece) {
-        String color;
-        if (piece.getColor() == 0) {
-            color = "white";
-        } else {
-            color = "black";
-        }
-
-        String pieceType = piece.getClass().getSimpleName().toLowerCase();
-        String key = color + pieceType;
+        return images[piece.getColor() * 6 + piece.getType()];
+    }
 
-        BufferedImage image = images.get(key);
-        if (image == null) {
-            System.err.println("Failed to find image for piece " + pieceType);
-            return null;
+    /**
+     * Gets the atlas for drawing pieces on squares of the given size.
+     * @param size The size of a square in the units drawn in, e.g. 80.
+     * @param scale How many screen pixels each unit covers, e.g. 2 on a HiDPI screen;
+     * see the scale of Graphics2D.getTransform.
+     * @return The atlas, made the first time this size and scale are asked for.
+     */
+    public static synchronized Atlas getAtlas(int size, double scale) {
+        int pixelSize = (int) Math.round(size * scale);
+        long key = ((long) size << 32) | pixelSize;
+        Atlas atlas = atlases.get(key);
+        if (atlas == null) {
+            atlas = new Atlas(size, pixelSize);
+            atlases.put(key, atlas);
         }
-        return image;
+        return atlas;
     }
 
+    /**
+     * The twelve pictures pre-scaled into one image, for one square size.
+     */
+    public static final class Atlas {
+        private final int size;
+        private final int pixelSize;
+        private final BufferedImage image;
+        //which pictures were read, as bits by piece index
+        private final int drawnPieces;
+
+        private Atlas(int size, int pixelSize) {
+            this.size = size;
+            this.pixelSize = pixelSize;
+            image = new BufferedImage(6 * pixelSize, 2 * pixelSize,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = image.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            int pieces = 0;
+            for (int index = 0; index < 12; index++) {
+                if (images[index] != null) {
+                    g.drawImage(images[index], (index % 6) * pixelSize, (index / 6) * pixelSize,
+                            pixelSize, pixelSize, null);
+                    pieces |= 1 << index;
+                }
+            }
+            g.dispose();
+            drawnPieces = pieces;
+        }
 
+        public int getSize() {
+            return size;
+        }
 
+        /**
+         * Draws a piece filling a square.
+         * @param g The graphics to draw with, scaled as given to getAtlas.
+         * @param piece The piece.
+         * @param x The left of the square.
+         * @param y The top of the square.
+         */
+        public void drawPiece(Graphics g, Piece piece, int x, int y) {
+            int index = piece.getColor() * 6 + piece.getType();
+            if ((drawnPieces & (1 << index)) == 0) {
+                return;
+            }
+            //the source rectangle is in the atlas's pixels, the same number of screen
+            //pixels as the square covers, so the copy needs no scaling
+            int sourceX = (index % 6) * pixelSize;
+            int sourceY = (index / 6) * pixelSize;
+            g.drawImage(image, x, y, x + size, y + size, sourceX, sourceY,
+                    sourceX + pixelSize, sourceY + pixelSize, null);
+        }
+    }
 }
@@ -2,9 +2,26 @@ package org.cis1200.chess;
 
 import java.io.Serializable;
 
+/**
+ * An immutable square on the board, given by its row (0 is black's back row) and
+ * column (0 is the a-file). The 64 squares on the board are cached, so code on hot
+ * paths should use Position.of instead of allocating new positions; internally the
+ * engine addresses squares as ints from 0 to 63 (see Bitboard.square).
+ */
 public class Position implements Serializable {
-    private int row;
-    private int col;
+    private static final long serialVersionUID = -3932924258123694067L;
+
+    //one canonical instance per square, indexed by Bitboard.square(row, col)
+    private static final Position[] SQUARES = new Position[64];
+
+    static {
+        for (int square = 0; square < 64; square++) {
+            SQUARES[square] = new Position(Bitboard.row(square), Bitboard.col(square));
+        }
+    }
+
+    private final int row;
+    private final int col;
 
     //constructs a position object
     public Position(int row, int col) {
@@ -12,6 +29,32 @@ public class Position implements Serializable {
         this.col = col;
     }
 
+    /**
+     * Gets the position of a row and column without allocating, if it is on the board.
+     * @param row The row.
+     * @param col The column.
+     * @return The cached position, or a new one if it is off the board.
+     */
+    public static Position of(int row, int col) {
+        if (row >= 0 && row < 8 && col >= 0 && col < 8) {
+            return SQUARES[Bitboard.square(row, col)];
+        }
+        return new Position(row, col);
+    }
+
+    /**
+     * Gets the cached position of a square.
+     * @param square The square, 0 to 63.
+     * @throws IllegalArgumentException When the square is not on the board.
+     * @return The cached position.
+     */
+    public static Position of(int square) {
+        if (square < 0 || square >= 64) {
+            throw new IllegalArgumentException("Invalid square");
+        }
+        return SQUARES[square];
+    }
+
     public int getRow() {
         return row;
     }
@@ -20,12 +63,14 @@ public class Position implements Serializable {
         return col;
     }
 
-    public void setRow(int row) {
-        this.row = row;
+    //the square index, 0 to 63, of a position on the board
+    public int getSquare() {
+        return Bitboard.square(row, col);
     }
 
-    public void setCol(int col) {
-        this.col = col;
+    //replaces positions read from a saved game with the cached instances
+    private Object readResolve() {
+        return of(row, col);
     }
 
     @Override
@@ -49,4 +94,4 @@ public class Position implements Serializable {
     public int hashCode() {
         return 11 * row + col;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,405 @@
+package org.cis1200.chess;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmarks for the hot paths of the rules engine: movePiece, isKingInCheck,
+ * checkForGameOver, each piece's isValidMove, loadFen/toFen, snapshot and
+ * saveGameState/loadGameState.
+ * Every benchmark runs over a corpus of middlegame and endgame positions.
+ *
+ * Each benchmark is warmed up and then measured over several rounds. Besides the
+ * time per operation it reports the bytes allocated per operation and the garbage
+ * collections during measurement, like JMH's gc profiler. Setup work such as copying
+ * positions for movePiece is done between timed batches and is not counted.
+ *
+ * The legality checks (isKingInCheck, generateLegalMoves and isValidMove) must not
+ * allocate; if any of them allocates a byte or more per operation the run fails with
+ * exit status 1, so it can be used as an allocation regression check.
+ *
+ * Usage: RulesBenchmark [name filter]
+ */
+public class RulesBenchmark {
+    private static final String[] MIDDLEGAMES = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+        "r1bq1rk1/pp2ppbp/2np1np1/8/3NP3/2N1BP2/PPPQ2PP/R3KB1R w KQ - 3 9",
+        "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+    };
+    private static final String[] ENDGAMES = {
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "8/5pk1/6p1/3R4/8/6P1/5PK1/1r6 w - - 0 40",
+        "8/8/8/4k3/8/8/3QK3/8 w - - 0 1",
+        "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+        "8/8/4k3/8/2p5/8/B2P2K1/8 w - - 0 1",
+        "4k3/8/8/3n4/8/2B5/4K3/8 b - - 0 1",
+    };
+
+    private static final int BATCH_SIZE = 1000;
+    private static final long WARMUP_NANOS = 2_000_000_000L;
+    private static final long ROUND_NANOS = 1_000_000_000L;
+    private static final int ROUNDS = 5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    //results are folded into this field so the JIT cannot remove the benchmarked work
+    private static long sink;
+
+    /**
+     * A benchmarked operation. run is timed, prepareBatch is not.
+     */
+    private abstract static class Benchmark {
+        private final String name;
+        //whether the operation must not allocate, see main
+        private boolean isAllocationFree;
+
+        Benchmark(String name) {
+            this.name = name;
+        }
+
+        Benchmark allocationFree() {
+            isAllocationFree = true;
+            return this;
+        }
+
+        //prepares the state used by the next batch of operations
+        void prepareBatch(int batchSize) {
+        }
+
+        //runs one operation and returns a value derived from its result
+        abstract long run(int index);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String filter = "";
+        if (args.length > 0) {
+            filter = args[0];
+        }
+        List<Chess> corpus = new ArrayList<>();
+        for (String fen : MIDDLEGAMES) {
+            corpus.add(fromFen(fen));
+        }
+        for (String fen : ENDGAMES) {
+            corpus.add(fromFen(fen));
+        }
+
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.add(movePiece(corpus));
+        benchmarks.add(isKingInCheck(corpus).allocationFree());
+        benchmarks.add(generateLegalMoves(corpus).allocationFree());
+        benchmarks.add(checkForGameOver(corpus));
+        String[] pieceNames = {"Pawn", "Knight", "Bishop", "Rook", "Queen", "King"};
+        for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+            benchmarks.add(isValidMove(pieceNames[type], type, corpus).allocationFree());
+        }
+        benchmarks.add(loadFen());
+        benchmarks.add(toFen(corpus));
+        benchmarks.add(snapshot(corpus));
+        File saveFile = File.createTempFile("benchmark", ".save");
+        saveFile.deleteOnExit();
+        benchmarks.add(saveGameState(saveFile));
+        benchmarks.add(loadGameState(saveFile));
+
+        System.out.printf("%-28s %14s %12s %14s %8s %10s%n", "Benchmark", "ns/op", "error",
+                "alloc B/op", "gc.count", "gc.time ms");
+        List<String> allocating = new ArrayList<>();
+        for (Benchmark benchmark : benchmarks) {
+            if (benchmark.name.contains(filter)) {
+                double bytesPerOp = measure(benchmark);
+                if (benchmark.isAllocationFree && bytesPerOp >= 1) {
+                    allocating.add(benchmark.name);
+                }
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+        if (!allocating.isEmpty()) {
+            System.out.println("Allocation regression in " + allocating);
+            System.exit(1);
+        }
+    }
+
+    private static Chess fromFen(String fen) {
+        Chess game = new Chess();
+        game.loadFen(fen);
+        return game;
+    }
+
+    //plays the first legal move of each corpus position on a fresh copy
+    private static Benchmark movePiece(List<Chess> corpus) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        Position[] froms = new Position[corpus.size()];
+        Position[] tos = new Position[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            corpus.get(i).generateLegalMoves(moves);
+            froms[i] = Position.of(Move.fromSquare(moves[0]));
+            tos[i] = Position.of(Move.toSquare(moves[0]));
+        }
+        return new Benchmark("Chess.movePiece") {
+            private final Chess[] games = new Chess[BATCH_SIZE];
+
+            @Override
+            void prepareBatch(int batchSize) {
+                for (int i = 0; i < batchSize; i++) {
+                    games[i] = new Chess(corpus.get(i % corpus.size()));
+                }
+            }
+
+            @Override
+            long run(int index) {
+                int position = index % corpus.size();
+                if (games[index].movePiece(froms[position], tos[position])) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    }
+
+    private static Benchmark isKingInCheck(List<Chess> corpus) {
+        return new Benchmark("Chess.isKingInCheck") {
+            @Override
+            long run(int index) {
+                Chess game = corpus.get(index % corpus.size());
+                Position kingPosition;
+                if (game.isWhiteTurn()) {
+                    kingPosition = game.getWhiteKingPosition();
+                } else {
+                    kingPosition = game.getBlackKingPosition();
+                }
+                if (game.isKingInCheck(kingPosition)) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    }
+
+    //generates the legal moves, which makes and unmakes every pseudo-legal move
+    private static Benchmark generateLegalMoves(List<Chess> corpus) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        return new Benchmark("Chess.generateLegalMoves") {
+            @Override
+            long run(int index) {
+                return corpus.get(index % corpus.size()).generateLegalMoves(moves);
+            }
+        };
+    }
+
+    //the result is cached until the position changes, so a move is made and unmade around
+    //each check to measure the full evaluation rather than the cache
+    private static Benchmark checkForGameOver(List<Chess> corpus) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int[] firstMoves = new int[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            corpus.get(i).generateLegalMoves(moves);
+            firstMoves[i] = moves[0];
+        }
+        return new Benchmark("Chess.checkForGameOver") {
+            @Override
+            long run(int index) {
+                Chess game = corpus.get(index % corpus.size());
+                game.makeMove(firstMoves[index % corpus.size()]);
+                long result = 0;
+                if (game.checkForGameOver() != null) {
+                    result = 1;
+                }
+                game.unmakeMove();
+                return result;
+            }
+        };
+    }
+
+    //tries every piece of the given type in the corpus against every target square
+    private static Benchmark isValidMove(String name, int type, List<Chess> corpus) {
+        List<Piece> pieces = new ArrayList<>();
+        List<Position> targets = new ArrayList<>();
+        List<Chess> games = new ArrayList<>();
+        for (Chess game : corpus) {
+            for (int square = 0; square < 64; square++) {
+                Piece piece = game.getPiece(square);
+                if (piece != null && piece.getType() == type) {
+                    for (int target = 0; target < 64; target++) {
+                        pieces.add(piece);
+                        targets.add(Position.of(target));
+                        games.add(game);
+                    }
+                }
+            }
+        }
+        return new Benchmark(name + ".isValidMove") {
+            @Override
+            long run(int index) {
+                int i = index % pieces.size();
+                if (pieces.get(i).isValidMove(targets.get(i), games.get(i))) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    }
+
+    //loads every corpus position in turn into the same game
+    private static Benchmark loadFen() {
+        String[] fens = new String[MIDDLEGAMES.length + ENDGAMES.length];
+        System.arraycopy(MIDDLEGAMES, 0, fens, 0, MIDDLEGAMES.length);
+        System.arraycopy(ENDGAMES, 0, fens, MIDDLEGAMES.length, ENDGAMES.length);
+        Chess game = new Chess();
+        return new Benchmark("Chess.loadFen") {
+            @Override
+            long run(int index) {
+                game.loadFen(fens[index % fens.length]);
+                return game.getZobristKey();
+            }
+        };
+    }
+
+    //writes every corpus position into a reused buffer
+    private static Benchmark toFen(List<Chess> corpus) {
+        StringBuilder fen = new StringBuilder(100);
+        return new Benchmark("Chess.toFen") {
+            @Override
+            long run(int index) {
+                fen.setLength(0);
+                corpus.get(index % corpus.size()).appendFen(fen);
+                return fen.length();
+            }
+        };
+    }
+
+    //the copy a game publishes after each move; it allocates the snapshot, nothing else
+    private static Benchmark snapshot(List<Chess> corpus) {
+        return new Benchmark("Chess.snapshot") {
+            @Override
+            long run(int index) {
+                return corpus.get(index % corpus.size()).snapshot().getZobristKey();
+            }
+        };
+    }
+
+    //saves a game with a move history of a few dozen moves
+    private static Benchmark saveGameState(File file) {
+        Chess game = playedGame();
+        String fileName = file.getPath();
+        return new Benchmark("Chess.saveGameState") {
+            @Override
+            long run(int index) {
+                game.saveGameState(fileName);
+                return 1;
+            }
+        };
+    }
+
+    private static Benchmark loadGameState(File file) {
+        playedGame().saveGameState(file.getPath());
+        Chess game = new Chess();
+        String fileName = file.getPath();
+        return new Benchmark("Chess.loadGameState") {
+            @Override
+            long run(int index) {
+                game.loadGameState(fileName);
+                if (game.isWhiteTurn()) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    }
+
+    //plays the first legal move from the start position until 60 plies or game over
+    private static Chess playedGame() {
+        Chess game = new Chess();
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        for (int ply = 0; ply < 60 && !game.isGameOver(); ply++) {
+            int count = game.generateLegalMoves(moves);
+            int from = Move.fromSquare(moves[ply % count]);
+            int to = Move.toSquare(moves[ply % count]);
+            game.movePiece(Position.of(from), Position.of(to));
+        }
+        return game;
+    }
+
+    /**
+     * Warms up a benchmark, measures it for several rounds and prints the results.
+     * @param benchmark The benchmark to measure.
+     * @return The bytes allocated per operation.
+     */
+    private static double measure(Benchmark benchmark) {
+        runFor(benchmark, WARMUP_NANOS);
+
+        double[] nanosPerOp = new double[ROUNDS];
+        long totalOps = 0;
+        long totalBytes = 0;
+        long gcCount = -gcCount();
+        long gcTime = -gcTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            long[] result = runFor(benchmark, ROUND_NANOS);
+            nanosPerOp[round] = (double) result[1] / result[0];
+            totalOps += result[0];
+            totalBytes += result[2];
+        }
+        gcCount += gcCount();
+        gcTime += gcTime();
+
+        double mean = 0;
+        for (double value : nanosPerOp) {
+            mean += value / ROUNDS;
+        }
+        double variance = 0;
+        for (double value : nanosPerOp) {
+            variance += (value - mean) * (value - mean) / (ROUNDS - 1);
+        }
+        double bytesPerOp = (double) totalBytes / totalOps;
+        System.out.printf("%-28s %14.1f %12.1f %14.1f %8d %10d%n", benchmark.name, mean,
+                Math.sqrt(variance), bytesPerOp, gcCount, gcTime);
+        return bytesPerOp;
+    }
+
+    /**
+     * Runs batches of operations until the timed part has taken at least the given time.
+     * @return The number of operations, the timed nanoseconds and the bytes allocated
+     * by the timed operations.
+     */
+    private static long[] runFor(Benchmark benchmark, long nanos) {
+        long ops = 0;
+        long elapsed = 0;
+        long allocated = 0;
+        while (elapsed < nanos) {
+            benchmark.prepareBatch(BATCH_SIZE);
+            long bytesBefore = THREADS.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                sink += benchmark.run(i);
+            }
+            elapsed += System.nanoTime() - start;
+            allocated += THREADS.getCurrentThreadAllocatedBytes() - bytesBefore;
+            ops += BATCH_SIZE;
+        }
+        return new long[] {ops, elapsed, allocated};
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(gc.getCollectionTime(), 0);
+        }
+        return time;
+    }
+}
@@ -2,6 +2,8 @@ package org.cis1200.chess;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
@@ -25,10 +27,37 @@ public class RunChess implements Runnable {
             }
         });
 
-        //adds button and windowListener (listening for closing of the window)
-        frame.add(newGame, BorderLayout.SOUTH);
+        //creates undo button that takes back the last move
+        JButton undo = new JButton("Undo");
+        undo.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                board.takeBackMove();
+            }
+        });
+
+        //creates checkbox that lets the computer play black
+        JCheckBox computerOpponent = new JCheckBox("Play vs Computer");
+        computerOpponent.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                board.setComputerOpponent(computerOpponent.isSelected());
+            }
+        });
+
+        //adds buttons and windowListener (listening for closing of the window)
+        JPanel controls = new JPanel();
+        controls.add(newGame);
+        controls.add(undo);
+        controls.add(computerOpponent);
+        frame.add(controls, BorderLayout.SOUTH);
         board.addWindowListener(frame);
 
+        //shows what the computer played above the board
+        JLabel status = new JLabel(" ", SwingConstants.CENTER);
+        frame.add(status, BorderLayout.NORTH);
+        board.setStatusLabel(status);
+
         //instructions popup
         final JPopupMenu popup = new JPopupMenu("Instructions");
         String instructions = "Welcome to Chess!\n" +
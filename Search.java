@@ -0,0 +1,523 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Chess;
+import org.cis1200.chess.Move;
+import org.cis1200.chess.MoveGenerator;
+import org.cis1200.chess.Perft;
+import org.cis1200.chess.Piece;
+import org.cis1200.chess.Position;
+import org.cis1200.chess.Tablebase;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Negamax alpha-beta search over Chess positions. The search deepens one ply
+ * at a time (iterative deepening) until it reaches the maximum depth or runs
+ * out of its node or time budget, and returns the result of the deepest
+ * completed iteration. Each iteration searches the previous principal
+ * variation first, and a quiescence search resolves captures at the leaves.
+ * Results are cached in a TranspositionTable, which may be shared with other
+ * Search objects. With an OpeningBook set, positions found in the book are
+ * answered from it without searching, and with a Tablebase set, endings in its
+ * tables are scored exactly instead of searched. A position that repeats one from the
+ * game or the search path, or where the fifty-move rule has run out, scores as a draw.
+ *
+ * A Search keeps per-ply buffers and is not thread-safe; use one per thread.
+ */
+public class Search {
+    public static final int MAX_PLY = 64;
+    //a mate in n plies scores MATE_SCORE - n
+    public static final int MATE_SCORE = 100_000;
+    //scores at least this far from 0 are mates, found by the search or the tablebase;
+    //tablebase mates can be far longer than MAX_PLY, so the band leaves room for them
+    public static final int MIN_MATE_SCORE = MATE_SCORE - 1000;
+    private static final int INFINITY = 1_000_000;
+
+    //ordering bonuses: previous best move first, then the table's move, then captures
+    private static final int PV_BONUS = 1_000_000;
+    private static final int TABLE_MOVE_BONUS = 500_000;
+    private static final int CAPTURE_BONUS = 100_000;
+    private static final int DEFAULT_TABLE_MEGABYTES = 16;
+
+    private final TranspositionTable table;
+    //set by another thread to stop this search, see ParallelSearch
+    private final AtomicBoolean stopSignal;
+
+    private final int[][] moveBuffers = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] orderScores = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    //triangular table of principal variations, one row per ply
+    private final int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private int[] previousPv = new int[0];
+
+    private OpeningBook book;
+    //scratch buffers for probing the book, so probes do not allocate
+    private final int[] bookMoves = new int[MoveGenerator.MAX_MOVES];
+    private final int[] bookWeights = new int[MoveGenerator.MAX_MOVES];
+    private final Random bookRandom = new Random();
+    private Tablebase tablebase;
+
+    private long nodes;
+    private long nodeLimit;
+    private long deadline;
+    private boolean canStop;
+    private boolean isStopped;
+
+    //creates a Search with its own transposition table
+    public Search() {
+        this(new TranspositionTable(DEFAULT_TABLE_MEGABYTES));
+    }
+
+    //creates a Search that uses the given, possibly shared, transposition table
+    public Search(TranspositionTable table) {
+        this(table, new AtomicBoolean());
+    }
+
+    /**
+     * Creates a Search that can be stopped from another thread.
+     * @param table The transposition table, possibly shared with other searches.
+     * @param stopSignal Once set, the search stops as soon as possible, even
+     * during its first iteration.
+     */
+    public Search(TranspositionTable table, AtomicBoolean stopSignal) {
+        this.table = table;
+        this.stopSignal = stopSignal;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Sets the opening book to play from before searching.
+     * @param book The book, or null to always search.
+     */
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Sets the endgame tables to score endings with.
+     * @param tablebase The tables, or null to always search.
+     */
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Answers a position without searching, from the opening book or, for an ending,
+     * from the tablebase.
+     * @param game The position, which is left unchanged.
+     * @return A result with the move and a depth of 0, or null if the position has to
+     * be searched.
+     */
+    public SearchResult probeRoot(Chess game) {
+        long start = System.currentTimeMillis();
+        int move = probeBook(game);
+        int score = 0;
+        if (move == Move.NONE && tablebase != null) {
+            move = tablebase.bestMove(game, bookMoves);
+            if (move != Move.NONE) {
+                score = tablebaseScore(tablebase.probe(game), 0);
+            }
+        }
+        if (move == Move.NONE) {
+            return null;
+        }
+        return new SearchResult(new int[] {move}, score, 0, 0,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Picks a move for a position from the opening book.
+     * @param game The position, which is left unchanged.
+     * @return A book move chosen at random by weight, or Move.NONE if there is no
+     * book or the position is not in it.
+     */
+    public int probeBook(Chess game) {
+        if (book == null) {
+            return Move.NONE;
+        }
+        return book.pickMove(game, bookMoves, bookWeights, bookRandom);
+    }
+
+    //the nodes visited by the last search, including any unfinished iteration
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Searches a position for the best move of the player to move.
+     * @param game The position to search. Moves are made and unmade on it during the
+     * search, so it must not be used by another thread until the search returns.
+     * @param maxDepth The deepest iteration to search, in plies.
+     * @param maxNodes The node budget; the search stops once it is used up.
+     * @param maxMillis The time budget in milliseconds.
+     * @return The result of the deepest completed iteration. The first iteration
+     * always completes, so there is a best move whenever one exists.
+     */
+    public SearchResult search(Chess game, int maxDepth, long maxNodes, long maxMillis) {
+        return search(game, 1, maxDepth, maxNodes, maxMillis);
+    }
+
+    /**
+     * Searches a position, starting iterative deepening at the given depth.
+     * @param startDepth The first iteration to search, in plies.
+     * @return The result of the deepest completed iteration, or null if the
+     * search was stopped by its stop signal before any iteration completed.
+     * @see #search(Chess, int, long, long)
+     */
+    public SearchResult search(Chess game, int startDepth, int maxDepth, long maxNodes,
+            long maxMillis) {
+        return search(game, startDepth, maxDepth, maxNodes, maxMillis, true);
+    }
+
+    /**
+     * Searches a position, starting iterative deepening at the given depth.
+     * @param isNewSearch Whether to mark a new search in the transposition table. The
+     * threads of a ParallelSearch share one root search, which marks it once for all of
+     * them, so their entries do not look older to each other.
+     * @see #search(Chess, int, int, long, long)
+     */
+    SearchResult search(Chess game, int startDepth, int maxDepth, long maxNodes,
+            long maxMillis, boolean isNewSearch) {
+        long start = System.currentTimeMillis();
+        nodes = 0;
+        nodeLimit = maxNodes;
+        deadline = start + maxMillis;
+        //Long.MAX_VALUE means no time limit
+        if (deadline < start) {
+            deadline = Long.MAX_VALUE;
+        }
+        isStopped = false;
+        canStop = false;
+        previousPv = new int[0];
+
+        SearchResult rootResult = probeRoot(game);
+        if (rootResult != null) {
+            return rootResult;
+        }
+        if (isNewSearch) {
+            table.newSearch();
+        }
+
+        SearchResult result = null;
+        for (int depth = startDepth; depth <= Math.min(maxDepth, MAX_PLY); depth++) {
+            int score = negamax(game, depth, 0, -INFINITY, INFINITY);
+            if (isStopped) {
+                break;
+            }
+            previousPv = new int[pvLength[0]];
+            System.arraycopy(pvTable[0], 0, previousPv, 0, pvLength[0]);
+            result = new SearchResult(previousPv, score, depth, nodes,
+                    System.currentTimeMillis() - start);
+            //later iterations may be cut short
+            canStop = true;
+            //no need to search deeper once a forced mate is found
+            if (Math.abs(score) >= MIN_MATE_SCORE) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Searches a position to the given depth.
+     * @return The score for the player to move.
+     */
+    private int negamax(Chess game, int depth, int ply, int alpha, int beta) {
+        pvLength[ply] = 0;
+        if (depth <= 0 || ply >= MAX_PLY) {
+            return quiescence(game, ply, alpha, beta);
+        }
+        if (checkLimits()) {
+            return 0;
+        }
+        nodes++;
+
+        //a position repeated from the game or the search path, or one where the
+        //fifty-move rule has run out, is a draw
+        if (ply > 0 && (game.getHalfmoveClock() >= 100 || game.isRepetition())) {
+            return 0;
+        }
+
+        //an ending in the tables needs no search
+        if (tablebase != null && ply > 0) {
+            int distance = tablebase.probe(game);
+            if (distance != Tablebase.NOT_FOUND) {
+                return tablebaseScore(distance, ply);
+            }
+        }
+
+        //a deep enough stored result may settle this position without searching it
+        long key = game.getZobristKey();
+        long entry = table.probe(key);
+        int tableMove = Move.NONE;
+        if (entry != 0) {
+            tableMove = TranspositionTable.move(entry);
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                int score = scoreFromTable(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                        || (bound == TranspositionTable.LOWER_BOUND && score >= beta)
+                        || (bound == TranspositionTable.UPPER_BOUND && score <= alpha)) {
+                    return score;
+                }
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = game.generateLegalMoves(moves);
+        if (count == 0) {
+            //checkmate, preferring the quickest mate, or stalemate
+            if (isInCheck(game)) {
+                return -MATE_SCORE + ply;
+            }
+            return 0;
+        }
+        orderMoves(game, moves, count, ply, tableMove);
+
+        int originalAlpha = alpha;
+        int bestScore = -INFINITY;
+        int bestMove = Move.NONE;
+        for (int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            int score = -negamax(game, depth - 1, ply + 1, -beta, -alpha);
+            game.unmakeMove();
+            if (isStopped) {
+                return 0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                bestMove = moves[i];
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv(ply, moves[i]);
+                }
+            }
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int bound;
+        if (bestScore <= originalAlpha) {
+            bound = TranspositionTable.UPPER_BOUND;
+        } else if (bestScore >= beta) {
+            bound = TranspositionTable.LOWER_BOUND;
+        } else {
+            bound = TranspositionTable.EXACT;
+        }
+        table.store(key, bestMove, scoreToTable(bestScore, ply), depth, bound);
+        return bestScore;
+    }
+
+    //turns a distance to mate from the tablebase into a mate score, like negamax's
+    private static int tablebaseScore(int distance, int ply) {
+        if (Tablebase.isWin(distance)) {
+            return MATE_SCORE - ply - distance;
+        } else if (Tablebase.isLoss(distance)) {
+            return -MATE_SCORE + ply + distance;
+        }
+        return 0;
+    }
+
+    //mate scores are stored relative to the stored position rather than the root
+    private static int scoreToTable(int score, int ply) {
+        if (score >= MIN_MATE_SCORE) {
+            return score + ply;
+        } else if (score <= -MIN_MATE_SCORE) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int scoreFromTable(int score, int ply) {
+        if (score >= MIN_MATE_SCORE) {
+            return score - ply;
+        } else if (score <= -MIN_MATE_SCORE) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    /**
+     * Searches only captures and promotions until the position is quiet, so the
+     * evaluation is not taken in the middle of an exchange.
+     * @return The score for the player to move.
+     */
+    private int quiescence(Chess game, int ply, int alpha, int beta) {
+        pvLength[ply] = 0;
+        if (checkLimits()) {
+            return 0;
+        }
+        nodes++;
+
+        //the player to move can usually do at least as well as standing still
+        int standPat = Evaluator.evaluate(game);
+        if (standPat >= beta || ply >= MAX_PLY) {
+            return standPat;
+        }
+        if (standPat > alpha) {
+            alpha = standPat;
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = game.generateLegalMoves(moves);
+        int tacticalCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isTactical(game, moves[i])) {
+                moves[tacticalCount++] = moves[i];
+            }
+        }
+        orderMoves(game, moves, tacticalCount, ply, Move.NONE);
+
+        for (int i = 0; i < tacticalCount; i++) {
+            game.makeMove(moves[i]);
+            int score = -quiescence(game, ply + 1, -beta, -alpha);
+            game.unmakeMove();
+            if (isStopped) {
+                return 0;
+            }
+            if (score > alpha) {
+                alpha = score;
+                updatePv(ply, moves[i]);
+                if (alpha >= beta) {
+                    break;
+                }
+            }
+        }
+        return alpha;
+    }
+
+    //records a new best move at this ply followed by the variation below it
+    private void updatePv(int ply, int move) {
+        pvTable[ply][0] = move;
+        System.arraycopy(pvTable[ply + 1], 0, pvTable[ply], 1, pvLength[ply + 1]);
+        pvLength[ply] = pvLength[ply + 1] + 1;
+    }
+
+    //checks the stop signal and the budgets, reading the clock only every 1024 nodes
+    private boolean checkLimits() {
+        if (stopSignal.get()) {
+            isStopped = true;
+        } else if (canStop && (nodes >= nodeLimit
+                || ((nodes & 1023) == 0 && System.currentTimeMillis() >= deadline))) {
+            isStopped = true;
+        }
+        return isStopped;
+    }
+
+    /**
+     * Sorts moves so the previous principal variation move comes first, then the
+     * transposition table's move, then captures of the most valuable victims by
+     * the least valuable attackers.
+     */
+    private void orderMoves(Chess game, int[] moves, int count, int ply, int tableMove) {
+        int pvMove = Move.NONE;
+        if (ply < previousPv.length) {
+            pvMove = previousPv[ply];
+        }
+        int[] scores = orderScores[ply];
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            if (move == pvMove) {
+                scores[i] = PV_BONUS;
+            } else if (move == tableMove) {
+                scores[i] = TABLE_MOVE_BONUS;
+            } else if (isTactical(game, move)) {
+                int victim = pieceTypeAt(game, Move.toSquare(move));
+                int victimValue = 0;
+                if (victim >= 0) {
+                    victimValue = Evaluator.PIECE_VALUES[victim];
+                } else if (Move.flag(move) == Move.EN_PASSANT) {
+                    victimValue = Evaluator.PIECE_VALUES[Piece.PAWN];
+                }
+                if (Move.isPromotion(move)) {
+                    victimValue += Evaluator.PIECE_VALUES[Move.promotionType(move)];
+                }
+                int attacker = pieceTypeAt(game, Move.fromSquare(move));
+                scores[i] = CAPTURE_BONUS + victimValue * 10 - Evaluator.PIECE_VALUES[attacker];
+            } else {
+                scores[i] = 0;
+            }
+        }
+        //insertion sort, highest score first; move lists are short
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                moves[j + 1] = moves[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            scores[j + 1] = score;
+        }
+    }
+
+    //captures, en passant and promotions
+    private static boolean isTactical(Chess game, int move) {
+        return (game.getOccupied() & (1L << Move.toSquare(move))) != 0
+                || Move.flag(move) == Move.EN_PASSANT || Move.isPromotion(move);
+    }
+
+    //finds the type of the piece on a square, or -1 if it is empty
+    private static int pieceTypeAt(Chess game, int square) {
+        long bit = 1L << square;
+        for (int color = 0; color < 2; color++) {
+            if ((game.getColorBoard(color) & bit) != 0) {
+                for (int type = Piece.PAWN; type <= Piece.KING; type++) {
+                    if ((game.getPieceBoard(color, type) & bit) != 0) {
+                        return type;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isInCheck(Chess game) {
+        Position kingPosition;
+        if (game.isWhiteTurn()) {
+            kingPosition = game.getWhiteKingPosition();
+        } else {
+            kingPosition = game.getBlackKingPosition();
+        }
+        return game.isKingInCheck(kingPosition);
+    }
+
+    /**
+     * Searches a few standard positions and prints the depth reached, the
+     * principal variation, the nodes per second and the transposition table statistics.
+     * Usage: Search [millis per position] [table MB]
+     */
+    public static void main(String[] args) {
+        long millis = 50;
+        if (args.length > 0) {
+            millis = Long.parseLong(args[0]);
+        }
+        int megabytes = DEFAULT_TABLE_MEGABYTES;
+        if (args.length > 1) {
+            megabytes = Integer.parseInt(args[1]);
+        }
+        String[] fens = {
+            Perft.START_FEN,
+            "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+            "r1bqkb1r/pppp1ppp/2n2n2/4p3/2B1P3/5N2/PPPP1PPP/RNBQK2R w KQkq - 4 4",
+            "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+            "6k1/5ppp/8/8/8/8/5PPP/3R2K1 w - - 0 1",
+        };
+        Search search = new Search(new TranspositionTable(megabytes));
+        for (String fen : fens) {
+            Chess game = new Chess();
+            game.loadFen(fen);
+            System.out.println(fen);
+            System.out.println("  " + search.search(game, MAX_PLY, Long.MAX_VALUE, millis));
+            System.out.println("  table: " + search.getTable());
+            search.getTable().clear();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package org.cis1200.chess.engine;
+
+import org.cis1200.chess.Move;
+
+/**
+ * The outcome of a search: the best move, its score, and the principal
+ * variation (the line of play both sides are expected to follow).
+ */
+public class SearchResult {
+    private final int bestMove;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long millis;
+    private final int[] principalVariation;
+
+    //constructs a SearchResult object
+    public SearchResult(int[] principalVariation, int score, int depth, long nodes, long millis) {
+        this.principalVariation = principalVariation;
+        if (principalVariation.length > 0) {
+            this.bestMove = principalVariation[0];
+        } else {
+            this.bestMove = Move.NONE;
+        }
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.millis = millis;
+    }
+
+    //basic getters for instance variables
+
+    //the move code of the best move, or Move.NONE if there are no legal moves
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    //the score in centipawns for the player to move, see Search.MATE_SCORE for mates
+    public int getScore() {
+        return score;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+
+    public long getNodesPerSecond() {
+        return nodes * 1000 / Math.max(millis, 1);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("depth ").append(depth).append(" score ").append(score)
+                .append(" nodes ").append(nodes).append(" time ").append(millis)
+                .append(" ms nps ").append(getNodesPerSecond()).append(" pv");
+        for (int move : principalVariation) {
+            sb.append(' ').append(Move.toCoordinateString(move));
+        }
+        return sb.toString();
+    }
+}
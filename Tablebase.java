@@ -0,0 +1,262 @@
+package org.cis1200.chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Looks up positions in the endgame tables written by TablebaseGenerator. Every ".tb"
+ * file of a directory is memory-mapped, and a probe decompresses only the block of
+ * positions it needs. Each thread keeps the last block it read from every table, so
+ * probes near each other, as in a search, are cheap, and probing does not allocate once
+ * a thread has read its blocks.
+ *
+ * A probe gives the distance to mate in plies with best play. Even distances are losses
+ * for the player to move, so 0 is checkmate, and odd distances are wins. Positions with
+ * castling rights, or with pieces on both sides besides the kings, are not covered.
+ * A Tablebase may be probed from several threads at once.
+ */
+public class Tablebase implements Closeable {
+    //probe results besides distances to mate
+    public static final int NOT_FOUND = -2;
+    public static final int DRAW = -1;
+
+    private final List<FileChannel> channels = new ArrayList<>();
+    //the tables by TablebaseIndex.materialKey
+    private final Table[] tables = new Table[TablebaseIndex.materialKeyCount()];
+    private final ThreadLocal<ProbeState> states = new ThreadLocal<ProbeState>() {
+        @Override
+        protected ProbeState initialValue() {
+            return new ProbeState();
+        }
+    };
+
+    /**
+     * Opens the tables of a directory.
+     * @param directory The directory, as written by TablebaseGenerator.write.
+     * @throws IOException When a table cannot be read or is not a table file.
+     */
+    public Tablebase(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tb")) {
+            for (Path file : files) {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                channels.add(channel);
+                Table table = new Table(file, channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size()));
+                tables[table.index.getMaterialKey()] = table;
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    //the number of tables found in the directory
+    public int getTableCount() {
+        return channels.size();
+    }
+
+    /**
+     * Looks up a position.
+     * @param game The position.
+     * @return The distance to mate in plies, DRAW, or NOT_FOUND if no table covers it.
+     */
+    public int probe(Chess game) {
+        long occupied = game.getOccupied();
+        if (Long.bitCount(occupied) > TablebaseIndex.MAX_PIECES + 2
+                || game.getCastlingRights() != 0) {
+            return NOT_FOUND;
+        }
+        //the tables give white the pieces, so if black has them the colors are swapped,
+        //which turns the board upside down
+        int strong;
+        if (Long.bitCount(game.getColorBoard(1)) == 1) {
+            strong = 0;
+        } else if (Long.bitCount(game.getColorBoard(0)) == 1) {
+            strong = 1;
+        } else {
+            return NOT_FOUND;
+        }
+        int flip = 0;
+        if (strong == 1) {
+            flip = 56;
+        }
+
+        ProbeState state = states.get();
+        int[] squares = state.squares;
+        int[] types = state.types;
+        squares[0] = Long.numberOfTrailingZeros(game.getPieceBoard(strong, Piece.KING)) ^ flip;
+        squares[1] = Long.numberOfTrailingZeros(game.getPieceBoard(1 - strong, Piece.KING))
+                ^ flip;
+        int count = 0;
+        for (int type = Piece.QUEEN; type >= Piece.PAWN; type--) {
+            long pieces = game.getPieceBoard(strong, type);
+            while (pieces != 0) {
+                types[count] = type;
+                squares[count + 2] = Long.numberOfTrailingZeros(pieces) ^ flip;
+                pieces &= pieces - 1;
+                count++;
+            }
+        }
+        Table table = tables[TablebaseIndex.materialKey(types, count)];
+        if (table == null) {
+            return NOT_FOUND;
+        }
+        boolean whiteToMove = game.isWhiteTurn() == (strong == 0);
+        int value = table.value(table.index.index(whiteToMove, squares), state);
+        if (value == TablebaseGenerator.DRAW) {
+            return DRAW;
+        }
+        if (value == TablebaseGenerator.ILLEGAL) {
+            return NOT_FOUND;
+        }
+        return value - 1;
+    }
+
+    //whether a distance to mate from probe is a win for the player to move
+    public static boolean isWin(int distance) {
+        return distance >= 0 && distance % 2 == 1;
+    }
+
+    //whether a distance to mate from probe is a loss for the player to move
+    public static boolean isLoss(int distance) {
+        return distance >= 0 && distance % 2 == 0;
+    }
+
+    /**
+     * Finds a move that keeps the best result: the quickest mate when winning, a drawing
+     * move when drawn and the slowest loss when losing.
+     * @param game The position; it is changed while the moves are tried, but restored
+     * before returning.
+     * @param moves Scratch buffer for the legal moves, at least MoveGenerator.MAX_MOVES
+     * long.
+     * @return The move code, or Move.NONE if no table covers the position or it has no
+     * legal moves.
+     */
+    public int bestMove(Chess game, int[] moves) {
+        int distance = probe(game);
+        if (distance == NOT_FOUND) {
+            return Move.NONE;
+        }
+        int count = game.generateLegalMoves(moves);
+        int bestMove = Move.NONE;
+        int bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            game.makeMove(moves[i]);
+            int childDistance = probe(game);
+            game.unmakeMove();
+            //ranks the moves for the player moving: the opponent's quickest loss first,
+            //then draws, then the opponent's slowest win
+            int rank;
+            if (childDistance == NOT_FOUND) {
+                continue;
+            } else if (childDistance == DRAW) {
+                rank = 0;
+            } else if (isLoss(childDistance)) {
+                rank = 1000 - childDistance;
+            } else {
+                rank = -1000 + childDistance;
+            }
+            if (rank > bestRank) {
+                bestRank = rank;
+                bestMove = moves[i];
+            }
+        }
+        return bestMove;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * One mapped table file; see TablebaseGenerator.write for its layout.
+     */
+    private static class Table {
+        private final TablebaseIndex index;
+        private final MappedByteBuffer file;
+        private final int blockCount;
+        private final int offsetsStart;
+        private final int blocksStart;
+
+        Table(Path path, MappedByteBuffer file) throws IOException {
+            this.file = file;
+            if (file.limit() < 9 || file.getInt(0) != TablebaseGenerator.MAGIC
+                    || file.getInt(4) != TablebaseGenerator.VERSION) {
+                throw new IOException("Not a tablebase file: " + path);
+            }
+            int nameLength = file.get(8) & 0xFF;
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < nameLength; i++) {
+                name.append((char) file.get(9 + i));
+            }
+            try {
+                index = TablebaseIndex.forName(name.toString());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Not a tablebase file: " + path, e);
+            }
+            int header = 9 + nameLength;
+            if (file.getInt(header) != index.getSize()) {
+                throw new IOException("Damaged tablebase file: " + path);
+            }
+            blockCount = file.getInt(header + 4);
+            offsetsStart = header + 8;
+            blocksStart = offsetsStart + (blockCount + 1) * 8;
+        }
+
+        //the stored value of a position, decompressing its block if this thread needs it
+        int value(int position, ProbeState state) {
+            int block = position / TablebaseGenerator.BLOCK_POSITIONS;
+            int key = index.getMaterialKey();
+            byte[] values = state.blocks[key];
+            if (values == null) {
+                values = new byte[TablebaseGenerator.BLOCK_POSITIONS];
+                state.blocks[key] = values;
+            } else if (state.blockNumbers[key] == block) {
+                return values[position % TablebaseGenerator.BLOCK_POSITIONS] & 0xFF;
+            }
+            //marks the block as unread until it is inflated completely
+            state.blockNumbers[key] = -1;
+            ByteBuffer input = state.inputs[key];
+            if (input == null) {
+                input = file.duplicate();
+                state.inputs[key] = input;
+            }
+            input.limit(blocksStart + (int) file.getLong(offsetsStart + (block + 1) * 8));
+            input.position(blocksStart + (int) file.getLong(offsetsStart + block * 8));
+            Inflater inflater = state.inflater;
+            inflater.reset();
+            inflater.setInput(input);
+            try {
+                inflater.inflate(values);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Damaged tablebase " + index.getName(), e);
+            }
+            state.blockNumbers[key] = block;
+            return values[position % TablebaseGenerator.BLOCK_POSITIONS] & 0xFF;
+        }
+    }
+
+    //what one thread needs to probe: scratch arrays and its last block of every table
+    private static class ProbeState {
+        private final int[] squares = new int[TablebaseIndex.MAX_PIECES + 2];
+        private final int[] types = new int[TablebaseIndex.MAX_PIECES];
+        private final Inflater inflater = new Inflater();
+        private final byte[][] blocks = new byte[TablebaseIndex.materialKeyCount()][];
+        private final int[] blockNumbers = new int[TablebaseIndex.materialKeyCount()];
+        private final ByteBuffer[] inputs = new ByteBuffer[TablebaseIndex.materialKeyCount()];
+    }
+}
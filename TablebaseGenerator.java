@@ -0,0 +1,640 @@
+package org.cis1200.chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Generates endgame tables by retrograde analysis. For every position of a table (see
+ * TablebaseIndex) it finds the distance to mate in plies with best play, or that the
+ * position is a draw.
+ *
+ * Checkmates are found first. Then in round n, every position mated or mating in n - 1
+ * plies is unmade one move at a time: a position that can move into a loss for the
+ * opponent wins in n, and a position that can only move into wins for the opponent loses
+ * in n once all its moves have been checked. Moves that capture or promote lead into a
+ * smaller table, which is generated first; positions with such moves are also checked in
+ * the round their best capture or promotion decides. Positions never reached are draws.
+ * Each round is split into ranges of positions searched on several threads; the threads
+ * only write positions whose result is decided in that round, so they need no locks.
+ *
+ * The fifty-move rule is ignored, as is castling: tables are only probed for positions
+ * without castling rights.
+ */
+public class TablebaseGenerator {
+    //the value of a position in a table: 0 for a draw, the distance to mate + 1, or ILLEGAL
+    static final int DRAW = 0;
+    static final int ILLEGAL = 255;
+    static final int MAX_DISTANCE = 253;
+    //file header: magic "CHTB", version, then the table name
+    static final int MAGIC = 0x43485442;
+    static final int VERSION = 1;
+    //positions compressed together; the prober decompresses a whole block at a time
+    static final int BLOCK_POSITIONS = 4096;
+    //the ranges of positions the threads take, small enough to keep the threads busy
+    private static final int CHUNK_POSITIONS = 1 << 14;
+
+    private final int threadCount;
+    //the finished tables by name, smaller tables before the tables that need them
+    private final Map<String, byte[]> tables = new LinkedHashMap<>();
+
+    /**
+     * Creates a generator.
+     * @param threadCount The number of threads to generate with, at least 1.
+     * @throws IllegalArgumentException When the thread count is less than 1.
+     */
+    public TablebaseGenerator(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Invalid thread count");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Generates a table and every smaller table it leads to, keeping them in memory.
+     * @param name The table, e.g. "KRK" or "KBNK".
+     * @throws IllegalArgumentException When the name is not a valid table.
+     */
+    public void generate(String name) {
+        generate(TablebaseIndex.forName(name));
+    }
+
+    private byte[] generate(TablebaseIndex index) {
+        byte[] values = tables.get(index.getName());
+        if (values != null) {
+            return values;
+        }
+        //the tables reached by a capture or promotion
+        int pieceCount = index.getPieceCount();
+        for (int i = 0; i < pieceCount; i++) {
+            generate(subIndex(index, i, -1));
+            if (index.getType(i) == Piece.PAWN) {
+                for (int type = Piece.KNIGHT; type <= Piece.QUEEN; type++) {
+                    generate(subIndex(index, i, type));
+                }
+            }
+        }
+        values = new Job(index).run();
+        tables.put(index.getName(), values);
+        return values;
+    }
+
+    /**
+     * Gets the index of the table left after a piece is captured or promoted.
+     * @param piece The captured or promoted piece.
+     * @param newType The type it promotes to, or -1 if it is captured.
+     */
+    private static TablebaseIndex subIndex(TablebaseIndex index, int piece, int newType) {
+        int[] types = index.getTypes();
+        int count = 0;
+        int[] subTypes;
+        if (newType < 0) {
+            subTypes = new int[types.length - 1];
+        } else {
+            subTypes = new int[types.length];
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (i != piece) {
+                subTypes[count++] = types[i];
+            } else if (newType >= 0) {
+                subTypes[count++] = newType;
+            }
+        }
+        return new TablebaseIndex(subTypes);
+    }
+
+    /**
+     * Writes every generated table to a directory, one compressed file per table, named
+     * after the table with the extension ".tb".
+     *
+     * File layout:
+     *   header    magic, version, table name (length byte and ASCII), position count,
+     *             block count
+     *   offsets   block count + 1 longs: where each compressed block starts and ends,
+     *             counted from the start of the blocks
+     *   blocks    BLOCK_POSITIONS values each, compressed with Deflater
+     * @param directory The directory, which must exist.
+     * @throws IOException When a file cannot be written.
+     */
+    public void write(Path directory) throws IOException {
+        for (Map.Entry<String, byte[]> table : tables.entrySet()) {
+            String name = table.getKey();
+            byte[] values = table.getValue();
+            int blockCount = (values.length + BLOCK_POSITIONS - 1) / BLOCK_POSITIONS;
+            long[] offsets = new long[blockCount + 1];
+            byte[][] blocks = new byte[blockCount][];
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            byte[] buffer = new byte[BLOCK_POSITIONS * 2];
+            for (int block = 0; block < blockCount; block++) {
+                int start = block * BLOCK_POSITIONS;
+                deflater.reset();
+                deflater.setInput(values, start, Math.min(BLOCK_POSITIONS,
+                        values.length - start));
+                deflater.finish();
+                int length = deflater.deflate(buffer);
+                blocks[block] = new byte[length];
+                System.arraycopy(buffer, 0, blocks[block], 0, length);
+                offsets[block + 1] = offsets[block] + length;
+            }
+            deflater.end();
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(directory.resolve(name + ".tb")), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeByte(name.length());
+                out.writeBytes(name);
+                out.writeInt(values.length);
+                out.writeInt(blockCount);
+                for (long offset : offsets) {
+                    out.writeLong(offset);
+                }
+                for (byte[] block : blocks) {
+                    out.write(block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates one table, whose smaller tables must already be generated. The work of a
+     * pass is handed out to the threads a chunk of positions at a time.
+     */
+    private class Job {
+        private final TablebaseIndex index;
+        private final byte[] values;
+        //for positions with a capture or promotion: the round in which it decides them
+        private final byte[] pending;
+        //the smaller tables, by the piece captured or promoted and the promotion type
+        private final TablebaseIndex[] captureIndexes;
+        private final byte[][] captureValues;
+        private final TablebaseIndex[][] promotionIndexes = new TablebaseIndex[2][];
+        private final byte[][][] promotionValues = new byte[2][][];
+
+        private final LongAdder changes = new LongAdder();
+        private int pass;
+        private int round;
+        private int nextChunk;
+        private int lastPending;
+
+        Job(TablebaseIndex index) {
+            this.index = index;
+            values = new byte[index.getSize()];
+            pending = new byte[index.getSize()];
+            int pieceCount = index.getPieceCount();
+            captureIndexes = new TablebaseIndex[pieceCount];
+            captureValues = new byte[pieceCount][];
+            for (int i = 0; i < pieceCount; i++) {
+                captureIndexes[i] = subIndex(index, i, -1);
+                captureValues[i] = tables.get(captureIndexes[i].getName());
+                if (index.getType(i) == Piece.PAWN) {
+                    promotionIndexes[i] = new TablebaseIndex[Piece.QUEEN + 1];
+                    promotionValues[i] = new byte[Piece.QUEEN + 1][];
+                    for (int type = Piece.KNIGHT; type <= Piece.QUEEN; type++) {
+                        promotionIndexes[i][type] = subIndex(index, i, type);
+                        promotionValues[i][type] =
+                                tables.get(promotionIndexes[i][type].getName());
+                    }
+                }
+            }
+        }
+
+        byte[] run() {
+            long start = System.nanoTime();
+            runPass(Worker.MARK_ILLEGAL);
+            runPass(Worker.FIND_MATES);
+            round = 1;
+            while (true) {
+                if (round > MAX_DISTANCE) {
+                    throw new IllegalStateException("Distance to mate too long for "
+                            + index.getName());
+                }
+                changes.reset();
+                runPass(Worker.UNMAKE);
+                if (changes.sum() == 0 && round >= lastPending) {
+                    break;
+                }
+                round++;
+            }
+            System.out.printf("%s: %d positions, longest mate %d plies, %.2f s%n",
+                    index.getName(), values.length, longestMate(),
+                    (System.nanoTime() - start) / 1e9);
+            return values;
+        }
+
+        private int longestMate() {
+            int longest = 0;
+            for (byte value : values) {
+                int distance = (value & 0xFF) - 1;
+                if (value != (byte) ILLEGAL && distance > longest) {
+                    longest = distance;
+                }
+            }
+            return longest;
+        }
+
+        //runs one pass over all the positions on the generator's threads
+        private void runPass(int passType) {
+            pass = passType;
+            nextChunk = 0;
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 1; i < threadCount; i++) {
+                threads[i] = new Thread(new Worker(), "tablebase-" + i);
+                threads[i].start();
+            }
+            //the calling thread works as well
+            new Worker().run();
+            for (int i = 1; i < threadCount; i++) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(new InterruptedIOException());
+                }
+            }
+        }
+
+        //hands out the next range of positions, or -1 when the pass is done
+        private synchronized int takeChunk() {
+            int chunk = nextChunk;
+            if (chunk >= values.length) {
+                return -1;
+            }
+            nextChunk += CHUNK_POSITIONS;
+            return chunk;
+        }
+
+        private synchronized void notePending(int pendingRound) {
+            lastPending = Math.max(lastPending, pendingRound);
+        }
+
+        /**
+         * Works through chunks of positions for one pass, with its own scratch arrays.
+         */
+        private class Worker implements Runnable {
+            static final int MARK_ILLEGAL = 0;
+            static final int FIND_MATES = 1;
+            static final int UNMAKE = 2;
+
+            private final int pieceCount = index.getPieceCount();
+            //the position whose moves are looked at: white king, black king, then the
+            //other pieces
+            private final int[] squares = new int[TablebaseIndex.MAX_PIECES + 2];
+            private boolean whiteToMove;
+            //the position whose last move is unmade, kept apart from squares because
+            //its parents are looked at in the middle of unmaking
+            private final int[] unmadeSquares = new int[TablebaseIndex.MAX_PIECES + 2];
+            private boolean unmadeWhiteToMove;
+            private final int[] childSquares = new int[TablebaseIndex.MAX_PIECES + 2];
+            private final int[] subSquares = new int[TablebaseIndex.MAX_PIECES + 2];
+            private final int[] twinSquares = new int[TablebaseIndex.MAX_PIECES + 2];
+
+            public void run() {
+                int chunk = takeChunk();
+                while (chunk >= 0) {
+                    int end = Math.min(chunk + CHUNK_POSITIONS, values.length);
+                    for (int i = chunk; i < end; i++) {
+                        if (pass == MARK_ILLEGAL) {
+                            markIllegal(i);
+                        } else if (pass == FIND_MATES) {
+                            findMate(i);
+                        } else {
+                            unmake(i);
+                        }
+                    }
+                    chunk = takeChunk();
+                }
+            }
+
+            private void markIllegal(int position) {
+                whiteToMove = index.decode(position, squares);
+                long occupied = 0;
+                for (int i = 0; i < pieceCount + 2; i++) {
+                    long bit = Bitboard.bit(squares[i]);
+                    if ((occupied & bit) != 0) {
+                        values[position] = (byte) ILLEGAL;
+                        return;
+                    }
+                    occupied |= bit;
+                }
+                for (int i = 0; i < pieceCount; i++) {
+                    int row = Bitboard.row(squares[i + 2]);
+                    if (index.getType(i) == Piece.PAWN && (row == 0 || row == 7)) {
+                        values[position] = (byte) ILLEGAL;
+                        return;
+                    }
+                }
+                //the player who just moved may not be left in check
+                if ((Attacks.king(squares[0]) & Bitboard.bit(squares[1])) != 0
+                        || (whiteToMove && isBlackKingAttacked(occupied))) {
+                    values[position] = (byte) ILLEGAL;
+                }
+            }
+
+            //marks checkmates and notes the round in which a capture or promotion decides
+            private void findMate(int position) {
+                if (values[position] == (byte) ILLEGAL) {
+                    return;
+                }
+                whiteToMove = index.decode(position, squares);
+                if (!whiteToMove && countMoves() == 0 && isBlackKingAttacked(occupied())) {
+                    values[position] = 1;
+                    return;
+                }
+                int decidingRound = resolve(MAX_DISTANCE, true);
+                if (decidingRound != 0) {
+                    pending[position] = (byte) decidingRound;
+                    notePending(decidingRound);
+                }
+            }
+
+            //unmakes the last move of a position decided in the previous round
+            private void unmake(int position) {
+                int value = values[position] & 0xFF;
+                if (value == round) {
+                    unmadeWhiteToMove = index.decode(position, unmadeSquares);
+                    boolean isLoss = (round - 1) % 2 == 0;
+                    long occupied = 0;
+                    for (int i = 0; i < pieceCount + 2; i++) {
+                        occupied |= Bitboard.bit(unmadeSquares[i]);
+                    }
+                    if (unmadeWhiteToMove) {
+                        //black moved last, and only has its king
+                        unmakePiece(1, Piece.KING, occupied, isLoss);
+                    } else {
+                        unmakePiece(0, Piece.KING, occupied, isLoss);
+                        for (int i = 0; i < pieceCount; i++) {
+                            unmakePiece(i + 2, index.getType(i), occupied, isLoss);
+                        }
+                    }
+                } else if (value == DRAW && (pending[position] & 0xFF) == round) {
+                    whiteToMove = index.decode(position, squares);
+                    decide(position);
+                }
+            }
+
+            //tries every square a piece may have come from
+            private void unmakePiece(int piece, int type, long occupied, boolean isLoss) {
+                int from = unmadeSquares[piece];
+                long origins;
+                if (type == Piece.PAWN) {
+                    //white pawns move towards row 0, and never stand on row 7
+                    origins = 0;
+                    int row = Bitboard.row(from);
+                    if (row < 6 && (occupied & Bitboard.bit(from + 8)) == 0) {
+                        origins = Bitboard.bit(from + 8);
+                        if (row == 4 && (occupied & Bitboard.bit(from + 16)) == 0) {
+                            origins |= Bitboard.bit(from + 16);
+                        }
+                    }
+                } else {
+                    origins = attacks(type, from, occupied) & ~occupied;
+                }
+                while (origins != 0) {
+                    int origin = Long.numberOfTrailingZeros(origins);
+                    origins &= origins - 1;
+                    unmadeSquares[piece] = origin;
+                    int parent = index.index(!unmadeWhiteToMove, unmadeSquares);
+                    unmadeSquares[piece] = from;
+                    if (isLoss) {
+                        win(parent);
+                        win(index.diagonalTwin(parent, twinSquares));
+                    } else {
+                        checkLoss(parent);
+                        checkLoss(index.diagonalTwin(parent, twinSquares));
+                    }
+                }
+            }
+
+            //a parent that can move into a loss for the opponent wins in this round
+            private void win(int parent) {
+                if (values[parent] == DRAW) {
+                    values[parent] = (byte) (round + 1);
+                    changes.increment();
+                }
+            }
+
+            //a parent that can only move into wins for the opponent loses in this round
+            private void checkLoss(int parent) {
+                if (values[parent] == DRAW) {
+                    whiteToMove = index.decode(parent, squares);
+                    decide(parent);
+                }
+            }
+
+            private void decide(int position) {
+                int distance = resolve(round - 1, false);
+                if (distance != 0) {
+                    values[position] = (byte) (distance + 1);
+                    changes.increment();
+                }
+            }
+
+            /**
+             * Looks at every legal move of the decoded position.
+             * @param limit Only positions decided at most this many plies from mate count.
+             * @param onlySmallerTables Whether to look only at captures and promotions,
+             * whose results are already known.
+             * @return The distance to mate of the position, or 0 if it is not decided yet.
+             */
+            private int resolve(int limit, boolean onlySmallerTables) {
+                int shortestWin = Integer.MAX_VALUE;
+                int longestLoss = 0;
+                boolean allLosses = true;
+                int moveCount = 0;
+                long occupied = occupied();
+                for (int piece = 0; piece < pieceCount + 2; piece++) {
+                    if ((piece == 1) == whiteToMove) {
+                        continue;
+                    }
+                    int type = Piece.KING;
+                    if (piece >= 2) {
+                        type = index.getType(piece - 2);
+                    }
+                    int from = squares[piece];
+                    long targets;
+                    if (type == Piece.PAWN) {
+                        targets = 0;
+                        if ((occupied & Bitboard.bit(from - 8)) == 0) {
+                            targets = Bitboard.bit(from - 8);
+                            if (Bitboard.row(from) == 6
+                                    && (occupied & Bitboard.bit(from - 16)) == 0) {
+                                targets |= Bitboard.bit(from - 16);
+                            }
+                        }
+                    } else if (piece == 1) {
+                        //the black king may capture white pieces, but not the white king
+                        targets = Attacks.king(from) & ~Bitboard.bit(squares[0]);
+                    } else {
+                        targets = attacks(type, from, occupied) & ~occupied;
+                    }
+                    while (targets != 0) {
+                        int to = Long.numberOfTrailingZeros(targets);
+                        targets &= targets - 1;
+                        for (int promotion = Piece.QUEEN; promotion >= Piece.KNIGHT;
+                                promotion--) {
+                            int value = childValue(piece, to, type, promotion,
+                                    onlySmallerTables);
+                            if (value >= 0 && value != ILLEGAL) {
+                                moveCount++;
+                                int distance = value - 1;
+                                if (value == DRAW || distance > limit) {
+                                    allLosses = false;
+                                } else if (distance % 2 == 0) {
+                                    shortestWin = Math.min(shortestWin, distance + 1);
+                                } else {
+                                    longestLoss = Math.max(longestLoss, distance + 1);
+                                }
+                            }
+                            //only pawns moving to row 0 try more than one piece
+                            if (type != Piece.PAWN || Bitboard.row(to) != 0) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (shortestWin != Integer.MAX_VALUE) {
+                    return shortestWin;
+                }
+                if (allLosses && moveCount > 0) {
+                    return longestLoss;
+                }
+                return 0;
+            }
+
+            /**
+             * Gets the value of the position after a move, from this table or, after a
+             * capture or promotion, from a smaller one.
+             * @return The value, ILLEGAL if the move leaves the mover in check, or -1 for
+             * a move within this table when only smaller tables are wanted.
+             */
+            private int childValue(int piece, int to, int type, int promotion,
+                    boolean onlySmallerTables) {
+                System.arraycopy(squares, 0, childSquares, 0, pieceCount + 2);
+                childSquares[piece] = to;
+                if (piece == 1) {
+                    for (int i = 0; i < pieceCount; i++) {
+                        if (squares[i + 2] == to) {
+                            return subValue(captureIndexes[i], captureValues[i], i, -1);
+                        }
+                    }
+                } else if (type == Piece.PAWN && Bitboard.row(to) == 0) {
+                    return subValue(promotionIndexes[piece - 2][promotion],
+                            promotionValues[piece - 2][promotion], piece - 2, promotion);
+                }
+                if (onlySmallerTables) {
+                    return -1;
+                }
+                return values[index.index(!whiteToMove, childSquares)] & 0xFF;
+            }
+
+            //looks up childSquares in a smaller table, after a capture or promotion
+            private int subValue(TablebaseIndex subIndex, byte[] subValues, int piece,
+                    int promotion) {
+                subSquares[0] = childSquares[0];
+                subSquares[1] = childSquares[1];
+                //the smaller table lists its pieces strongest first, like this one
+                int count = 0;
+                for (int type = Piece.QUEEN; type >= Piece.PAWN; type--) {
+                    for (int i = 0; i < pieceCount; i++) {
+                        int pieceType = index.getType(i);
+                        if (i == piece) {
+                            pieceType = promotion;
+                        }
+                        if (pieceType == type) {
+                            subSquares[2 + count++] = childSquares[i + 2];
+                        }
+                    }
+                }
+                return subValues[subIndex.index(!whiteToMove, subSquares)] & 0xFF;
+            }
+
+            //counts the legal moves of the decoded position
+            private int countMoves() {
+                long occupied = occupied();
+                long targets = Attacks.king(squares[1]) & ~Bitboard.bit(squares[0]);
+                int count = 0;
+                while (targets != 0) {
+                    int to = Long.numberOfTrailingZeros(targets);
+                    targets &= targets - 1;
+                    if (childValue(1, to, Piece.KING, Piece.QUEEN, false) != ILLEGAL) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+
+            private long occupied() {
+                long occupied = 0;
+                for (int i = 0; i < pieceCount + 2; i++) {
+                    occupied |= Bitboard.bit(squares[i]);
+                }
+                return occupied;
+            }
+
+            private boolean isBlackKingAttacked(long occupied) {
+                long blackKing = Bitboard.bit(squares[1]);
+                for (int i = 0; i < pieceCount; i++) {
+                    int type = index.getType(i);
+                    long attacked;
+                    if (type == Piece.PAWN) {
+                        attacked = Attacks.pawn(0, squares[i + 2]);
+                    } else {
+                        attacked = attacks(type, squares[i + 2], occupied);
+                    }
+                    if ((attacked & blackKing) != 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+    }
+
+    //the squares a piece other than a pawn attacks
+    private static long attacks(int type, int square, long occupied) {
+        if (type == Piece.KNIGHT) {
+            return Attacks.knight(square);
+        } else if (type == Piece.BISHOP) {
+            return Attacks.bishop(square, occupied);
+        } else if (type == Piece.ROOK) {
+            return Attacks.rook(square, occupied);
+        } else if (type == Piece.QUEEN) {
+            return Attacks.queen(square, occupied);
+        }
+        return Attacks.king(square);
+    }
+
+    /**
+     * Generates tables and writes them to a directory.
+     * Usage: TablebaseGenerator directory [threads] table...
+     * e.g. TablebaseGenerator tablebases KQK KRK KPK KBNK
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: TablebaseGenerator directory [threads] table...");
+            return;
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 1;
+        if (Character.isDigit(args[1].charAt(0))) {
+            threads = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        TablebaseGenerator generator = new TablebaseGenerator(threads);
+        for (int i = first; i < args.length; i++) {
+            generator.generate(args[i]);
+        }
+        generator.write(directory);
+    }
+}
@@ -0,0 +1,280 @@
+package org.cis1200.chess;
+
+/**
+ * Numbers the positions of one endgame table, shared by TablebaseGenerator and Tablebase.
+ * A table covers a white king and up to two more white pieces against a lone black king,
+ * e.g. "KRK" or "KBNK"; the pieces besides the kings are listed queen first and pawn last.
+ * Endings where black has the pieces are looked up with the colors swapped.
+ *
+ * The index of a position is built from the side to move, the white king's slot, the
+ * black king's square and the squares of the other pieces, in that order. Symmetry keeps
+ * the tables small: without pawns the board can be turned and mirrored so the white king
+ * is in the a1-d1-d4 triangle (10 slots), and with pawns it can be mirrored so the white
+ * king is on files a to d (32 slots). Positions that break the rules, e.g. with two
+ * pieces on one square, still get an index and are marked illegal by the generator.
+ */
+final class TablebaseIndex {
+    //most pieces a table may have besides the kings
+    static final int MAX_PIECES = 2;
+    //the letter of each piece type, indexed by Piece type
+    private static final String PIECE_LETTERS = "PNBRQK";
+
+    //TRANSFORMS[t] maps every square: bit 0 of t mirrors the columns, bit 1 the rows and
+    //bit 2 reflects the board in the a1-h8 diagonal, applied in that order
+    private static final int[][] TRANSFORMS = new int[8][64];
+    //the transform that brings a white king on each square into the a1-d1-d4 triangle
+    private static final int[] PAWNLESS_TRANSFORM = new int[64];
+    //the slot of each square of the triangle, -1 for the others
+    private static final int[] TRIANGLE_SLOT = new int[64];
+    private static final int[] TRIANGLE_SQUARES = new int[10];
+
+    static {
+        for (int t = 0; t < 8; t++) {
+            for (int square = 0; square < 64; square++) {
+                int row = Bitboard.row(square);
+                int col = Bitboard.col(square);
+                if ((t & 1) != 0) {
+                    col = 7 - col;
+                }
+                if ((t & 2) != 0) {
+                    row = 7 - row;
+                }
+                if ((t & 4) != 0) {
+                    int oldRow = row;
+                    row = 7 - col;
+                    col = 7 - oldRow;
+                }
+                TRANSFORMS[t][square] = Bitboard.square(row, col);
+            }
+        }
+        int slots = 0;
+        for (int square = 0; square < 64; square++) {
+            //file and rank as seen by white, so a1 is file 0 and rank 0
+            int file = Bitboard.col(square);
+            int rank = 7 - Bitboard.row(square);
+            int t = 0;
+            if (file > 3) {
+                t |= 1;
+                file = 7 - file;
+            }
+            if (rank > 3) {
+                t |= 2;
+                rank = 7 - rank;
+            }
+            if (rank > file) {
+                t |= 4;
+            }
+            PAWNLESS_TRANSFORM[square] = t;
+            TRIANGLE_SLOT[square] = -1;
+        }
+        for (int square = 0; square < 64; square++) {
+            if (PAWNLESS_TRANSFORM[square] == 0) {
+                TRIANGLE_SLOT[square] = slots;
+                TRIANGLE_SQUARES[slots] = square;
+                slots++;
+            }
+        }
+    }
+
+    private final String name;
+    //the piece types besides the kings, strongest first
+    private final int[] types;
+    private final boolean hasPawns;
+    private final int kingSlots;
+    private final int size;
+
+    /**
+     * Creates the index of a table.
+     * @param types The piece types besides the kings, in any order.
+     * @throws IllegalArgumentException When there are too many pieces or one is a king.
+     */
+    TablebaseIndex(int[] types) {
+        if (types.length > MAX_PIECES) {
+            throw new IllegalArgumentException("Too many pieces for a tablebase");
+        }
+        this.types = sortTypes(types);
+        boolean pawns = false;
+        StringBuilder builder = new StringBuilder("K");
+        for (int type : this.types) {
+            if (type < Piece.PAWN || type >= Piece.KING) {
+                throw new IllegalArgumentException("Invalid tablebase piece");
+            }
+            if (type == Piece.PAWN) {
+                pawns = true;
+            }
+            builder.append(PIECE_LETTERS.charAt(type));
+        }
+        name = builder.append('K').toString();
+        hasPawns = pawns;
+        if (hasPawns) {
+            kingSlots = 32;
+        } else {
+            kingSlots = TRIANGLE_SQUARES.length;
+        }
+        int positions = 2 * kingSlots * 64;
+        for (int i = 0; i < this.types.length; i++) {
+            positions *= 64;
+        }
+        size = positions;
+    }
+
+    /**
+     * Parses a table name such as "KBNK".
+     * @param name The name: K, the other white pieces and K.
+     * @return The index of the table.
+     * @throws IllegalArgumentException When the name is not a valid table.
+     */
+    static TablebaseIndex forName(String name) {
+        if (name.length() < 2 || name.charAt(0) != 'K' || name.charAt(name.length() - 1) != 'K') {
+            throw new IllegalArgumentException("Invalid tablebase name: " + name);
+        }
+        int[] types = new int[name.length() - 2];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = PIECE_LETTERS.indexOf(Character.toUpperCase(name.charAt(i + 1)));
+            if (types[i] < 0) {
+                throw new IllegalArgumentException("Invalid tablebase name: " + name);
+            }
+        }
+        return new TablebaseIndex(types);
+    }
+
+    //sorts piece types strongest first, which is also the order of the squares in an index
+    static int[] sortTypes(int[] types) {
+        int[] sorted = types.clone();
+        for (int i = 1; i < sorted.length; i++) {
+            int type = sorted[i];
+            int j = i - 1;
+            while (j >= 0 && sorted[j] < type) {
+                sorted[j + 1] = sorted[j];
+                j--;
+            }
+            sorted[j + 1] = type;
+        }
+        return sorted;
+    }
+
+    /**
+     * Gets a number for a set of piece types, used to find a table without building its
+     * name.
+     * @param types The piece types, strongest first.
+     * @param count How many of them to use.
+     * @return A number below materialKeyCount().
+     */
+    static int materialKey(int[] types, int count) {
+        int key = 0;
+        for (int i = 0; i < count; i++) {
+            key = key * 6 + types[i] + 1;
+        }
+        return key;
+    }
+
+    static int materialKeyCount() {
+        return 6 * 6;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int[] getTypes() {
+        return types.clone();
+    }
+
+    int getPieceCount() {
+        return types.length;
+    }
+
+    int getType(int piece) {
+        return types[piece];
+    }
+
+    boolean hasPawns() {
+        return hasPawns;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    int getMaterialKey() {
+        return materialKey(types, types.length);
+    }
+
+    /**
+     * Gets the index of a position, turning the board into its canonical orientation.
+     * @param whiteToMove Whether white is to move.
+     * @param squares The white king's square, the black king's square and then the
+     * squares of the other pieces, in the order of the table's types.
+     * @return The index.
+     */
+    int index(boolean whiteToMove, int[] squares) {
+        int whiteKing = squares[0];
+        int t;
+        if (hasPawns) {
+            t = 0;
+            if (Bitboard.col(whiteKing) > 3) {
+                t = 1;
+            }
+        } else {
+            t = PAWNLESS_TRANSFORM[whiteKing];
+        }
+        int[] transform = TRANSFORMS[t];
+        int king = transform[whiteKing];
+        int slot;
+        if (hasPawns) {
+            slot = Bitboard.row(king) * 4 + Bitboard.col(king);
+        } else {
+            slot = TRIANGLE_SLOT[king];
+        }
+        int index = slot;
+        if (!whiteToMove) {
+            index += kingSlots;
+        }
+        for (int i = 1; i < types.length + 2; i++) {
+            index = index * 64 + transform[squares[i]];
+        }
+        return index;
+    }
+
+    /**
+     * Gets the other index of a position. A position without pawns whose white king is
+     * on the a1-h8 diagonal can be reflected in that diagonal and keep its king in the
+     * triangle, so it has two indexes, one for each reflection.
+     * @param index The index.
+     * @param squares Scratch space for the squares of the position.
+     * @return The index of the reflection, which is the given index for most positions.
+     */
+    int diagonalTwin(int index, int[] squares) {
+        boolean whiteToMove = decode(index, squares);
+        if (hasPawns || Bitboard.row(squares[0]) + Bitboard.col(squares[0]) != 7) {
+            return index;
+        }
+        for (int i = 1; i < types.length + 2; i++) {
+            squares[i] = TRANSFORMS[4][squares[i]];
+        }
+        return index(whiteToMove, squares);
+    }
+
+    /**
+     * Reads the squares of an index back.
+     * @param index The index.
+     * @param squares Receives the white king, the black king and then the other pieces.
+     * @return Whether white is to move.
+     */
+    boolean decode(int index, int[] squares) {
+        for (int i = types.length - 1; i >= 0; i--) {
+            squares[i + 2] = index & 63;
+            index >>>= 6;
+        }
+        squares[1] = index & 63;
+        index >>>= 6;
+        boolean whiteToMove = index < kingSlots;
+        int slot = index % kingSlots;
+        if (hasPawns) {
+            squares[0] = Bitboard.square(slot / 4, slot % 4);
+        } else {
+            squares[0] = TRIANGLE_SQUARES[slot];
+        }
+        return whiteToMove;
+    }
+}
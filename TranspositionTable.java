@@ -0,0 +1,188 @@
+package org.cis1200.chess.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size transposition table keyed by the Zobrist hash of a position
+ * (Chess.getZobristKey). Each entry packs the best move, score, depth, bound
+ * type and search age into a single long data word, stored in a preallocated
+ * long[] next to the key XOR the data.
+ *
+ * The table is lock-free so several search threads can share it. Entries are
+ * written and read without synchronization; if two threads write the same slot
+ * at once, the stored key no longer matches key XOR data and the probe treats
+ * the torn entry as a miss instead of returning mixed data.
+ *
+ * The data word layout, from the lowest bit:
+ *   bits 0-15   move code
+ *   bits 16-35  score, signed
+ *   bits 36-43  depth
+ *   bits 44-45  bound type
+ *   bits 46-53  age of the search that stored it
+ *   bit 63      set for every stored entry, so 0 means an empty slot
+ */
+public class TranspositionTable {
+    //bound types: the stored score is exact, a lower bound (>= beta) or an upper bound (<= alpha)
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;
+    public static final int UPPER_BOUND = 2;
+
+    private static final int ENTRY_BYTES = 16;
+    private static final long VALID_BIT = 1L << 63;
+
+    private final long[] table;
+    private final long indexMask;
+    private volatile int age;
+
+    private final LongAdder probes = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder overwrites = new LongAdder();
+
+    /**
+     * Creates a table that uses at most the given amount of memory.
+     * @param megabytes The size in MB; the entry count is rounded down to a power of two.
+     * @throws IllegalArgumentException When the size is not positive.
+     */
+    public TranspositionTable(int megabytes) {
+        if (megabytes <= 0) {
+            throw new IllegalArgumentException("Invalid table size");
+        }
+        long entries = Long.highestOneBit((long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+        //a Java array holds at most 2^30 entries of two longs
+        entries = Math.min(entries, 1L << 30);
+        table = new long[(int) (entries * 2)];
+        indexMask = entries - 1;
+    }
+
+    /**
+     * Looks up a position.
+     * @param key The Zobrist hash of the position.
+     * @return The data word of the entry, or 0 if the position is not stored.
+     */
+    public long probe(long key) {
+        probes.increment();
+        int index = (int) (key & indexMask) * 2;
+        long data = table[index + 1];
+        if (data == 0) {
+            return 0;
+        }
+        if ((table[index] ^ data) != key) {
+            collisions.increment();
+            return 0;
+        }
+        hits.increment();
+        return data;
+    }
+
+    /**
+     * Stores a search result. An entry for a different position is only replaced
+     * if it comes from an earlier search or was searched no deeper.
+     * @param key The Zobrist hash of the position.
+     * @param move The best move found, or Move.NONE.
+     * @param score The score, which must fit in 20 signed bits.
+     * @param depth The depth searched, 0 to 255.
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND.
+     */
+    public void store(long key, int move, int score, int depth, int bound) {
+        int index = (int) (key & indexMask) * 2;
+        long oldData = table[index + 1];
+        boolean isSamePosition = oldData != 0 && (table[index] ^ oldData) == key;
+        if (oldData != 0 && !isSamePosition) {
+            if (age(oldData) == age && depth(oldData) > depth) {
+                return;
+            }
+            overwrites.increment();
+        }
+        //keeps the old best move when the new result has none
+        if (move == 0 && isSamePosition) {
+            move = move(oldData);
+        }
+        long data = VALID_BIT
+                | (move & 0xFFFFL)
+                | ((score & 0xFFFFFL) << 16)
+                | ((long) (depth & 0xFF) << 36)
+                | ((long) (bound & 3) << 44)
+                | ((long) (age & 0xFF) << 46);
+        table[index] = key ^ data;
+        table[index + 1] = data;
+        stores.increment();
+    }
+
+    //unpacks the fields of a data word returned by probe
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFF);
+    }
+
+    public static int score(long data) {
+        //shifts the 20-bit field to the top and back down to restore its sign
+        return (int) (data << 28 >> 44);
+    }
+
+    public static int depth(long data) {
+        return (int) ((data >>> 36) & 0xFF);
+    }
+
+    public static int bound(long data) {
+        return (int) ((data >>> 44) & 3);
+    }
+
+    private static int age(long data) {
+        return (int) ((data >>> 46) & 0xFF);
+    }
+
+    //marks the start of a new search, so entries from older searches are replaced first
+    public void newSearch() {
+        age = (age + 1) & 0xFF;
+    }
+
+    public void clear() {
+        Arrays.fill(table, 0L);
+        resetStatistics();
+    }
+
+    public int getEntryCount() {
+        return table.length / 2;
+    }
+
+    //fraction of probes that found their position
+    public double getHitRate() {
+        return ratio(hits.sum(), probes.sum());
+    }
+
+    //fraction of probes that found a different position in the slot
+    public double getCollisionRate() {
+        return ratio(collisions.sum(), probes.sum());
+    }
+
+    //fraction of stores that replaced a different position
+    public double getOverwriteRate() {
+        return ratio(overwrites.sum(), stores.sum());
+    }
+
+    public void resetStatistics() {
+        probes.reset();
+        hits.reset();
+        collisions.reset();
+        stores.reset();
+        overwrites.reset();
+    }
+
+    private static double ratio(long count, long total) {
+        if (total == 0) {
+            return 0;
+        }
+        return (double) count / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d probes, hit %.1f%%, collision %.1f%%, "
+                        + "%d stores, overwrite %.1f%%", getEntryCount(), probes.sum(),
+                getHitRate() * 100, getCollisionRate() * 100, stores.sum(),
+                getOverwriteRate() * 100);
+    }
+}
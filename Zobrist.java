@@ -0,0 +1,65 @@
+package org.cis1200.chess;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of Chess positions. The hash of a position is
+ * the XOR of the key of every piece on its square, the side key when black is to
+ * move, the key of the current castling rights and the key of the en passant
+ * column. Because XOR undoes itself, Chess can update the hash incrementally as
+ * pieces are placed and removed.
+ */
+public final class Zobrist {
+    //keys for each piece index (color * 6 + type) on each square
+    private static final long[][] PIECE_KEYS = new long[12][64];
+    private static final long BLACK_TO_MOVE_KEY;
+    private static final long[] CASTLING_KEYS = new long[16];
+    private static final long[] EN_PASSANT_KEYS = new long[8];
+
+    static {
+        //a fixed seed keeps hashes the same from run to run, so they can be stored
+        Random random = new Random(0x5EEDC0FFEEL);
+        for (int piece = 0; piece < 12; piece++) {
+            for (int square = 0; square < 64; square++) {
+                PIECE_KEYS[piece][square] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE_KEY = random.nextLong();
+        //no castling rights contributes nothing to the hash
+        for (int rights = 1; rights < 16; rights++) {
+            CASTLING_KEYS[rights] = random.nextLong();
+        }
+        for (int col = 0; col < 8; col++) {
+            EN_PASSANT_KEYS[col] = random.nextLong();
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    public static long pieceKey(Piece piece, int square) {
+        return PIECE_KEYS[piece.getColor() * 6 + piece.getType()][square];
+    }
+
+    //the key for a piece index, color * 6 + type, on a square
+    public static long pieceKey(int pieceIndex, int square) {
+        return PIECE_KEYS[pieceIndex][square];
+    }
+
+    public static long blackToMoveKey() {
+        return BLACK_TO_MOVE_KEY;
+    }
+
+    //the key for a combination of the castling rights bits in Chess, 0 to 15
+    public static long castlingKey(int castlingRights) {
+        return CASTLING_KEYS[castlingRights];
+    }
+
+    //the key for an en passant square, or 0 if there is none
+    public static long enPassantKey(int enPassantSquare) {
+        if (enPassantSquare < 0) {
+            return 0L;
+        }
+        return EN_PASSANT_KEYS[Bitboard.col(enPassantSquare)];
+    }
+}